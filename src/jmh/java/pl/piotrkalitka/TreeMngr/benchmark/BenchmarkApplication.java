@@ -0,0 +1,40 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pl.piotrkalitka.TreeMngr.TreeMngrApplication;
+
+/**
+ * Starts the application against an embedded H2 database in MySQL mode, quietly and without a fixed port.
+ */
+final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    /**
+     * @param statementCounter - counter wrapped around data sources
+     * @param args             - more properties as command line arguments, e.g. --treemngr.engine=memory
+     * @return started context
+     */
+    static ConfigurableApplicationContext start(StatementCounter statementCounter, String... args) {
+        List<String> all = new ArrayList<>(Arrays.asList(
+                "--spring.datasource.url=jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=none",
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--treemngr.jdbc.stream-fetch-size=1000",
+                "--logging.level.root=WARN"));
+        all.addAll(Arrays.asList(args));
+        return new SpringApplicationBuilder(TreeMngrApplication.class)
+                .logStartupInfo(false)
+                .initializers(context -> context.getBeanFactory().addBeanPostProcessor(statementCounter))
+                .run(all.toArray(new String[0]));
+    }
+
+}
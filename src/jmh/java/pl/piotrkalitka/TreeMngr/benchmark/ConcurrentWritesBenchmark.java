@@ -0,0 +1,111 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.service.ItemsService;
+
+/**
+ * Write throughput of value changes, adds and moves from concurrent threads, run with -t 1, -t 2, -t 4 to see how it
+ * scales. The first item has a fixed number of subtrees split between threads; most writes of a thread stay in its
+ * own subtrees, one in ten moves an item into a subtree of any thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ConcurrentWritesBenchmark {
+
+    private static final int SUBTREES = 16;
+
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private ConfigurableApplicationContext context;
+    private ItemsService itemsService;
+    private List<List<Long>> subtrees;
+
+    @Setup(Level.Trial)
+    public void buildTree() {
+        context = BenchmarkApplication.start(new StatementCounter());
+        itemsService = context.getBean(ItemsService.class);
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        subtrees = new ArrayList<>();
+        for (int i = 0; i < SUBTREES; i++) {
+            List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+            ids.add(itemsService.addItem(1, root.getId()).getId());
+            subtrees.add(ids);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private final List<List<Long>> own = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void pickSubtrees(ConcurrentWritesBenchmark benchmark, BenchmarkParams params) {
+            int thread = benchmark.nextThread.getAndIncrement();
+            for (int i = thread; i < SUBTREES; i += params.getThreads()) {
+                own.add(benchmark.subtrees.get(i));
+            }
+        }
+
+    }
+
+    /**
+     * Moves under own descendants are rejected, their cost is the cost of the cycle check.
+     */
+    @Benchmark
+    public Object write(Writer writer) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Long> own = writer.own.get(random.nextInt(writer.own.size()));
+        Long itemId = randomId(own, random);
+        int kind = random.nextInt(10);
+        try {
+            if (kind < 4) return itemsService.updateItem(itemId, random.nextInt(100), null);
+            if (kind < 7) {
+                Item added = itemsService.addItem(random.nextInt(100), itemId);
+                own.add(added.getId());
+                return added;
+            }
+            List<Long> target = kind == 9 ? subtrees.get(random.nextInt(SUBTREES)) : own;
+            return itemsService.updateItem(itemId, null, randomId(target, random));
+        } catch (UnprocessableEntityException e) {
+            return e;
+        }
+    }
+
+    private static Long randomId(List<Long> ids, ThreadLocalRandom random) {
+        synchronized (ids) {
+            return ids.get(random.nextInt(ids.size()));
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.service.ItemsService;
+
+/**
+ * Time of copying a random subtree of given size, which should grow with the number of copied rows only. The copy is
+ * removed after every invocation, outside of the measured time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyItemBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private ConfigurableApplicationContext context;
+    private ItemsService itemsService;
+    private long sourceId;
+    private long targetId;
+    private Long copyId;
+
+    @Setup(Level.Trial)
+    public void buildTree() {
+        context = BenchmarkApplication.start(new StatementCounter());
+        itemsService = context.getBean(ItemsService.class);
+
+        Random random = new Random(3);
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        targetId = itemsService.addItem(5, itemsService.addItem(5, root.getId()).getId()).getId();
+        sourceId = itemsService.addItem(1, root.getId()).getId();
+        List<Long> ids = new ArrayList<>();
+        ids.add(sourceId);
+        for (int i = 1; i < size; i++) {
+            ids.add(itemsService.addItem(random.nextInt(10), ids.get(random.nextInt(ids.size()))).getId());
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeCopy() {
+        if (copyId != null) itemsService.removeItem(copyId);
+        copyId = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public Item copyItem() {
+        Item copy = itemsService.copyItem(sourceId, targetId);
+        copyId = copy.getId();
+        return copy;
+    }
+
+}
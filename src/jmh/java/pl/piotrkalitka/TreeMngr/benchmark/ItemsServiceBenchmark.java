@@ -0,0 +1,220 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.service.InMemoryItemsService;
+import pl.piotrkalitka.TreeMngr.service.ItemRecordFormat;
+import pl.piotrkalitka.TreeMngr.service.ItemsService;
+import pl.piotrkalitka.TreeMngr.service.ItemsWriteBehind;
+
+/**
+ * Throughput of {@link ItemsService} hot paths on generated trees, against an embedded H2 database in MySQL mode.
+ * Every iteration starts from a freshly imported tree. Statements per operation, JPA and JDBC ones, are printed after
+ * every iteration; run with -prof gc for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemsServiceBenchmark {
+
+    private static final int MAX_COPIED_SUBTREE = 100;
+
+    @Param({"CHAIN", "FAN", "RANDOM"})
+    public TreeShape shape;
+
+    // 5000 is the depth of the deepest trees in production, reached by CHAIN
+    @Param({"1000", "5000", "10000"})
+    public int size;
+
+    @Param({"jpa", "memory"})
+    public String engine;
+
+    private final StatementCounter statementCounter = new StatementCounter();
+    private ConfigurableApplicationContext context;
+    private ItemsService itemsService;
+    private JdbcTemplate jdbcTemplate;
+    private Random random;
+    private int[] subtreeSizes;
+    private long[] ids;
+    private long[] smallSubtreeIds;
+    private long statementsBefore;
+    private long operations;
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = BenchmarkApplication.start(statementCounter, "--treemngr.engine=" + engine);
+        itemsService = context.getBean(ItemsService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void importTree() throws IOException {
+        if (ids != null) itemsService.removeItem(ids[0]);
+        random = new Random(42);
+        int[] parents = shape.parents(size, random);
+        int[] preOrder = preOrder(parents);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ItemRecordFormat.Writer writer = ItemRecordFormat.BINARY.writer(out);
+        for (int node : preOrder) {
+            writer.write(new ItemRecord(node, parents[node] < 0 ? null : (long) parents[node], random.nextInt(10), 0, 0));
+        }
+        writer.flush();
+        itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.BINARY, new ByteArrayInputStream(out.toByteArray()), null);
+        context.getBeansOfType(ItemsWriteBehind.class).values().forEach(ItemsWriteBehind::flush);
+
+        ids = jdbcTemplate.queryForList("select id from items order by id", Long.class).stream().mapToLong(Long::longValue).toArray();
+        List<Long> small = new ArrayList<>();
+        for (int i = 1; i < preOrder.length; i++) {
+            if (subtreeSizes[preOrder[i]] <= MAX_COPIED_SUBTREE) small.add(ids[i]);
+        }
+        smallSubtreeIds = small.stream().mapToLong(Long::longValue).toArray();
+
+        operations = 0;
+        statementsBefore = statementCounter.get();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportStatements() {
+        long statements = statementCounter.get() - statementsBefore;
+        System.out.printf("%n%s %s x %d: %.2f statements/op%n", engine, shape, size, operations == 0 ? 0 : statements / (double) operations);
+        if (itemsService instanceof InMemoryItemsService) {
+            System.out.printf("in-memory tree: %.1f bytes per item%n", ((InMemoryItemsService) itemsService).estimatedBytes() / (double) size);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public Item addItem() {
+        operations++;
+        return itemsService.addItem(random.nextInt(10), randomId());
+    }
+
+    @Benchmark
+    public Item changeValue() {
+        operations++;
+        return itemsService.updateItem(randomId(), random.nextInt(10), null);
+    }
+
+    /**
+     * Moves under own descendants are rejected, their cost is the cost of the cycle check.
+     */
+    @Benchmark
+    public Object move() {
+        operations++;
+        try {
+            return itemsService.updateItem(ids[1 + random.nextInt(ids.length - 1)], null, randomId());
+        } catch (UnprocessableEntityException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Item copyItem() {
+        operations++;
+        return itemsService.copyItem(smallSubtreeIds[random.nextInt(smallSubtreeIds.length)], randomId());
+    }
+
+    /**
+     * Removes a leaf added right before, so the generated tree keeps its shape; subtract addItem to get removal alone.
+     */
+    @Benchmark
+    public void addAndRemoveItem() {
+        operations++;
+        itemsService.removeItem(itemsService.addItem(1, randomId()).getId());
+    }
+
+    @Benchmark
+    public int getItems() {
+        operations++;
+        return itemsService.getItems(Item.DEFAULT_TREE_ID).size();
+    }
+
+    /**
+     * Three levels below the first item, paginated as GET /api/tree does by default.
+     */
+    @Benchmark
+    public ItemNode getTree() {
+        operations++;
+        return itemsService.getTree(Item.DEFAULT_TREE_ID, null, 3, 0, 100);
+    }
+
+    private long randomId() {
+        return ids[random.nextInt(ids.length)];
+    }
+
+    /**
+     * @param parents - parent index of every node
+     * @return nodes in pre-order, also fills subtree sizes of all nodes
+     */
+    private int[] preOrder(int[] parents) {
+        int[] childCounts = new int[parents.length];
+        for (int parent : parents) {
+            if (parent >= 0) childCounts[parent]++;
+        }
+        int[][] children = new int[parents.length][];
+        for (int i = 0; i < parents.length; i++) {
+            children[i] = new int[childCounts[i]];
+            childCounts[i] = 0;
+        }
+        for (int i = 1; i < parents.length; i++) {
+            children[parents[i]][childCounts[parents[i]]++] = i;
+        }
+
+        int[] order = new int[parents.length];
+        int count = 0;
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(0);
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            order[count++] = node;
+            for (int i = children[node].length - 1; i >= 0; i--) {
+                stack.push(children[node][i]);
+            }
+        }
+
+        subtreeSizes = new int[parents.length];
+        for (int i = order.length - 1; i >= 0; i--) {
+            int node = order[i];
+            subtreeSizes[node]++;
+            if (parents[node] >= 0) subtreeSizes[parents[node]] += subtreeSizes[node];
+        }
+        return order;
+    }
+
+}
@@ -0,0 +1,53 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps data sources to count statements created on their connections, the ones of Hibernate and of JdbcTemplate alike.
+ * A JDBC batch counts as one statement.
+ */
+class StatementCounter implements BeanPostProcessor {
+
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @return number of statements created so far
+     */
+    long get() {
+        return count.get();
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource)) return bean;
+        DataSource dataSource = (DataSource) bean;
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+            Object result = invoke(dataSource, method, args);
+            return result instanceof Connection ? counting((Connection) result) : result;
+        });
+    }
+
+    private Connection counting(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if (method.getName().startsWith("prepare") || method.getName().equals("createStatement")) count.incrementAndGet();
+            return invoke(connection, method, args);
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+import pl.piotrkalitka.TreeMngr.service.ItemRecordFormat;
+import pl.piotrkalitka.TreeMngr.service.ItemsService;
+import pl.piotrkalitka.TreeMngr.service.ItemsWriteBehind;
+
+/**
+ * Time of aggregates of the whole tree of the in-memory engine right after a write, when no sum or level is resolved
+ * yet, so it covers the walk of the tree as well as the reduction split across the common fork-join pool. Run with
+ * -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=N to see how it scales with workers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubtreeStatsBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private ConfigurableApplicationContext context;
+    private ItemsService itemsService;
+    private ItemsWriteBehind writeBehind;
+    private long rootId;
+    private long leafId;
+    private int leafValue;
+
+    @Setup(Level.Trial)
+    public void importTree() throws IOException {
+        context = BenchmarkApplication.start(new StatementCounter(), "--treemngr.engine=memory");
+        itemsService = context.getBean(ItemsService.class);
+        writeBehind = context.getBean(ItemsWriteBehind.class);
+
+        // every record picks its parent among ancestors of the previous one, so records come in pre-order
+        Random random = new Random(11);
+        int[] ancestors = new int[size];
+        int depth = 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ItemRecordFormat.Writer writer = ItemRecordFormat.BINARY.writer(out);
+        for (int node = 0; node < size; node++) {
+            if (node > 0) depth = 1 + random.nextInt(depth);
+            writer.write(new ItemRecord(node, depth == 0 ? null : (long) ancestors[depth - 1], random.nextInt(10), 0, 0));
+            ancestors[depth++] = node;
+        }
+        writer.flush();
+        itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.BINARY, new ByteArrayInputStream(out.toByteArray()), null);
+        writeBehind.flush();
+
+        rootId = itemsService.getTree(Item.DEFAULT_TREE_ID, null, 0, 0, 1).getId();
+        leafId = rootId;
+        for (List<ItemNode> children; !(children = itemsService.getChildren(leafId, null, 1)).isEmpty(); ) {
+            leafId = children.get(0).getId();
+        }
+    }
+
+    /**
+     * Changes the value of a leaf, which makes every resolved sum and level stale.
+     */
+    @Setup(Level.Invocation)
+    public void changeLeaf() {
+        itemsService.updateItem(leafId, ++leafValue % 10, null);
+        writeBehind.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public ItemStats getStats() {
+        return itemsService.getStats(rootId);
+    }
+
+}
@@ -0,0 +1,140 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
+import pl.piotrkalitka.TreeMngr.service.ItemRecordFormat;
+import pl.piotrkalitka.TreeMngr.service.ItemsService;
+
+/**
+ * Time of changing the value of the first item, which changes the sum of every item, by the set-based update of
+ * {@link ItemsService} and by the recursive refresh it replaced, on a wide (FAN) and on a deep (CHAIN) tree.
+ * Statements per operation are printed after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubtreeSumBenchmark {
+
+    @Param({"CHAIN", "FAN"})
+    public TreeShape shape;
+
+    // the recursive refresh walks all ancestors of every item, so deep trees stay small for it to finish
+    @Param({"100", "1000"})
+    public int size;
+
+    private final StatementCounter statementCounter = new StatementCounter();
+    private ConfigurableApplicationContext context;
+    private ItemsService itemsService;
+    private ItemsRepository itemsRepository;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private long rootId;
+    private int value;
+    private long statementsBefore;
+    private long operations;
+
+    @Setup(Level.Trial)
+    public void importTree() throws IOException {
+        context = BenchmarkApplication.start(statementCounter);
+        itemsService = context.getBean(ItemsService.class);
+        itemsRepository = context.getBean(ItemsRepository.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        // parents of both shapes come right before their children or are the first item, so index order is pre-order
+        Random random = new Random(42);
+        int[] parents = shape.parents(size, random);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ItemRecordFormat.Writer writer = ItemRecordFormat.BINARY.writer(out);
+        for (int node = 0; node < size; node++) {
+            writer.write(new ItemRecord(node, parents[node] < 0 ? null : (long) parents[node], random.nextInt(10), 0, 0));
+        }
+        writer.flush();
+        itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.BINARY, new ByteArrayInputStream(out.toByteArray()), null);
+        rootId = itemsService.getTree(Item.DEFAULT_TREE_ID, null, 0, 0, 1).getId();
+    }
+
+    @Setup(Level.Iteration)
+    public void countStatements() {
+        operations = 0;
+        statementsBefore = statementCounter.get();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportStatements() {
+        long statements = statementCounter.get() - statementsBefore;
+        System.out.printf("%n%s x %d: %.2f statements/op%n", shape, size, operations == 0 ? 0 : statements / (double) operations);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public Item setBased() {
+        operations++;
+        return itemsService.updateItem(rootId, ++value % 10, null);
+    }
+
+    @Benchmark
+    public Object recursive() {
+        operations++;
+        jdbcTemplate.update("update items set value = ? where id = ?", ++value % 10, rootId);
+        return transactionTemplate.execute(status -> {
+            recursiveRefreshSum(rootId);
+            return null;
+        });
+    }
+
+    /**
+     * Recomputation as it was done before the set-based update: every descendant re-walks all of its ancestors and
+     * is saved one by one.
+     *
+     * @param itemId - id of item which will be refreshed
+     */
+    private void recursiveRefreshSum(Long itemId) {
+        Item item = itemsRepository.findById(itemId).get();
+        int sum = 0;
+        Long ancestorId = itemId;
+        while (ancestorId != null) {
+            Item ancestor = itemsRepository.findById(ancestorId).get();
+            sum += ancestor.getValue();
+            ancestorId = ancestor.getParentId();
+        }
+        item.setSum(sum);
+        itemsRepository.save(item);
+        for (Item child : item.getChildren()) {
+            recursiveRefreshSum(child.getId());
+        }
+    }
+
+}
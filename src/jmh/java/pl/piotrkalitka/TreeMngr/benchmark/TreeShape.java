@@ -0,0 +1,59 @@
+package pl.piotrkalitka.TreeMngr.benchmark;
+
+import java.util.Random;
+
+/**
+ * Shapes of generated trees. Every shape gives the parent index of every node, where node 0 is the first item and
+ * parents always come before their children.
+ */
+public enum TreeShape {
+
+    /**
+     * Every node is the only child of the previous one, depth equals size.
+     */
+    CHAIN {
+        @Override
+        public int[] parents(int size, Random random) {
+            int[] parents = new int[size];
+            for (int i = 0; i < size; i++) {
+                parents[i] = i - 1;
+            }
+            return parents;
+        }
+    },
+
+    /**
+     * Every node is a child of the first item, depth is 1.
+     */
+    FAN {
+        @Override
+        public int[] parents(int size, Random random) {
+            int[] parents = new int[size];
+            parents[0] = -1;
+            return parents;
+        }
+    },
+
+    /**
+     * Random recursive tree: every node picks its parent uniformly among earlier nodes, depth grows as log of size.
+     */
+    RANDOM {
+        @Override
+        public int[] parents(int size, Random random) {
+            int[] parents = new int[size];
+            parents[0] = -1;
+            for (int i = 1; i < size; i++) {
+                parents[i] = random.nextInt(i);
+            }
+            return parents;
+        }
+    };
+
+    /**
+     * @param size   - number of nodes
+     * @param random - source of randomness, shapes that do not need it ignore it
+     * @return parent index of every node, -1 for the first item
+     */
+    public abstract int[] parents(int size, Random random);
+
+}
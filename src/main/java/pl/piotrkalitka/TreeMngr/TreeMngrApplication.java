@@ -3,9 +3,11 @@ package pl.piotrkalitka.TreeMngr;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @EnableAutoConfiguration
 @SpringBootApplication
+@EnableScheduling
 public class TreeMngrApplication {
 
     public static void main(String[] args) {
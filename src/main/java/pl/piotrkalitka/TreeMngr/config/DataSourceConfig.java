@@ -0,0 +1,48 @@
+package pl.piotrkalitka.TreeMngr.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * Replaces the single data source with {@link ReplicaRoutingDataSource} once read replicas are configured. Replicas
+ * share credentials and spring.datasource.hikari settings with the primary, their pools are read-only.
+ */
+@Configuration
+@ConditionalOnProperty("treemngr.datasource.replica-urls")
+public class DataSourceConfig {
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties, Environment environment,
+                                 @Value("${treemngr.datasource.replica-urls}") String[] replicaUrls,
+                                 @Value("${treemngr.datasource.max-lag-changes:100}") long maxLag,
+                                 @Value("${treemngr.datasource.lag-check-interval-ms:1000}") long lagCheckIntervalMs) {
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        if (primary.getPoolName() == null) primary.setPoolName("primary");
+
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.length; i++) {
+            HikariDataSource replica = new HikariDataSource();
+            primary.copyStateTo(replica);
+            replica.setJdbcUrl(replicaUrls[i].trim());
+            replica.setPoolName(primary.getPoolName() + "-replica-" + (i + 1));
+            replica.setReadOnly(true);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, maxLag, lagCheckIntervalMs);
+    }
+
+}
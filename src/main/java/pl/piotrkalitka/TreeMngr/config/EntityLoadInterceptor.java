@@ -0,0 +1,21 @@
+package pl.piotrkalitka.TreeMngr.config;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+
+import pl.piotrkalitka.TreeMngr.service.OperationTrace;
+
+/**
+ * Counts entities loaded by Hibernate in the operation running on the current thread.
+ */
+public class EntityLoadInterceptor extends EmptyInterceptor {
+
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        OperationTrace.entityLoaded();
+        return false;
+    }
+
+}
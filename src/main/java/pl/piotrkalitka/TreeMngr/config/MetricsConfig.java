@@ -0,0 +1,26 @@
+package pl.piotrkalitka.TreeMngr.config;
+
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import pl.piotrkalitka.TreeMngr.service.OperationMetricsAspect;
+
+/**
+ * Hooks feeding per-operation counters of {@link OperationMetricsAspect}: statements and written rows are counted
+ * on the JDBC connections, as most writes bypass Hibernate, and entities are counted as Hibernate loads them.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public static StatementTracing statementTracing() {
+        return new StatementTracing();
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer entityLoadCounting() {
+        return properties -> properties.put("hibernate.session_factory.interceptor", new EntityLoadInterceptor());
+    }
+
+}
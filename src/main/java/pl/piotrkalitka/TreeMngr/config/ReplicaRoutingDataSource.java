@@ -0,0 +1,132 @@
+package pl.piotrkalitka.TreeMngr.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pl.piotrkalitka.TreeMngr.repository.ItemChangesRepository;
+
+/**
+ * Sends read-only transactions to read replicas and everything else to the primary. Connections are fetched
+ * lazily, on the first statement, as the read-only flag of a transaction is known only after it has begun.
+ * Replicas are checked periodically and used only while they lag behind the primary by at most the given number
+ * of logged changes of all trees, reads fall back to the primary when no replica is close enough or reachable.
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+    private static final String PRIMARY = "primary";
+    // number of changes logged to all trees, as every tree numbers its changes from 1
+    private static final String LAST_CHANGE_QUERY = "select coalesce(sum(next_value - 1), 0) from id_sequences where name like '"
+            + ItemChangesRepository.SEQUENCE_PREFIX + "%'";
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replica-lag");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final HikariDataSource primary;
+    private final List<HikariDataSource> replicas;
+    private final long maxLag;
+    private volatile List<String> usableReplicas = new ArrayList<>();
+
+    /**
+     * @param primary            - pool of the primary database
+     * @param replicas           - pools of read replicas, not used until they are checked for the first time
+     * @param maxLag             - max number of logged changes a replica can be behind the primary to be read from
+     * @param lagCheckIntervalMs - interval of replica checks
+     */
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, long maxLag, long lagCheckIntervalMs) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.maxLag = maxLag;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (HikariDataSource replica : replicas) {
+            targets.put(replica.getPoolName(), replica);
+        }
+        AbstractRoutingDataSource router = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return route();
+            }
+        };
+        router.setTargetDataSources(targets);
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        afterPropertiesSet();
+        scheduler.scheduleWithFixedDelay(this::checkReplicas, lagCheckIntervalMs, lagCheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compares the last logged change seen by every replica with the one of the primary and keeps reading only from
+     * replicas close enough behind it.
+     */
+    public void checkReplicas() {
+        long primarySeq;
+        try {
+            primarySeq = lastChange(primary);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot read the last change from the primary, replicas stay as they are", e);
+            return;
+        }
+        List<String> usable = new ArrayList<>();
+        for (HikariDataSource replica : replicas) {
+            try {
+                long lag = primarySeq - lastChange(replica);
+                if (lag <= maxLag) usable.add(replica.getPoolName());
+                else LOGGER.debug("Replica {} is {} changes behind the primary, reading from others", replica.getPoolName(), lag);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Replica {} is unreachable, reading from others", replica.getPoolName(), e);
+            }
+        }
+        if (usable.size() != usableReplicas.size()) LOGGER.info("Reading from {} of {} replicas", usable.size(), replicas.size());
+        usableReplicas = usable;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (HikariDataSource replica : replicas) {
+            replica.close();
+        }
+        primary.close();
+    }
+
+    /**
+     * @return key of replica to read from in a read-only transaction, taken in turns, primary otherwise
+     */
+    private Object route() {
+        List<String> usable = usableReplicas;
+        if (usable.isEmpty() || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) return PRIMARY;
+        return usable.get(Math.floorMod(nextReplica.getAndIncrement(), usable.size()));
+    }
+
+    /**
+     * @param dataSource - database to check
+     * @return sequence number of the next change to be logged as seen by given database, 0 if there is none
+     */
+    private static long lastChange(HikariDataSource dataSource) {
+        List<Long> next = new JdbcTemplate(dataSource).queryForList(LAST_CHANGE_QUERY, Long.class);
+        return next.isEmpty() ? 0 : next.get(0);
+    }
+
+}
@@ -0,0 +1,98 @@
+package pl.piotrkalitka.TreeMngr.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import pl.piotrkalitka.TreeMngr.service.OperationTrace;
+
+/**
+ * Wraps data sources, so every statement executed on their connections is counted in the operation running on
+ * the current thread, together with the rows it wrote. A JDBC batch counts as one statement.
+ */
+public class StatementTracing implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource)) return bean;
+        return proxy(bean, (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            return result instanceof Connection ? proxy(result, StatementTracing::connection) : result;
+        });
+    }
+
+    /**
+     * @param target - connection
+     * @param method - called method
+     * @param args   - arguments of call
+     * @return result of call, statements wrapped to be counted
+     * @throws Throwable exception thrown by the call
+     */
+    private static Object connection(Object target, Method method, Object[] args) throws Throwable {
+        Object result = invoke(target, method, args);
+        return result instanceof Statement ? proxy(result, StatementTracing::statement) : result;
+    }
+
+    /**
+     * @param target - statement
+     * @param method - called method
+     * @param args   - arguments of call
+     * @return result of call
+     * @throws Throwable exception thrown by the call
+     */
+    private static Object statement(Object target, Method method, Object[] args) throws Throwable {
+        if (!method.getName().startsWith("execute")) return invoke(target, method, args);
+        OperationTrace.statement();
+        Object result = invoke(target, method, args);
+        if (result instanceof Integer || result instanceof Long) {
+            OperationTrace.rowsWritten(Math.max(0, ((Number) result).longValue()));
+        } else if (result instanceof int[]) {
+            for (int rows : (int[]) result) {
+                OperationTrace.rowsWritten(Math.max(0, rows));
+            }
+        } else if (result instanceof long[]) {
+            for (long rows : (long[]) result) {
+                OperationTrace.rowsWritten(Math.max(0, rows));
+            }
+        }
+        return result;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * @param target  - object to wrap
+     * @param handler - handler of calls of all methods but equals and hashCode, given the wrapped object
+     * @return proxy implementing all interfaces of target
+     */
+    private static Object proxy(Object target, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            if (method.getName().equals("equals") && method.getParameterCount() == 1) return proxy == args[0];
+            if (method.getName().equals("hashCode") && method.getParameterCount() == 0) return System.identityHashCode(proxy);
+            return handler.handle(target, method, args);
+        };
+        return Proxy.newProxyInstance(target.getClass().getClassLoader(), ClassUtils.getAllInterfaces(target), invocationHandler);
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+
+        Object handle(Object target, Method method, Object[] args) throws Throwable;
+
+    }
+
+}
@@ -0,0 +1,34 @@
+package pl.piotrkalitka.TreeMngr.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+import pl.piotrkalitka.TreeMngr.service.ItemNodeCache;
+
+/**
+ * Actuator endpoint /actuator/itemcache with hit ratio and lookup latency of {@link ItemNodeCache}.
+ */
+@Component
+@Endpoint(id = "itemcache")
+public class ItemCacheEndpoint {
+
+    private ItemNodeCache itemNodeCache;
+
+    @Autowired
+    public ItemCacheEndpoint(ItemNodeCache itemNodeCache) {
+        this.itemNodeCache = itemNodeCache;
+    }
+
+    /**
+     * @return statistics of the item cache
+     */
+    @ReadOperation
+    public Map<String, Object> stats() {
+        return itemNodeCache.stats();
+    }
+
+}
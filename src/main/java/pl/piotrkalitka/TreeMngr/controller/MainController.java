@@ -1,8 +1,11 @@
 package pl.piotrkalitka.TreeMngr.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -11,58 +14,287 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
 import io.swagger.annotations.ApiOperation;
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
 import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+import pl.piotrkalitka.TreeMngr.model.ItemJob;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
 import pl.piotrkalitka.TreeMngr.payload.AddItemRequestBody;
+import pl.piotrkalitka.TreeMngr.payload.BatchRequestBody;
 import pl.piotrkalitka.TreeMngr.payload.CopyItemRequestBody;
 import pl.piotrkalitka.TreeMngr.payload.UpdateItemRequestBody;
+import pl.piotrkalitka.TreeMngr.service.ItemChangeLog;
+import pl.piotrkalitka.TreeMngr.service.ItemJobs;
+import pl.piotrkalitka.TreeMngr.service.ItemRecordFormat;
 import pl.piotrkalitka.TreeMngr.service.ItemsService;
+import pl.piotrkalitka.TreeMngr.service.TreeResponseCache;
 
 @RestController
 @CrossOrigin
 @RequestMapping("/api/")
 public class MainController {
 
+    // written items are returned without children, however many they have, subtrees are read by the endpoints below
+    private static final String WITHOUT_CHILDREN = "The item is returned without its children, read them with GET /api/tree?rootId= "
+            + "or GET /api/{itemId}/children";
+
     private ItemsService itemsService;
+    private ItemJobs itemJobs;
+    private ItemChangeLog itemChangeLog;
+    private TreeResponseCache treeResponseCache;
 
     @Autowired
-    public MainController(ItemsService itemsService) {
+    public MainController(ItemsService itemsService, ItemJobs itemJobs, ItemChangeLog itemChangeLog, TreeResponseCache treeResponseCache) {
         this.itemsService = itemsService;
+        this.itemJobs = itemJobs;
+        this.itemChangeLog = itemChangeLog;
+        this.treeResponseCache = treeResponseCache;
     }
 
 
     /**
-     * @return all items as tree structure
+     * @param treeId  - id of tree, the default tree if not given
+     * @param request - request, 304 not modified if its If-None-Match has the ETag of the current tree
+     * @return all items of the tree as tree structure with the version of the tree as ETag
      */
     @ApiOperation(value = "Get all items as tree structure", response = Item.class)
     @GetMapping()
-    public ResponseEntity<?> getItems() {
-        return ResponseEntity.ok(itemsService.getItems());
+    public ResponseEntity<?> getItems(@RequestParam(value = "treeId", defaultValue = "0") long treeId, WebRequest request) {
+        return versioned(request, () -> itemsService.getVersion(treeId, null), "items", () -> itemsService.getItems(treeId));
+    }
+
+    /**
+     * @param treeId  - id of tree, the default tree if not given
+     * @param request - request, 304 not modified if its If-None-Match has the ETag of the current tree
+     * @return all items of the tree as tree structure, written while read from the database
+     */
+    @ApiOperation(value = "Stream all items as tree structure", response = Item.class)
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamItems(@RequestParam(value = "treeId", defaultValue = "0") long treeId, WebRequest request) {
+        String version = itemsService.getVersion(treeId, null);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8);
+        if (version != null) {
+            if (request.checkNotModified(eTag(version))) return null;
+            response.eTag(eTag(version));
+        }
+        return response.body(out -> itemsService.streamItems(treeId, out));
+    }
+
+    /**
+     * @param treeId  - id of tree whose first item is the root if rootId is not given, the default tree if not given
+     * @param rootId  - id of subtree root, first item if not given
+     * @param depth   - number of levels of children to return below the root
+     * @param offset  - number of children skipped in every children list
+     * @param limit   - max number of children in every children list
+     * @param request - request, 304 not modified if its If-None-Match has the ETag of the current subtree
+     * @return slice of the tree with the version of the subtree as ETag
+     * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException        if item for given rootId is not found
+     * @throws pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException if depth, offset or limit is out of range
+     *                                                                         or the slice has too many items
+     */
+    @ApiOperation(value = "Get slice of the tree limited by depth and paginated per children list", response = ItemNode.class,
+            notes = "depth is at most " + ItemsService.MAX_TREE_DEPTH + " and the slice at most " + ItemsService.MAX_TREE_NODES
+                    + " items, root included, larger slices are rejected with 422, page through /{itemId}/children instead")
+    @GetMapping("/tree")
+    public ResponseEntity<?> getTree(@RequestParam(value = "treeId", defaultValue = "0") long treeId,
+                                     @RequestParam(value = "rootId", required = false) Long rootId,
+                                     @RequestParam(value = "depth", defaultValue = "1") int depth,
+                                     @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                     @RequestParam(value = "limit", defaultValue = "100") int limit, WebRequest request) {
+        return versioned(request, () -> itemsService.getVersion(treeId, rootId), "tree/" + depth + "/" + offset + "/" + limit,
+                () -> itemsService.getTree(treeId, rootId, depth, offset, limit));
+    }
+
+    /**
+     * @param itemId  - id of item
+     * @param request - request, 304 not modified if its If-None-Match has the ETag of the current subtree
+     * @return number of items, total, min and max of values and depth of the subtree of item
+     * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException if item for given itemId is not found
+     */
+    @ApiOperation(value = "Get aggregates of subtree of item", response = ItemStats.class)
+    @GetMapping("/{itemId}/stats")
+    public ResponseEntity<?> getStats(@PathVariable("itemId") Long itemId, WebRequest request) {
+        String version = itemsService.getVersion(Item.DEFAULT_TREE_ID, itemId);
+        if (request.checkNotModified(eTag(version))) return null;
+        return ResponseEntity.ok().eTag(eTag(version)).body(itemsService.getStats(itemId));
+    }
+
+    /**
+     * @param itemId  - id of parent item
+     * @param after   - id of the last child of the previous page, omitted for the first page
+     * @param limit   - max number of children
+     * @param request - request, 304 not modified if its If-None-Match has the ETag of the current subtree
+     * @return children of item ordered by id, with the version of the subtree as ETag
+     * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException        if item for given itemId is not found
+     * @throws pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException if limit is out of range
+     */
+    @ApiOperation(value = "Get page of children of item with ids greater than given one", response = ItemNode.class, responseContainer = "List")
+    @GetMapping("/{itemId}/children")
+    public ResponseEntity<?> getChildren(@PathVariable("itemId") Long itemId,
+                                         @RequestParam(value = "after", required = false) Long after,
+                                         @RequestParam(value = "limit", defaultValue = "100") int limit, WebRequest request) {
+        return versioned(request, () -> itemsService.getVersion(Item.DEFAULT_TREE_ID, itemId), "children/" + after + "/" + limit,
+                () -> itemsService.getChildren(itemId, after, limit));
+    }
+
+    /**
+     * @param itemId - id of item
+     * @return first item of the tree and all ancestors down to the item, each with its own sum
+     * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException if item for given itemId is not found
+     */
+    @ApiOperation(value = "Get chain of items from the first item of the tree down to item", response = ItemNode.class, responseContainer = "List")
+    @GetMapping("/{itemId}/path")
+    public ResponseEntity<?> getPathNodes(@PathVariable("itemId") Long itemId) {
+        return ResponseEntity.ok(itemsService.getPathNodes(itemId));
+    }
+
+    /**
+     * @param treeId  - id of tree
+     * @param since   - sequence number of the last change of the tree already applied
+     * @param limit   - max number of returned changes
+     * @param timeout - max number of milliseconds to wait for a change if there is none yet
+     * @return changes of the tree after given one in sequence order, empty if none has been made before the timeout
+     * @throws pl.piotrkalitka.TreeMngr.exception.ChangesExpiredException      if changes after given one are no longer kept
+     * @throws pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException if limit or timeout is out of range
+     */
+    @ApiOperation(value = "Long-poll changes of the tree made after given sequence number", response = ItemChange.class, responseContainer = "List")
+    @GetMapping("/changes")
+    public DeferredResult<List<ItemChange>> getChanges(@RequestParam(value = "treeId", defaultValue = "0") long treeId,
+                                                       @RequestParam("since") long since,
+                                                       @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                                       @RequestParam(value = "timeout", defaultValue = "30000") long timeout) {
+        if (timeout < 0 || timeout > ItemChangeLog.MAX_POLL_TIMEOUT_MS) throw new UnprocessableEntityException(since, timeout);
+        DeferredResult<List<ItemChange>> result = new DeferredResult<>(timeout, Collections.emptyList());
+        CompletableFuture<List<ItemChange>> changes = itemChangeLog.poll(treeId, since, limit);
+        changes.whenComplete((list, e) -> {
+            if (e == null) result.setResult(list);
+            else result.setErrorResult(e);
+        });
+        result.onCompletion(() -> changes.cancel(false));
+        return result;
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @return sequence number of the last change of the tree, to poll changes after a read of the tree that follows
+     */
+    @ApiOperation(value = "Get sequence number of the last change of the tree")
+    @GetMapping("/changes/last")
+    public ResponseEntity<?> getLastChange(@RequestParam(value = "treeId", defaultValue = "0") long treeId) {
+        return ResponseEntity.ok(Collections.singletonMap("seq", itemChangeLog.lastSeq(treeId)));
+    }
+
+    /**
+     * @param jobId - id of job
+     * @return status and progress of job
+     * @throws pl.piotrkalitka.TreeMngr.exception.JobNotFoundException if job for given jobId is not found
+     */
+    @ApiOperation(value = "Get status of background job", response = ItemJob.class)
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable("jobId") long jobId) {
+        return ResponseEntity.ok(itemJobs.getJob(jobId));
+    }
+
+    /**
+     * @param jobId - id of job
+     * @return job, cancelled if it has not started yet or is a removal that stops after its current chunk
+     * @throws pl.piotrkalitka.TreeMngr.exception.JobNotFoundException if job for given jobId is not found
+     */
+    @ApiOperation(value = "Cancel background job", response = ItemJob.class)
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<?> cancelJob(@PathVariable("jobId") long jobId) {
+        return ResponseEntity.ok(itemJobs.cancel(jobId));
+    }
+
+    /**
+     * @param treeId - id of tree, the default tree if not given
+     * @param format - ndjson for one JSON object per line or binary for length-prefixed frames
+     * @return all items of the tree in pre-order, streamed
+     * @throws pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException if format is unknown
+     */
+    @ApiOperation(value = "Export all items in pre-order as NDJSON or binary frames")
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportItems(@RequestParam(value = "treeId", defaultValue = "0") long treeId,
+                                                             @RequestParam(value = "format", defaultValue = "ndjson") String format) {
+        ItemRecordFormat recordFormat = ItemRecordFormat.of(format);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, recordFormat.getMediaType())
+                .body(out -> itemsService.exportItems(treeId, recordFormat, out));
+    }
+
+    /**
+     * @param request  - request with items in pre-order as body, application/x-ndjson or application/octet-stream
+     * @param treeId   - id of tree to import the first item of if parentId is not given, the default tree if not given
+     * @param parentId - id of item to import items under, the tree has to be empty if not given
+     * @return number of imported items
+     * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException        if item for given parentId is not found
+     * @throws pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException     if parentId is not given and first item already exists
+     * @throws pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException if content type is unknown or items are not in pre-order
+     * @throws IOException if reading the body fails
+     */
+    @ApiOperation(value = "Import items streamed in pre-order as NDJSON or binary frames")
+    @PostMapping("/import")
+    public ResponseEntity<?> importItems(HttpServletRequest request, @RequestParam(value = "treeId", defaultValue = "0") long treeId,
+                                         @RequestParam(value = "parentId", required = false) Long parentId) throws IOException {
+        ItemRecordFormat format = ItemRecordFormat.ofMediaType(request.getContentType());
+        long count = itemsService.importItems(treeId, format, request.getInputStream(), parentId);
+        return ResponseEntity.status(HttpStatus.CREATED).body(Collections.singletonMap("count", count));
+    }
+
+    /**
+     * @param requestBody - operations to apply in given order
+     * @param treeId      - id of tree the operations apply to, the default tree if not given
+     * @return id of item created, updated or removed by every operation
+     * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException        if any referred item is not found
+     * @throws pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException     if first item is added to a non-empty tree
+     * @throws pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException if an operation is incomplete, refers to unknown ref
+     *                                                                         or to an item of another tree
+     */
+    @ApiOperation(value = "Apply ordered add, update and delete operations in one transaction")
+    @PostMapping("/batch")
+    public ResponseEntity<?> applyBatch(@Valid @RequestBody BatchRequestBody requestBody, @RequestParam(value = "treeId", defaultValue = "0") long treeId) {
+        List<Long> ids = itemsService.applyBatch(treeId, requestBody.getOperations());
+        return ResponseEntity.ok(ids);
     }
 
     /**
      * @param requestBody - body with item value
-     * @return added item
-     * @throws pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException if first item already exists
+     * @param treeId      - id of tree to create the first item of, the default tree if not given
+     * @return added item without children
+     * @throws pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException if first item of the tree already exists
      */
-    @ApiOperation(value = "Create first item", response = Item.class)
+    @ApiOperation(value = "Create first item of a tree", response = Item.class, notes = WITHOUT_CHILDREN)
     @PostMapping("/")
-    public ResponseEntity<?> addFirstItem(@Valid @RequestBody AddItemRequestBody requestBody) {
-        Item item = itemsService.addItem(requestBody.getValue());
+    public ResponseEntity<?> addFirstItem(@Valid @RequestBody AddItemRequestBody requestBody, @RequestParam(value = "treeId", defaultValue = "0") long treeId) {
+        Item item = itemsService.addFirstItem(treeId, requestBody.getValue());
         return ResponseEntity.status(HttpStatus.CREATED).body(item);
     }
 
     /**
      * @param requestBody - body with item value
      * @param parentId    - id of item which has to become parent
-     * @return added item
+     * @return added item without children
      * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException if item for given parentId is not found
      */
-    @ApiOperation(value = "Create sub item", response = Item.class)
+    @ApiOperation(value = "Create sub item", response = Item.class, notes = WITHOUT_CHILDREN)
     @PostMapping("/{parentId}")
     public ResponseEntity<?> addItem(@Valid @RequestBody AddItemRequestBody requestBody, @PathVariable("parentId") Long parentId) {
         Item item = itemsService.addItem(requestBody.getValue(), parentId);
@@ -71,12 +303,18 @@ public class MainController {
 
     /**
      * @param itemId id of item that has to be deleted
-     * @return 201 no content
+     * @param async  - true to remove the subtree in a background job, in chunks
+     * @return 201 no content, 202 accepted with the job if removal runs in the background
      * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException if item for given itemId is not found
+     * @throws pl.piotrkalitka.TreeMngr.exception.TooManyJobsException  if there are too many unfinished jobs
      */
     @ApiOperation(value = "Remove item")
     @DeleteMapping("/{itemId}")
-    public ResponseEntity<?> removeItem(@PathVariable("itemId") Long itemId) {
+    public ResponseEntity<?> removeItem(@PathVariable("itemId") Long itemId,
+                                        @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        if (async) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(itemJobs.removeItem(itemId));
+        }
         itemsService.removeItem(itemId);
         return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     }
@@ -84,11 +322,17 @@ public class MainController {
     /**
      * @param requestBody - if of item to copy
      * @param targetId    - id of item where other item will be copied
-     * @return Item with changes
+     * @param async       - true to copy in a background job
+     * @return copy of item without its children, 202 accepted with the job if copy runs in the background
+     * @throws pl.piotrkalitka.TreeMngr.exception.TooManyJobsException if there are too many unfinished jobs
      */
-    @ApiOperation(value = "Copy item", response = Item.class)
+    @ApiOperation(value = "Copy item", response = Item.class, notes = WITHOUT_CHILDREN)
     @PostMapping("/{targetId}/copy")
-    public ResponseEntity<?> copyItem(@Valid @RequestBody CopyItemRequestBody requestBody, @PathVariable("targetId") Long targetId) {
+    public ResponseEntity<?> copyItem(@Valid @RequestBody CopyItemRequestBody requestBody, @PathVariable("targetId") Long targetId,
+                                      @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        if (async) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(itemJobs.copyItem(requestBody.getItemId(), targetId));
+        }
         Item item = itemsService.copyItem(requestBody.getItemId(), targetId);
         return ResponseEntity.status(HttpStatus.CREATED).body(item);
     }
@@ -96,14 +340,56 @@ public class MainController {
     /**
      * @param itemId      - id of item that has to be updated
      * @param requestBody - body with new parameters
-     * @return Item with changes
+     * @param async       - true to update in a background job
+     * @return Item with changes without its children, 202 accepted with the job if update runs in the background
      * @throws pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException if item for given itemId is not found
+     * @throws pl.piotrkalitka.TreeMngr.exception.TooManyJobsException  if there are too many unfinished jobs
      */
-    @ApiOperation(value = "Update item values", response = Item.class)
+    @ApiOperation(value = "Update item values", response = Item.class, notes = WITHOUT_CHILDREN)
     @PatchMapping("/{itemId}")
-    public ResponseEntity<?> updateItem(@RequestBody UpdateItemRequestBody requestBody, @PathVariable("itemId") Long itemId) {
+    public ResponseEntity<?> updateItem(@RequestBody UpdateItemRequestBody requestBody, @PathVariable("itemId") Long itemId,
+                                        @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        if (async) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(itemJobs.updateItem(itemId, requestBody.getValue(), requestBody.getParentId()));
+        }
         Item item = itemsService.updateItem(itemId, requestBody.getValue(), requestBody.getParentId());
         return ResponseEntity.ok(item);
     }
 
+    /**
+     * Answers a read of a subtree with 304 not modified if the client has its current version, otherwise with the
+     * body serialised for that version, cached so that polls between writes do not read the subtree again.
+     * The version and the body are read one after another, so the version is read again after the body: if a write
+     * came in between, the body is returned without ETag and not cached, as it may belong to neither version.
+     *
+     * @param request     - request with If-None-Match
+     * @param readVersion - reads version of the subtree, null if the tree is empty
+     * @param key         - parameters of the read, the body is cached by them and the version
+     * @param read        - reads the body if it is not cached
+     * @return body with the version as ETag or 304 not modified
+     */
+    private ResponseEntity<?> versioned(WebRequest request, Supplier<String> readVersion, String key, Supplier<?> read) {
+        String version = readVersion.get();
+        if (version == null) return ResponseEntity.ok(read.get());
+        // checked on the request alone, checkNotModified of the response would set the ETag before the body is read
+        if (new ServletWebRequest(((ServletWebRequest) request).getRequest()).checkNotModified(eTag(version))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag(version)).build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8);
+        byte[] cached = treeResponseCache.get(version + "/" + key);
+        if (cached != null) return response.eTag(eTag(version)).body(cached);
+
+        Object body = read.get();
+        if (!version.equals(readVersion.get())) return ResponseEntity.ok(body);
+        return response.eTag(eTag(version)).body(treeResponseCache.put(version + "/" + key, body));
+    }
+
+    /**
+     * @param version - version of subtree
+     * @return strong ETag of the version
+     */
+    private static String eTag(String version) {
+        return "\"" + version + "\"";
+    }
+
 }
\ No newline at end of file
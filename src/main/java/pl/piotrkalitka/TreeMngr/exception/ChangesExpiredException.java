@@ -0,0 +1,13 @@
+package pl.piotrkalitka.TreeMngr.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.GONE)
+public class ChangesExpiredException extends RuntimeException {
+
+    public ChangesExpiredException(long since, long firstSeq) {
+        super("Changes after " + since + " are no longer kept, the oldest kept change is " + firstSeq);
+    }
+
+}
@@ -0,0 +1,13 @@
+package pl.piotrkalitka.TreeMngr.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class JobNotFoundException extends RuntimeException {
+
+    public JobNotFoundException(long id) {
+        super("Job not found for given id: " + id);
+    }
+
+}
@@ -0,0 +1,13 @@
+package pl.piotrkalitka.TreeMngr.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class TooManyJobsException extends RuntimeException {
+
+    public TooManyJobsException(int maxPending) {
+        super("There are " + maxPending + " unfinished jobs already, try again later");
+    }
+
+}
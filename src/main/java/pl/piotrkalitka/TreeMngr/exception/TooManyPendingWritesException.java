@@ -0,0 +1,13 @@
+package pl.piotrkalitka.TreeMngr.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class TooManyPendingWritesException extends RuntimeException {
+
+    public TooManyPendingWritesException(int pending) {
+        super("There are " + pending + " writes not stored in the database yet, try again later");
+    }
+
+}
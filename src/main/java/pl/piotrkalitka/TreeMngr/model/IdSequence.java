@@ -0,0 +1,44 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Next free id of a named sequence, ids are handed out in blocks by {@link pl.piotrkalitka.TreeMngr.service.ItemIdAllocator}.
+ */
+@Entity
+@Table(name = "id_sequences")
+public class IdSequence {
+
+    @Id
+    private String name;
+    @NotNull
+    private Long nextValue;
+
+    public IdSequence() {
+    }
+
+    public IdSequence(String name, Long nextValue) {
+        this.name = name;
+        this.nextValue = nextValue;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getNextValue() {
+        return nextValue;
+    }
+
+    public void setNextValue(Long nextValue) {
+        this.nextValue = nextValue;
+    }
+
+}
@@ -1,41 +1,80 @@
 package pl.piotrkalitka.TreeMngr.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import org.springframework.data.domain.Persistable;
 import org.springframework.lang.Nullable;
 
 import java.util.HashSet;
 import java.util.Set;
 
 import javax.persistence.CascadeType;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
 import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 
 import io.swagger.annotations.ApiModelProperty;
 
 @Entity
-@Table(name = "items")
-public class Item {
+@Table(name = "items", indexes = {
+        @Index(name = "items_tree_id_parent_id", columnList = "treeId, parentId"),
+        @Index(name = "items_parent_id_id", columnList = "parentId, id, value, sum, level")
+})
+public class Item implements Persistable<Long> {
+
+    // tree of items written without a tree id, the only tree before there were many
+    public static final long DEFAULT_TREE_ID = 0;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
+    @NotNull
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long treeId = DEFAULT_TREE_ID;
     @Nullable
     private Long parentId;
     @NotNull
     private Integer value;
     @NotNull
     private Integer sum;
-    @OneToMany(fetch = FetchType.EAGER, orphanRemoval = true, cascade = CascadeType.PERSIST)
+    // not written in responses, trees are read as ItemTree or ItemNode, a lazy subtree would be loaded item by item
+    @JsonIgnore
+    @OneToMany(fetch = FetchType.LAZY, orphanRemoval = true, cascade = CascadeType.PERSIST)
     @JoinColumn(name = "parentId")
     private Set<Item> children = new HashSet<>();
     @NotNull
     private Integer level;
+    // unbounded, so is the depth of a tree; indexed by its first 3072 characters, see db/vendor/mysql
+    @JsonIgnore
+    @Column(columnDefinition = "mediumtext")
+    private String path;
+    @JsonIgnore
+    @Version
+    private Long version;
+    @JsonIgnore
+    private Long subtreeCount;
+    @JsonIgnore
+    private Long subtreeTotal;
+    @JsonIgnore
+    private Integer subtreeMin;
+    @JsonIgnore
+    private Integer subtreeMax;
+    @JsonIgnore
+    private Integer subtreeDepth;
+    @JsonIgnore
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long subtreeVersion = 0L;
+    @Transient
+    private boolean persisted;
 
     public Item() {
     }
@@ -49,6 +88,7 @@ public class Item {
         this.children = children;
     }
 
+    @Override
     public Long getId() {
         return id;
     }
@@ -57,6 +97,14 @@ public class Item {
         this.id = id;
     }
 
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
     public Long getParentId() {
         return parentId;
     }
@@ -97,6 +145,49 @@ public class Item {
         this.level = level;
     }
 
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    /**
+     * @param stats - aggregates of subtree of this item, kept up to date by writes of its subtree
+     */
+    public void setStats(ItemStats stats) {
+        this.subtreeCount = stats.getCount();
+        this.subtreeTotal = stats.getTotal();
+        this.subtreeMin = stats.getMin();
+        this.subtreeMax = stats.getMax();
+        this.subtreeDepth = stats.getDepth();
+    }
+
+    /**
+     * Ids are assigned by {@link pl.piotrkalitka.TreeMngr.service.ItemIdAllocator} before saving,
+     * so whether the item is new cannot be told from its id.
+     */
+    @JsonIgnore
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        persisted = true;
+    }
+
     public Item copy() {
         Item item = new Item();
         item.value = this.value;
@@ -0,0 +1,113 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+import org.springframework.lang.Nullable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Entry of the change feed of a tree: a mutation of the subtree of an item, numbered in commit order within the
+ * tree. Sum is the sum of the item after the change, sums of its descendants change by the same delta. ADD, COPY
+ * and IMPORT insert the whole subtree of the item, REMOVE removes it, so mirrors fetch or drop the subtree as a
+ * whole.
+ */
+@Entity
+@Table(name = "item_changes")
+public class ItemChange {
+
+    public enum Type {
+        ADD, UPDATE, MOVE, COPY, IMPORT, REMOVE
+    }
+
+    @Id
+    private Long seq;
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    private Type type;
+    @NotNull
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long treeId;
+    @NotNull
+    private Long itemId;
+    @Nullable
+    private Long parentId;
+    @NotNull
+    private Integer value;
+    @NotNull
+    private Integer sum;
+
+    public ItemChange() {
+    }
+
+    public ItemChange(Type type, Long treeId, Long itemId, @Nullable Long parentId, Integer value, Integer sum) {
+        this.type = type;
+        this.treeId = treeId;
+        this.itemId = itemId;
+        this.parentId = parentId;
+        this.value = value;
+        this.sum = sum;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
+    public Long getItemId() {
+        return itemId;
+    }
+
+    public void setItemId(Long itemId) {
+        this.itemId = itemId;
+    }
+
+    @Nullable
+    public Long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(@Nullable Long parentId) {
+        this.parentId = parentId;
+    }
+
+    public Integer getValue() {
+        return value;
+    }
+
+    public void setValue(Integer value) {
+        this.value = value;
+    }
+
+    public Integer getSum() {
+        return sum;
+    }
+
+    public void setSum(Integer sum) {
+        this.sum = sum;
+    }
+
+}
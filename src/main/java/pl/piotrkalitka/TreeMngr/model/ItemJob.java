@@ -0,0 +1,128 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Write to a subtree running in the background. Progress counts items of the subtree handled so far, out of
+ * the number of items it had when the job started.
+ */
+public class ItemJob {
+
+    public enum Type {
+        REMOVE, UPDATE, COPY
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private final long id;
+    private final Type type;
+    private final Long itemId;
+    @Nullable
+    private final Long targetId;
+    private final long submittedAt = System.currentTimeMillis();
+    private volatile Status status = Status.QUEUED;
+    private volatile boolean cancelRequested;
+    private volatile long done;
+    private volatile long total;
+    @Nullable
+    private volatile Long resultId;
+    @Nullable
+    private volatile String error;
+
+    /**
+     * @param id       - id of job
+     * @param type     - type of write
+     * @param itemId   - id of item which subtree is written
+     * @param targetId - id of new parent of item or null if it does not change
+     */
+    public ItemJob(long id, Type type, Long itemId, @Nullable Long targetId) {
+        this.id = id;
+        this.type = type;
+        this.itemId = itemId;
+        this.targetId = targetId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Long getItemId() {
+        return itemId;
+    }
+
+    @Nullable
+    public Long getTargetId() {
+        return targetId;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void setCancelRequested(boolean cancelRequested) {
+        this.cancelRequested = cancelRequested;
+    }
+
+    public long getDone() {
+        return done;
+    }
+
+    public void setDone(long done) {
+        this.done = done;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return id of item the write resulted in, the copy for COPY, or null until the job succeeds
+     */
+    @Nullable
+    public Long getResultId() {
+        return resultId;
+    }
+
+    public void setResultId(@Nullable Long resultId) {
+        this.resultId = resultId;
+    }
+
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    public void setError(@Nullable String error) {
+        this.error = error;
+    }
+
+    /**
+     * @return true once the job will not change anymore
+     */
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+}
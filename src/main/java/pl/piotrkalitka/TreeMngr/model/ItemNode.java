@@ -0,0 +1,91 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read model of an item detached from the entity graph. Holds only the slice of children
+ * that was requested, while childCount tells how many children the item has in total.
+ */
+public class ItemNode {
+
+    private long id;
+    @Nullable
+    private Long parentId;
+    private int value;
+    private int sum;
+    private int level;
+    private long childCount;
+    private List<ItemNode> children = new ArrayList<>();
+
+    public ItemNode() {
+    }
+
+    public ItemNode(long id, @Nullable Long parentId, int value, int sum, int level) {
+        this.id = id;
+        this.parentId = parentId;
+        this.value = value;
+        this.sum = sum;
+        this.level = level;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    @Nullable
+    public Long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(@Nullable Long parentId) {
+        this.parentId = parentId;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    public int getSum() {
+        return sum;
+    }
+
+    public void setSum(int sum) {
+        this.sum = sum;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public long getChildCount() {
+        return childCount;
+    }
+
+    public void setChildCount(long childCount) {
+        this.childCount = childCount;
+    }
+
+    public List<ItemNode> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<ItemNode> children) {
+        this.children = children;
+    }
+
+}
@@ -0,0 +1,80 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Materialized path of an item: ids of all ancestors and the item itself, from the root down,
+ * e.g. "/1/5/9/" for item 9 whose parent is 5 and whose root is 1.
+ */
+public final class ItemPath {
+
+    public static final String SEPARATOR = "/";
+
+    private ItemPath() {
+    }
+
+    /**
+     * @param parentPath - path of parent item or null for first item
+     * @param id         - id of item
+     * @return path of item
+     */
+    public static String of(@Nullable String parentPath, Long id) {
+        return (parentPath == null ? SEPARATOR : parentPath) + id + SEPARATOR;
+    }
+
+    /**
+     * @param path - path of item
+     * @return level of item, 0 for first item
+     */
+    public static int level(String path) {
+        int separators = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == SEPARATOR.charAt(0)) separators++;
+        }
+        return separators - 2;
+    }
+
+    /**
+     * @param path - path of item
+     * @return id of parent of item or null for first item
+     */
+    @Nullable
+    public static Long parentId(String path) {
+        int end = path.lastIndexOf(SEPARATOR, path.length() - 2);
+        if (end == 0) return null;
+        return Long.valueOf(path.substring(path.lastIndexOf(SEPARATOR, end - 1) + 1, end));
+    }
+
+    /**
+     * @param path - path of item
+     * @param id   - id of potential ancestor
+     * @return true if item for given id is the item itself or one of its ancestors
+     */
+    public static boolean contains(String path, Long id) {
+        return path.contains(SEPARATOR + id + SEPARATOR);
+    }
+
+    /**
+     * @param path - path of item
+     * @return ids of all ancestors from the root down, followed by id of the item itself
+     */
+    public static List<Long> ids(String path) {
+        List<Long> ids = new ArrayList<>();
+        for (int start = 1, end; (end = path.indexOf(SEPARATOR, start)) != -1; start = end + 1) {
+            ids.add(Long.valueOf(path.substring(start, end)));
+        }
+        return ids;
+    }
+
+    /**
+     * @param path - path of subtree root
+     * @return LIKE pattern matching the subtree root and all its descendants
+     */
+    public static String subtreePattern(String path) {
+        return path + "%";
+    }
+
+}
@@ -0,0 +1,69 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Flat item as written by tree export and read by tree import, one per line or per length-prefixed frame.
+ */
+public class ItemRecord {
+
+    private long id;
+    @Nullable
+    private Long parentId;
+    private int value;
+    private int sum;
+    private int level;
+
+    public ItemRecord() {
+    }
+
+    public ItemRecord(long id, @Nullable Long parentId, int value, int sum, int level) {
+        this.id = id;
+        this.parentId = parentId;
+        this.value = value;
+        this.sum = sum;
+        this.level = level;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    @Nullable
+    public Long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(@Nullable Long parentId) {
+        this.parentId = parentId;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    public int getSum() {
+        return sum;
+    }
+
+    public void setSum(int sum) {
+        this.sum = sum;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+}
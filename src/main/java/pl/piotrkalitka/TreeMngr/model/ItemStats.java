@@ -0,0 +1,123 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+/**
+ * Aggregates of the subtree of an item: number of items, total of their values, smallest and largest value
+ * and number of levels below the item.
+ */
+public class ItemStats {
+
+    private long id;
+    private long count;
+    private long total;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private int depth;
+
+    /**
+     * @param id - id of item, aggregates start empty
+     */
+    public ItemStats(long id) {
+        this.id = id;
+    }
+
+    public ItemStats(long id, long count, long total, int min, int max, int depth) {
+        this.id = id;
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.depth = depth;
+    }
+
+    /**
+     * @param id    - id of item
+     * @param value - value of item
+     * @return aggregates of an item without children
+     */
+    public static ItemStats of(long id, int value) {
+        ItemStats stats = new ItemStats(id);
+        stats.add(value);
+        return stats;
+    }
+
+    /**
+     * @param value - value of one more item on the level of the subtree root
+     */
+    public void add(int value) {
+        count++;
+        total += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * @param child - aggregates of a child subtree
+     */
+    public void include(ItemStats child) {
+        count += child.count;
+        total += child.total;
+        min = Math.min(min, child.min);
+        max = Math.max(max, child.max);
+        depth = Math.max(depth, child.depth + 1);
+    }
+
+    /**
+     * @param part - aggregates of another part of the same subtree, with depth counted from the same root
+     */
+    public void merge(ItemStats part) {
+        count += part.count;
+        total += part.total;
+        min = Math.min(min, part.min);
+        max = Math.max(max, part.max);
+        depth = Math.max(depth, part.depth);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public void setMin(int min) {
+        this.min = min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public void setMax(int max) {
+        this.max = max;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+}
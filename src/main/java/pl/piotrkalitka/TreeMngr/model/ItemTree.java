@@ -0,0 +1,190 @@
+package pl.piotrkalitka.TreeMngr.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Read-only tree of items held in primitive arrays in pre-order, every item right before its subtree, with the end
+ * of every subtree instead of child collections. Traversals and JSON writing allocate nothing per item. Written as
+ * JSON of the same shape as the {@link Item} tree: id, parentId, value, sum, level and nested children.
+ */
+public class ItemTree implements JsonSerializable {
+
+    public static final long NO_PARENT = -1;
+
+    private final int size;
+    private final long[] ids;
+    private final long[] parentIds;
+    private final int[] values;
+    private final int[] sums;
+    private final int[] levels;
+    private final int[] ends;
+
+    private ItemTree(int size, long[] ids, long[] parentIds, int[] values, int[] sums, int[] levels, int[] ends) {
+        this.size = size;
+        this.ids = ids;
+        this.parentIds = parentIds;
+        this.values = values;
+        this.sums = sums;
+        this.levels = levels;
+        this.ends = ends;
+    }
+
+    /**
+     * @return number of items in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index - pre-order index of item, 0 for the root
+     * @return id of item
+     */
+    public long id(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @param index - pre-order index of item
+     * @return id of parent of item or null for the first item
+     */
+    @Nullable
+    public Long parentId(int index) {
+        return parentIds[index] == NO_PARENT ? null : parentIds[index];
+    }
+
+    public int value(int index) {
+        return values[index];
+    }
+
+    public int sum(int index) {
+        return sums[index];
+    }
+
+    public int level(int index) {
+        return levels[index];
+    }
+
+    /**
+     * @param index - pre-order index of item
+     * @return index right after the subtree of item, its first child is at index + 1 if it has any
+     */
+    public int subtreeEnd(int index) {
+        return ends[index];
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+        int[] open = new int[16];
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            while (depth > 0 && ends[open[depth - 1]] <= i) {
+                depth--;
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeStartObject();
+            generator.writeNumberField("id", ids[i]);
+            if (parentIds[i] == NO_PARENT) generator.writeNullField("parentId");
+            else generator.writeNumberField("parentId", parentIds[i]);
+            generator.writeNumberField("value", values[i]);
+            generator.writeNumberField("sum", sums[i]);
+            generator.writeNumberField("level", levels[i]);
+            generator.writeArrayFieldStart("children");
+            if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+            open[depth++] = i;
+        }
+        for (; depth > 0; depth--) {
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer) throws IOException {
+        serialize(generator, serializers);
+    }
+
+    /**
+     * Collects items given in pre-order into primitive arrays, growing them as needed.
+     */
+    public static class Builder {
+
+        private int size;
+        private long[] ids;
+        private long[] parentIds;
+        private int[] values;
+        private int[] sums;
+        private int[] levels;
+        private int[] ends;
+        private int[] open = new int[16];
+        private int depth;
+
+        /**
+         * @param expectedSize - expected number of items
+         */
+        public Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 16);
+            ids = new long[capacity];
+            parentIds = new long[capacity];
+            values = new int[capacity];
+            sums = new int[capacity];
+            levels = new int[capacity];
+            ends = new int[capacity];
+        }
+
+        /**
+         * @param id       - id of item
+         * @param parentId - id of parent of item, added before, or {@link #NO_PARENT} for the root
+         * @param value    - value of item
+         * @param sum      - sum of item
+         * @param level    - level of item
+         * @return this builder
+         */
+        public Builder add(long id, long parentId, int value, int sum, int level) {
+            while (depth > 0 && ids[open[depth - 1]] != parentId) {
+                ends[open[--depth]] = size;
+            }
+            if (size == ids.length) grow();
+            ids[size] = id;
+            parentIds[size] = parentId;
+            values[size] = value;
+            sums[size] = sum;
+            levels[size] = level;
+            if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+            open[depth++] = size;
+            size++;
+            return this;
+        }
+
+        /**
+         * @return tree of added items, the builder is not used anymore
+         */
+        public ItemTree build() {
+            while (depth > 0) {
+                ends[open[--depth]] = size;
+            }
+            return new ItemTree(size, ids, parentIds, values, sums, levels, ends);
+        }
+
+        private void grow() {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            parentIds = Arrays.copyOf(parentIds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package pl.piotrkalitka.TreeMngr.payload;
+
+import javax.validation.constraints.NotNull;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class BatchOperation {
+
+    public enum Type {
+        ADD, UPDATE, DELETE
+    }
+
+    @NotNull
+    @ApiModelProperty(notes = "Kind of operation", required = true)
+    private Type type;
+    @ApiModelProperty(notes = "Name under which item created by ADD can be referred to by later operations")
+    private String ref;
+    @ApiModelProperty(notes = "Id of item to update or delete")
+    private Long itemId;
+    @ApiModelProperty(notes = "Name of item created earlier in the batch to update or delete")
+    private String itemRef;
+    @ApiModelProperty(notes = "Id of parent for ADD or of new parent for UPDATE")
+    private Long parentId;
+    @ApiModelProperty(notes = "Name of item created earlier in the batch to use as parent")
+    private String parentRef;
+    @ApiModelProperty(notes = "Value for ADD or new value for UPDATE")
+    private Integer value;
+
+    public BatchOperation() {
+    }
+
+    public BatchOperation(Type type, String ref, Long itemId, String itemRef, Long parentId, String parentRef, Integer value) {
+        this.type = type;
+        this.ref = ref;
+        this.itemId = itemId;
+        this.itemRef = itemRef;
+        this.parentId = parentId;
+        this.parentRef = parentRef;
+        this.value = value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public void setRef(String ref) {
+        this.ref = ref;
+    }
+
+    public Long getItemId() {
+        return itemId;
+    }
+
+    public void setItemId(Long itemId) {
+        this.itemId = itemId;
+    }
+
+    public String getItemRef() {
+        return itemRef;
+    }
+
+    public void setItemRef(String itemRef) {
+        this.itemRef = itemRef;
+    }
+
+    public Long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(Long parentId) {
+        this.parentId = parentId;
+    }
+
+    public String getParentRef() {
+        return parentRef;
+    }
+
+    public void setParentRef(String parentRef) {
+        this.parentRef = parentRef;
+    }
+
+    public Integer getValue() {
+        return value;
+    }
+
+    public void setValue(Integer value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,31 @@
+package pl.piotrkalitka.TreeMngr.payload;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class BatchRequestBody {
+
+    @Valid
+    @NotEmpty
+    @ApiModelProperty(notes = "Operations applied in given order", required = true)
+    private List<BatchOperation> operations;
+
+    public BatchRequestBody() {
+    }
+
+    public BatchRequestBody(List<BatchOperation> operations) {
+        this.operations = operations;
+    }
+
+    public List<BatchOperation> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<BatchOperation> operations) {
+        this.operations = operations;
+    }
+}
@@ -0,0 +1,22 @@
+package pl.piotrkalitka.TreeMngr.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import pl.piotrkalitka.TreeMngr.model.IdSequence;
+
+@Repository
+public interface IdSequencesRepository extends JpaRepository<IdSequence, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from IdSequence s where s.name = :name")
+    Optional<IdSequence> findForUpdate(@Param("name") String name);
+
+}
@@ -0,0 +1,21 @@
+package pl.piotrkalitka.TreeMngr.repository;
+
+/**
+ * Projection of the columns needed to place, move or revalue an item within its tree without loading its entity. The version
+ * is checked by {@link ItemsRepository#lockVersion} to detect concurrent writes.
+ */
+public interface ItemAncestry {
+
+    Long getTreeId();
+
+    String getPath();
+
+    Integer getValue();
+
+    Integer getSum();
+
+    Integer getLevel();
+
+    Long getVersion();
+
+}
@@ -0,0 +1,126 @@
+package pl.piotrkalitka.TreeMngr.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+
+/**
+ * Append-only log of {@link ItemChange}s, one per tree. Sequence numbers of a tree are taken from its own
+ * id_sequences row by an update that locks the row until commit, so changes of a tree become visible in the order
+ * of their numbers while commits to other trees do not wait for it.
+ */
+@Repository
+public class ItemChangesRepository {
+
+    // followed by the id of the tree in names of sequence rows
+    public static final String SEQUENCE_PREFIX = "item_changes/";
+
+    private static final RowMapper<ItemChange> CHANGE_MAPPER = (rs, rowNum) -> {
+        ItemChange change = new ItemChange();
+        change.setSeq(rs.getLong("seq"));
+        change.setType(ItemChange.Type.valueOf(rs.getString("type")));
+        change.setTreeId(rs.getLong("tree_id"));
+        change.setItemId(rs.getLong("item_id"));
+        long parentId = rs.getLong("parent_id");
+        change.setParentId(rs.wasNull() ? null : parentId);
+        change.setValue(rs.getInt("value"));
+        change.setSum(rs.getInt("sum"));
+        return change;
+    };
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public ItemChangesRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Numbers given changes of one tree and inserts them in one JDBC batch. Has to be the last statement of the
+     * transaction for the tree, as its sequence row stays locked until commit. The row of a tree that has not logged
+     * anything yet is created here, numbering from 1.
+     *
+     * @param treeId  - id of tree of all given changes
+     * @param changes - changes in the order they were made, get their sequence numbers set
+     */
+    public void append(long treeId, List<ItemChange> changes) {
+        String sequence = SEQUENCE_PREFIX + treeId;
+        if (jdbcTemplate.update("update id_sequences set next_value = next_value + ? where name = ?", changes.size(), sequence) == 0) {
+            try {
+                jdbcTemplate.update("insert into id_sequences (name, next_value) values (?, ?)", sequence, changes.size() + 1);
+            } catch (DuplicateKeyException e) {
+                // created concurrently by the first changes of another transaction, which has committed by now
+                jdbcTemplate.update("update id_sequences set next_value = next_value + ? where name = ?", changes.size(), sequence);
+            }
+        }
+        long seq = jdbcTemplate.queryForObject("select next_value from id_sequences where name = ?", Long.class, sequence) - changes.size();
+        for (ItemChange change : changes) {
+            change.setSeq(seq++);
+        }
+        jdbcTemplate.batchUpdate("insert into item_changes (seq, type, tree_id, item_id, parent_id, value, sum) values (?, ?, ?, ?, ?, ?, ?)",
+                changes.stream()
+                        .map(change -> new Object[]{change.getSeq(), change.getType().name(), change.getTreeId(), change.getItemId(), change.getParentId(),
+                                change.getValue(), change.getSum()})
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @return sequence number of the last committed change of the tree, 0 if nothing has been logged for it
+     */
+    public long findLastSeq(long treeId) {
+        List<Long> next = jdbcTemplate.queryForList("select next_value from id_sequences where name = ?", Long.class, SEQUENCE_PREFIX + treeId);
+        return next.isEmpty() ? 0 : next.get(0) - 1;
+    }
+
+    /**
+     * @return sequence number of the last committed change of every tree that has logged any, by id of tree
+     */
+    public Map<Long, Long> findLastSeqs() {
+        Map<Long, Long> lastSeqs = new HashMap<>();
+        jdbcTemplate.query("select name, next_value from id_sequences where name like ?", rs -> {
+            lastSeqs.put(Long.valueOf(rs.getString(1).substring(SEQUENCE_PREFIX.length())), rs.getLong(2) - 1);
+        }, SEQUENCE_PREFIX + "%");
+        return lastSeqs;
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @return sequence number of the oldest change of the tree kept in the log or null if there is none
+     */
+    @Nullable
+    public Long findFirstSeq(long treeId) {
+        return jdbcTemplate.queryForObject("select min(seq) from item_changes where tree_id = ?", Long.class, treeId);
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @param since  - sequence number of the last change of the tree already seen
+     * @param limit  - max number of returned changes
+     * @return changes of the tree after given one in sequence order, read from the (tree_id, seq) key
+     */
+    public List<ItemChange> findSince(long treeId, long since, int limit) {
+        return jdbcTemplate.query("select seq, type, tree_id, item_id, parent_id, value, sum from item_changes where tree_id = ? and seq > ? "
+                + "order by seq limit ?", CHANGE_MAPPER, treeId, since, limit);
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @param seq    - sequence number of the oldest change of the tree to keep
+     * @return number of removed changes
+     */
+    public int deleteBefore(long treeId, long seq) {
+        return jdbcTemplate.update("delete from item_changes where tree_id = ? and seq < ?", treeId, seq);
+    }
+
+}
@@ -0,0 +1,386 @@
+package pl.piotrkalitka.TreeMngr.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+
+/**
+ * Reads slices of the tree as {@link ItemNode}s straight from the items table, without hydrating entities.
+ * Also maintains subtree aggregates, which need functions JPQL does not have, and subtree versions, which every
+ * statement changing an item or the aggregates of an ancestor increments along with them.
+ */
+@Repository
+public class ItemNodesRepository {
+
+    private static final String COLUMNS = "select id, parent_id, value, sum, level from items";
+    private static final String INSERT = "insert into items (id, parent_id, value, sum, level, path, tree_id, version, "
+            + "subtree_count, subtree_total, subtree_min, subtree_max, subtree_depth, subtree_version) values (?, ?, ?, ?, ?, ?, ?, 0, 1, ?, ?, ?, 0, 0)";
+    private static final String STATS = "select id, subtree_count, subtree_total, subtree_min, subtree_max, subtree_depth from items";
+    // parents whose children are read by one union of per-parent queries
+    private static final int PARENTS_PER_QUERY = 200;
+    // ids of one "id in (...)" statement, so ancestor chains thousands of levels deep take a single statement
+    private static final int IDS_PER_STATEMENT = 10000;
+
+    private static final RowMapper<ItemStats> STATS_MAPPER = (rs, rowNum) -> new ItemStats(
+            rs.getLong(1),
+            rs.getLong(2),
+            rs.getLong(3),
+            rs.getInt(4),
+            rs.getInt(5),
+            rs.getInt(6));
+
+    private static final RowMapper<ItemNode> NODE_MAPPER = (rs, rowNum) -> {
+        long parentId = rs.getLong("parent_id");
+        Long nullableParentId = rs.wasNull() ? null : parentId;
+        return new ItemNode(
+                rs.getLong("id"),
+                nullableParentId,
+                rs.getInt("value"),
+                rs.getInt("sum"),
+                rs.getInt("level"));
+    };
+
+    private JdbcTemplate jdbcTemplate;
+    private JdbcTemplate streamingTemplate;
+
+    @Autowired
+    public ItemNodesRepository(JdbcTemplate jdbcTemplate, @Value("${treemngr.jdbc.stream-fetch-size:1000}") int streamFetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingTemplate.setFetchSize(streamFetchSize);
+    }
+
+    /**
+     * @param id - id of item
+     * @return node for given id
+     */
+    public Optional<ItemNode> findById(Long id) {
+        return jdbcTemplate.query(COLUMNS + " where id = ?", NODE_MAPPER, id).stream().findFirst();
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @return first item of the tree
+     */
+    public Optional<ItemNode> findRoot(long treeId) {
+        return jdbcTemplate.query(COLUMNS + " where tree_id = ? and parent_id is null", NODE_MAPPER, treeId).stream().findFirst();
+    }
+
+    /**
+     * @param treeId - id of tree, used if id is null
+     * @param id     - id of item, null for the first item of the tree
+     * @return id and subtree version of item, which every write inside its subtree increments
+     */
+    public Optional<long[]> findSubtreeVersion(long treeId, @Nullable Long id) {
+        String sql = "select id, subtree_version from items where " + (id == null ? "tree_id = ? and parent_id is null" : "id = ?");
+        Object[] args = {id == null ? treeId : id};
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)}, args).stream().findFirst();
+    }
+
+    /**
+     * @param path - path of subtree root
+     * @return subtree root and all its descendants, every parent before its children even when levels are stale
+     */
+    public List<ItemNode> findSubtree(String path) {
+        return jdbcTemplate.query(COLUMNS + " where path like ? order by length(path), id", NODE_MAPPER, ItemPath.subtreePattern(path));
+    }
+
+    /**
+     * @param path - path of item
+     * @return first item of the tree and all ancestors down to the item in the order of the path, even when levels
+     * are stale, read by primary key in one statement unless the path is ten thousand levels deep
+     */
+    public List<ItemNode> findPath(String path) {
+        List<Long> ids = ItemPath.ids(path);
+        Map<Long, ItemNode> nodes = new HashMap<>();
+        for (List<Long> chunk : chunks(ids, IDS_PER_STATEMENT)) {
+            for (ItemNode node : jdbcTemplate.query(COLUMNS + " where id in (" + placeholders(chunk.size()) + ")", NODE_MAPPER, chunk.toArray())) {
+                nodes.put(node.getId(), node);
+            }
+        }
+        List<ItemNode> chain = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            if (nodes.containsKey(id)) chain.add(nodes.get(id));
+        }
+        return chain;
+    }
+
+    /**
+     * @param path  - path of subtree root
+     * @param limit - max number of returned ids
+     * @return ids of the deepest items of the subtree, every item after all its descendants
+     */
+    public List<Long> findDeepestInSubtree(String path, int limit) {
+        return jdbcTemplate.queryForList("select id from items where path like ? order by length(path) desc, id limit ?", Long.class,
+                ItemPath.subtreePattern(path), limit);
+    }
+
+    /**
+     * Streams all items of a tree ordered by id through a forward-only cursor.
+     *
+     * @param treeId   - id of tree
+     * @param consumer - receives every item, the same record instance is reused for every row
+     */
+    public void forEachById(long treeId, Consumer<ItemRecord> consumer) {
+        stream(COLUMNS + " where tree_id = ? order by id", consumer, treeId);
+    }
+
+    /**
+     * Streams all items of a tree in pre-order through a forward-only cursor: every item comes right before its subtree.
+     *
+     * @param treeId   - id of tree
+     * @param consumer - receives every item, the same record instance is reused for every row
+     */
+    public void forEachInPreOrder(long treeId, Consumer<ItemRecord> consumer) {
+        stream(COLUMNS + " where tree_id = ? order by path", consumer, treeId);
+    }
+
+    /**
+     * @param rows - rows to insert, every one with id, parent id, value, sum, level, path and tree id, aggregates of
+     *             every inserted item are the ones of an item without children
+     */
+    public void insertAll(List<Object[]> rows) {
+        List<Object[]> args = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            args.add(new Object[]{row[0], row[1], row[2], row[3], row[4], row[5], row[6], row[2], row[2], row[2]});
+        }
+        jdbcTemplate.batchUpdate(INSERT, args);
+    }
+
+    /**
+     * @param rows - rows to update, every one with sum, level and id
+     */
+    public void updateSumsAndLevels(List<Object[]> rows) {
+        jdbcTemplate.batchUpdate("update items set sum = ?, level = ?, version = version + 1, subtree_version = subtree_version + 1 where id = ?", rows);
+    }
+
+    /**
+     * @param id - id of item
+     * @return aggregates of subtree of item for given id
+     */
+    public Optional<ItemStats> findStats(Long id) {
+        return jdbcTemplate.query(STATS + " where id = ?", STATS_MAPPER, id).stream().findFirst();
+    }
+
+    /**
+     * @param stats - aggregates to write, every one to the item of its id
+     */
+    public void updateStats(List<ItemStats> stats) {
+        List<Object[]> rows = new ArrayList<>(stats.size());
+        for (ItemStats item : stats) {
+            rows.add(new Object[]{item.getCount(), item.getTotal(), item.getMin(), item.getMax(), item.getDepth(), item.getId()});
+        }
+        jdbcTemplate.batchUpdate("update items set subtree_count = ?, subtree_total = ?, subtree_min = ?, subtree_max = ?, "
+                + "subtree_depth = ?, subtree_version = subtree_version + 1 where id = ?", rows);
+    }
+
+    /**
+     * Includes an added subtree in aggregates of its ancestors, by a single statement for up to ten thousand ancestors.
+     *
+     * @param ancestorIds - ids of ancestors of added subtree
+     * @param added       - aggregates of added subtree
+     * @param level       - level of root of added subtree
+     */
+    public void includeInAncestors(List<Long> ancestorIds, ItemStats added, int level) {
+        for (List<Long> chunk : chunks(ancestorIds, IDS_PER_STATEMENT)) {
+            List<Object> args = new ArrayList<>(Arrays.asList(added.getCount(), added.getTotal(), added.getMin(), added.getMax(),
+                    level + added.getDepth()));
+            args.addAll(chunk);
+            jdbcTemplate.update("update items set subtree_count = subtree_count + ?, subtree_total = subtree_total + ?, "
+                    + "subtree_min = least(subtree_min, ?), subtree_max = greatest(subtree_max, ?), "
+                    + "subtree_depth = greatest(subtree_depth, ? - level), subtree_version = subtree_version + 1 where id in (" + placeholders(chunk.size()) + ")", args.toArray());
+        }
+    }
+
+    /**
+     * @param ids        - ids of items
+     * @param countDelta - value to add to every count
+     * @param totalDelta - value to add to every total
+     */
+    public void shiftCountsAndTotals(List<Long> ids, long countDelta, long totalDelta) {
+        for (List<Long> chunk : chunks(ids, IDS_PER_STATEMENT)) {
+            List<Object> args = new ArrayList<>(Arrays.asList(countDelta, totalDelta));
+            args.addAll(chunk);
+            jdbcTemplate.update("update items set subtree_count = subtree_count + ?, subtree_total = subtree_total + ?, "
+                    + "subtree_version = subtree_version + 1 where id in (" + placeholders(chunk.size()) + ")", args.toArray());
+        }
+    }
+
+    /**
+     * @param ids - ids of items whose subtrees have changed without a change of their aggregates
+     */
+    public void touch(List<Long> ids) {
+        for (List<Long> chunk : chunks(ids, IDS_PER_STATEMENT)) {
+            jdbcTemplate.update("update items set subtree_version = subtree_version + 1 where id in (" + placeholders(chunk.size()) + ")",
+                    chunk.toArray());
+        }
+    }
+
+    /**
+     * Recomputes min, max and depth of items from their own values and aggregates of their children, up to the first
+     * item that does not change, as none of its ancestors can change then. Every item is locked before its children
+     * are read, which orders refreshes of the same item, so extremes written meanwhile by a write to another subtree
+     * are not lost. Children are read without locks: a writer that changes them refreshes their parent after this
+     * transaction commits, and locking them would make writes to sibling subtrees wait for each other. The caller has
+     * to run in a read committed transaction for such reads to see children committed after it started.
+     *
+     * @param ids - ids of items, every one the parent of the previous one
+     */
+    public void refreshExtremes(List<Long> ids) {
+        for (Long id : ids) {
+            List<int[]> items = jdbcTemplate.query("select value, subtree_min, subtree_max, subtree_depth from items where id = ? for update",
+                    (rs, rowNum) -> new int[]{rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4)}, id);
+            if (items.isEmpty()) return;
+            int[] item = items.get(0);
+            int[] refreshed = {item[0], item[0], 0};
+            jdbcTemplate.query("select subtree_min, subtree_max, subtree_depth from items where parent_id = ?", rs -> {
+                refreshed[0] = Math.min(refreshed[0], rs.getInt(1));
+                refreshed[1] = Math.max(refreshed[1], rs.getInt(2));
+                refreshed[2] = Math.max(refreshed[2], rs.getInt(3) + 1);
+            }, id);
+            if (refreshed[0] == item[1] && refreshed[1] == item[2] && refreshed[2] == item[3]) return;
+            jdbcTemplate.update("update items set subtree_min = ?, subtree_max = ?, subtree_depth = ? where id = ?",
+                    refreshed[0], refreshed[1], refreshed[2], id);
+        }
+    }
+
+    /**
+     * Recomputes all aggregates of given items from their own values and aggregates of their children, deepest
+     * items first, with a couple of statements per level. Children are read without locks, as by
+     * {@link #refreshExtremes(List)}.
+     *
+     * @param ids - ids of items, ids of removed items are skipped
+     */
+    public void refreshStats(Collection<Long> ids) {
+        Map<Long, ItemStats> stats = new HashMap<>();
+        Map<Integer, List<Long>> levels = new TreeMap<>(Comparator.reverseOrder());
+        for (List<Long> chunk : chunks(new ArrayList<>(ids), IDS_PER_STATEMENT)) {
+            jdbcTemplate.query("select id, value, level from items where id in (" + placeholders(chunk.size()) + ")", rs -> {
+                stats.put(rs.getLong(1), ItemStats.of(rs.getLong(1), rs.getInt(2)));
+                levels.computeIfAbsent(rs.getInt(3), level -> new ArrayList<>()).add(rs.getLong(1));
+            }, chunk.toArray());
+        }
+        for (List<Long> levelIds : levels.values()) {
+            for (List<Long> chunk : chunks(levelIds, IDS_PER_STATEMENT)) {
+                jdbcTemplate.query("select parent_id, sum(subtree_count), sum(subtree_total), min(subtree_min), max(subtree_max), "
+                        + "max(subtree_depth) from items where parent_id in (" + placeholders(chunk.size()) + ") group by parent_id", rs -> {
+                    stats.get(rs.getLong(1)).include(STATS_MAPPER.mapRow(rs, 0));
+                }, chunk.toArray());
+            }
+            updateStats(levelIds.stream().map(stats::get).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * @param parentIds - ids of parents
+     * @return all children of given parents ordered by id within every parent
+     */
+    public List<ItemNode> findChildren(List<Long> parentIds) {
+        List<ItemNode> children = new ArrayList<>();
+        for (List<Long> chunk : chunks(parentIds, IDS_PER_STATEMENT)) {
+            children.addAll(jdbcTemplate.query(COLUMNS + " where parent_id in (" + placeholders(chunk.size()) + ")", NODE_MAPPER, chunk.toArray()));
+        }
+        children.sort(Comparator.comparing(ItemNode::getParentId).thenComparingLong(ItemNode::getId));
+        return children;
+    }
+
+    /**
+     * @param parentIds - ids of parents
+     * @param offset    - number of children skipped for every parent
+     * @param limit     - max number of children returned for every parent
+     * @return children of given parents ordered by id within every parent
+     */
+    public List<ItemNode> findChildren(List<Long> parentIds, int offset, int limit) {
+        List<ItemNode> children = new ArrayList<>();
+        for (List<Long> chunk : chunks(parentIds, PARENTS_PER_QUERY)) {
+            StringBuilder sql = new StringBuilder();
+            List<Object> args = new ArrayList<>();
+            for (Long parentId : chunk) {
+                if (sql.length() > 0) sql.append(" union all ");
+                sql.append('(').append(COLUMNS).append(" where parent_id = ? order by id limit ? offset ?)");
+                args.add(parentId);
+                args.add(limit);
+                args.add(offset);
+            }
+            children.addAll(jdbcTemplate.query(sql.toString(), NODE_MAPPER, args.toArray()));
+        }
+        children.sort(Comparator.comparing(ItemNode::getParentId).thenComparingLong(ItemNode::getId));
+        return children;
+    }
+
+    /**
+     * @param parentIds - ids of parents
+     * @return number of children of every given parent that has any
+     */
+    public Map<Long, Long> countChildren(List<Long> parentIds) {
+        Map<Long, Long> counts = new HashMap<>();
+        for (List<Long> chunk : chunks(parentIds, IDS_PER_STATEMENT)) {
+            jdbcTemplate.query("select parent_id, count(*) from items where parent_id in (" + placeholders(chunk.size()) + ") group by parent_id",
+                    rs -> {
+                        counts.put(rs.getLong(1), rs.getLong(2));
+                    }, chunk.toArray());
+        }
+        return counts;
+    }
+
+    /**
+     * @param sql      - query selecting item columns
+     * @param consumer - receives every row as the same reused record
+     * @param args     - parameters of the query
+     */
+    private void stream(String sql, Consumer<ItemRecord> consumer, Object... args) {
+        ItemRecord record = new ItemRecord();
+        streamingTemplate.query(sql, rs -> {
+            long parentId = rs.getLong("parent_id");
+            record.setParentId(rs.wasNull() ? null : parentId);
+            record.setId(rs.getLong("id"));
+            record.setValue(rs.getInt("value"));
+            record.setSum(rs.getInt("sum"));
+            record.setLevel(rs.getInt("level"));
+            consumer.accept(record);
+        }, args);
+    }
+
+    /**
+     * @param count - number of parameters
+     * @return placeholders of given number of parameters separated by commas
+     */
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * @param ids  - ids to split
+     * @param size - max number of ids of a single statement
+     * @return ids split into lists small enough for a single statement
+     */
+    private static List<List<Long>> chunks(List<Long> ids, int size) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += size) {
+            chunks.add(ids.subList(i, Math.min(i + size, ids.size())));
+        }
+        return chunks;
+    }
+
+}
@@ -1,9 +1,18 @@
 package pl.piotrkalitka.TreeMngr.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
 
 @Repository
 public interface ItemsRepository extends JpaRepository<Item, Long> {
@@ -12,4 +21,71 @@ public interface ItemsRepository extends JpaRepository<Item, Long> {
 
     boolean existsByParentId(Long parentId);
 
+    long countByTreeId(Long treeId);
+
+    @Query("select coalesce(max(i.id), 0) from Item i")
+    Long findMaxId();
+
+    @Query("select i.treeId as treeId, i.path as path, i.value as value, i.sum as sum, i.level as level, i.version as version from Item i where i.id = :id")
+    Optional<ItemAncestry> findAncestryById(@Param("id") Long id);
+
+    /**
+     * Reads a page of children from the (parentId, id) index alone, it covers value, sum and level too, so the
+     * page costs the same wherever it starts.
+     *
+     * @param parentId - id of parent
+     * @param after    - id of the last child of the previous page
+     * @param pageable - first page, of the size of the read page
+     * @return children with ids greater than after, ordered by id
+     */
+    @Query("select new pl.piotrkalitka.TreeMngr.model.ItemNode(i.id, i.parentId, i.value, i.sum, i.level) from Item i "
+            + "where i.parentId = :parentId and i.id > :after order by i.id")
+    List<ItemNode> findChildrenAfter(@Param("parentId") Long parentId, @Param("after") Long after, Pageable pageable);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Item i set i.path = concat(:newPath, substring(i.path, :oldPathLength + 1)), i.treeId = :treeId, "
+            + "i.sum = i.sum + :sumDelta, i.level = i.level + :levelDelta, i.version = i.version + 1, "
+            + "i.subtreeVersion = i.subtreeVersion + 1 where i.path like :pattern")
+    int moveSubtree(@Param("pattern") String pattern, @Param("oldPathLength") int oldPathLength, @Param("newPath") String newPath,
+                    @Param("treeId") Long treeId, @Param("sumDelta") int sumDelta, @Param("levelDelta") int levelDelta);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Item i set i.sum = i.sum + :sumDelta, i.level = i.level + :levelDelta, i.version = i.version + 1, i.subtreeVersion = i.subtreeVersion + 1 where i.path like :pattern")
+    int shiftSubtree(@Param("pattern") String pattern, @Param("sumDelta") int sumDelta, @Param("levelDelta") int levelDelta);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Item i set i.value = :value, i.version = i.version + 1, i.subtreeVersion = i.subtreeVersion + 1 where i.id = :id")
+    int updateValue(@Param("id") Long id, @Param("value") Integer value);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Item i set i.parentId = :parentId, i.version = i.version + 1, i.subtreeVersion = i.subtreeVersion + 1 where i.id = :id")
+    int updateParentId(@Param("id") Long id, @Param("parentId") Long parentId);
+
+    /**
+     * Locks the row of an item read earlier for the rest of the transaction, if it has not changed since.
+     *
+     * @param id      - id of item
+     * @param version - version of item when it was read
+     * @return 1 if item still has given version, 0 otherwise
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update Item i set i.version = i.version where i.id = :id and i.version = :version")
+    int lockVersion(@Param("id") Long id, @Param("version") Long version);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Item i set i.parentId = null where i.path like :pattern")
+    int detachSubtree(@Param("pattern") String pattern);
+
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Item i where i.path like :pattern")
+    int deleteSubtree(@Param("pattern") String pattern);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Item i set i.parentId = null where i.id in :ids")
+    int detachItems(@Param("ids") Collection<Long> ids);
+
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Item i where i.id in :ids")
+    int deleteItems(@Param("ids") Collection<Long> ids);
+
 }
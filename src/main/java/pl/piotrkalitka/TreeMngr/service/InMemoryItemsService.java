@@ -0,0 +1,667 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException;
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.model.ItemTree;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
+
+/**
+ * Engine mode enabled with treemngr.engine=memory. The whole tree is held in an {@link InMemoryTree}, which is
+ * the authoritative copy: reads and sums are served from memory and mutations are handed to {@link ItemsWriteBehind}.
+ * Writes are serialized by a single lock, so the instance has to be the only writer of the items table.
+ * With treemngr.snapshot.path set, the tree is also written periodically to a {@link TreeSnapshot} and loaded from
+ * it on start, with changes logged after the snapshot replayed, instead of scanning the items table.
+ * Only the default tree is held, requests for other trees are rejected.
+ */
+@Primary
+@Component
+@ConditionalOnProperty(name = "treemngr.engine", havingValue = "memory")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class InMemoryItemsService extends ItemsService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryItemsService.class);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // part of every version, so versions counted after a restart differ from the ones counted before
+    private final long versionEpoch = System.currentTimeMillis();
+    private ItemsWriteBehind writeBehind;
+    private ItemsRepository itemsRepository;
+    private ItemNodesRepository itemNodesRepository;
+    private ItemIdAllocator itemIdAllocator;
+    private ItemChangeLog itemChangeLog;
+    private String snapshotPath;
+    private InMemoryTree tree;
+    private long snapshotSeq = -1;
+    // writes since start, guarded by lock
+    private long version;
+
+    @Autowired
+    public InMemoryItemsService(ItemsRepository itemsRepository, ItemNodesRepository itemNodesRepository,
+                                ItemIdAllocator itemIdAllocator, ItemNodeCache itemNodeCache, ItemChangeLog itemChangeLog,
+                                ItemsWriteBehind writeBehind, @Value("${treemngr.snapshot.path:}") String snapshotPath) {
+        super(itemsRepository, itemNodesRepository, itemIdAllocator, itemNodeCache, itemChangeLog);
+        this.itemsRepository = itemsRepository;
+        this.itemNodesRepository = itemNodesRepository;
+        this.itemIdAllocator = itemIdAllocator;
+        this.itemChangeLog = itemChangeLog;
+        this.writeBehind = writeBehind;
+        this.snapshotPath = snapshotPath;
+    }
+
+    /**
+     * Loads the tree from the snapshot if there is a usable one, otherwise from a single scan of the items table.
+     */
+    @PostConstruct
+    public void load() {
+        InMemoryTree loaded = snapshotPath.isEmpty() ? null : loadSnapshot(Paths.get(snapshotPath));
+        if (loaded == null) loaded = loadTable();
+
+        lock.writeLock().lock();
+        try {
+            tree = loaded;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the tree to the snapshot file unless nothing has changed since the last one. Pending writes are
+     * flushed first, so the snapshot reflects exactly the changes logged so far. Writers wait until it is written.
+     */
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${treemngr.snapshot.interval-ms:300000}")
+    public void writeSnapshot() {
+        if (snapshotPath.isEmpty()) return;
+        lock.readLock().lock();
+        try {
+            writeBehind.flush();
+            if (writeBehind.pendingCount() != 0) {
+                LOGGER.warn("Snapshot skipped, pending writes could not be flushed");
+                return;
+            }
+            long changeSeq = itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID);
+            if (changeSeq == snapshotSeq) return;
+            TreeSnapshot.write(tree, changeSeq, Paths.get(snapshotPath));
+            snapshotSeq = changeSeq;
+        } catch (IOException e) {
+            LOGGER.error("Writing snapshot {} failed", snapshotPath, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes held by the in-memory tree
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return tree.estimatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ItemTree getItems(long treeId) {
+        requireDefaultTree(treeId);
+        lock.readLock().lock();
+        try {
+            if (tree.rootSlot() == InMemoryTree.NO_SLOT) return null;
+            int[] slots = tree.subtree(tree.rootSlot());
+            int[] sums = new int[slots.length];
+            int[] levels = new int[slots.length];
+            tree.resolve(slots, sums, levels);
+            ItemTree.Builder builder = new ItemTree.Builder(slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                long parentId = tree.parentId(slots[i]);
+                builder.add(tree.id(slots[i]), parentId == InMemoryTree.NO_PARENT ? ItemTree.NO_PARENT : parentId,
+                        tree.value(slots[i]), sums[i], levels[i]);
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ItemNode getTree(long treeId, @Nullable Long rootId, int depth, int offset, int limit) {
+        requireDefaultTree(treeId);
+        checkTreeSlice(depth, offset, limit);
+        lock.readLock().lock();
+        try {
+            int rootSlot = rootId == null ? tree.rootSlot() : requireSlot(rootId);
+            if (rootSlot == InMemoryTree.NO_SLOT) return null;
+            return toTree(rootSlot, depth, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ItemNode> getChildren(Long id, @Nullable Long after, int limit) {
+        checkTreeSlice(0, 0, limit);
+        lock.readLock().lock();
+        try {
+            int slot = requireSlot(id);
+            int sum = tree.sum(slot);
+            int level = tree.level(slot);
+            List<ItemNode> children = new ArrayList<>();
+            for (int index = after == null ? 0 : tree.childIndexAfter(slot, after); index < tree.childCount(slot) && children.size() < limit; index++) {
+                int child = tree.child(slot, index);
+                children.add(toNode(child, sum + tree.value(child), level + 1));
+            }
+            return children;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The in-memory tree keeps no aggregates, so they are computed by a walk of the subtree in memory, split
+     * across the common fork-join pool for large subtrees.
+     */
+    @Override
+    public ItemStats getStats(Long id) {
+        lock.readLock().lock();
+        try {
+            return SubtreeStatsTask.compute(tree, id, tree.subtree(requireSlot(id)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The in-memory tree keeps no versions per subtree, so every subtree has the version of the whole tree.
+     */
+    @Nullable
+    @Override
+    public String getVersion(long treeId, @Nullable Long rootId) {
+        requireDefaultTree(treeId);
+        lock.readLock().lock();
+        try {
+            int rootSlot = rootId == null ? tree.rootSlot() : requireSlot(rootId);
+            if (rootSlot == InMemoryTree.NO_SLOT) return null;
+            return tree.id(rootSlot) + "-" + versionEpoch + "." + version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getPath(Long id) {
+        lock.readLock().lock();
+        try {
+            return tree.path(requireSlot(id));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ItemNode> getPathNodes(Long id) {
+        lock.readLock().lock();
+        try {
+            Deque<Integer> chain = new ArrayDeque<>();
+            for (int slot = requireSlot(id); ; slot = tree.slotOf(tree.parentId(slot))) {
+                chain.push(slot);
+                if (tree.parentId(slot) == InMemoryTree.NO_PARENT) break;
+            }
+            List<ItemNode> nodes = new ArrayList<>(chain.size());
+            int sum = 0;
+            for (int slot : chain) {
+                sum += tree.value(slot);
+                long parentId = tree.parentId(slot);
+                nodes.add(new ItemNode(tree.id(slot), parentId == InMemoryTree.NO_PARENT ? null : parentId, tree.value(slot), sum, nodes.size()));
+            }
+            return nodes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Item addFirstItem(long treeId, Integer value) {
+        requireDefaultTree(treeId);
+        lockForWrite();
+        try {
+            if (tree.size() != 0) {
+                throw new FirstItemExistsException();
+            }
+            int slot = tree.add(itemIdAllocator.next(), InMemoryTree.NO_PARENT, value);
+            insertBehind(slot);
+            changeBehind(ItemChange.Type.ADD, slot);
+            return toItem(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Item addItem(Integer value, Long parentId) {
+        lockForWrite();
+        try {
+            requireSlot(parentId);
+            int slot = tree.add(itemIdAllocator.next(), parentId, value);
+            insertBehind(slot);
+            changeBehind(ItemChange.Type.ADD, slot);
+            return toItem(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeItem(Long id) {
+        lockForWrite();
+        try {
+            int slot = requireSlot(id);
+            String path = tree.path(slot);
+            changeBehind(ItemChange.Type.REMOVE, slot);
+            tree.remove(id);
+            writeBehind.remove(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The in-memory tree drops a whole subtree at once, so does the write-behind with set-based statements.
+     */
+    @Override
+    public int removeItemChunk(Long id, int chunkSize) {
+        lockForWrite();
+        try {
+            if (!tree.contains(id)) return 0;
+            String path = tree.path(tree.slotOf(id));
+            changeBehind(ItemChange.Type.REMOVE, tree.slotOf(id));
+            int removed = tree.remove(id);
+            writeBehind.remove(path);
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Item updateItem(Long itemId, Integer value, Long parentId) {
+        lockForWrite();
+        try {
+            int slot = requireSlot(itemId);
+            if (parentId != null) {
+                requireSlot(parentId);
+                if (tree.isAncestorOrSelf(itemId, parentId)) throw new UnprocessableEntityException(itemId, parentId);
+            }
+
+            if (value != null) {
+                int sumDelta = tree.setValue(itemId, value);
+                writeBehind.updateValue(itemId, value, tree.path(slot), sumDelta);
+                changeBehind(ItemChange.Type.UPDATE, slot);
+            }
+            if (parentId != null) {
+                String oldPath = tree.path(slot);
+                int oldSum = tree.sum(slot);
+                int oldLevel = tree.level(slot);
+                tree.move(itemId, parentId);
+                writeBehind.move(Item.DEFAULT_TREE_ID, itemId, parentId, oldPath, tree.path(slot), tree.sum(slot) - oldSum, tree.level(slot) - oldLevel);
+                changeBehind(ItemChange.Type.MOVE, slot);
+            }
+            return toItem(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Item copyItem(Long itemId, Long newParentId) {
+        lockForWrite();
+        try {
+            int[] source = tree.subtree(requireSlot(itemId));
+            requireSlot(newParentId);
+            long nextId = itemIdAllocator.reserve(source.length);
+            LongIntMap copies = new LongIntMap(source.length);
+            for (int slot : source) {
+                long parentId = slot == source[0] ? newParentId : tree.id(copies.get(tree.parentId(slot)));
+                int copy = tree.add(nextId++, parentId, tree.value(slot));
+                copies.put(tree.id(slot), copy);
+                insertBehind(copy);
+            }
+            changeBehind(ItemChange.Type.COPY, copies.get(itemId));
+            return toItem(copies.get(itemId));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies operations one by one under a single write lock, so no reader sees the batch half applied. Sums are
+     * already maintained per subtree in memory, so there is nothing to coalesce. Unlike the database batch it is
+     * not atomic: operations applied before a failing one stay applied.
+     */
+    @Override
+    public List<Long> applyBatch(long treeId, List<BatchOperation> operations) {
+        requireDefaultTree(treeId);
+        lockForWrite();
+        try {
+            Map<String, Long> refs = new HashMap<>();
+            List<Long> ids = new ArrayList<>(operations.size());
+            for (BatchOperation operation : operations) {
+                Long itemId = resolve(refs, operation.getItemId(), operation.getItemRef());
+                Long parentId = resolve(refs, operation.getParentId(), operation.getParentRef());
+                if (operation.getType() == BatchOperation.Type.ADD) {
+                    if (operation.getValue() == null) throw new UnprocessableEntityException(operation.getType(), operation.getValue());
+                    itemId = (parentId == null ? addFirstItem(treeId, operation.getValue()) : addItem(operation.getValue(), parentId)).getId();
+                    if (operation.getRef() != null) refs.put(operation.getRef(), itemId);
+                } else if (itemId == null) {
+                    throw new UnprocessableEntityException(operation.getType(), operation.getItemId(), operation.getItemRef());
+                } else if (operation.getType() == BatchOperation.Type.UPDATE) {
+                    updateItem(itemId, operation.getValue(), parentId);
+                } else {
+                    removeItem(itemId);
+                }
+                ids.add(itemId);
+            }
+            return ids;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes pending writes and streams the tree from the database, so the export does not hold the lock.
+     */
+    @Override
+    public void exportItems(long treeId, ItemRecordFormat format, OutputStream out) throws IOException {
+        requireDefaultTree(treeId);
+        writeBehind.flush();
+        super.exportItems(treeId, format, out);
+    }
+
+    /**
+     * Flushes pending writes and streams the tree from the database, so a slow client does not hold the lock.
+     */
+    @Override
+    public void streamItems(long treeId, OutputStream out) throws IOException {
+        requireDefaultTree(treeId);
+        writeBehind.flush();
+        super.streamItems(treeId, out);
+    }
+
+    /**
+     * Adds records to the tree as they are read. Unlike the database import it is not atomic: items read before
+     * a malformed record stay in the tree.
+     */
+    @Override
+    public long importItems(long treeId, ItemRecordFormat format, InputStream in, @Nullable Long parentId) throws IOException {
+        requireDefaultTree(treeId);
+        ItemRecordFormat.Reader reader = format.reader(in);
+        lockForWrite();
+        try {
+            if (parentId == null && tree.size() != 0) {
+                throw new FirstItemExistsException();
+            }
+            if (parentId != null) requireSlot(parentId);
+
+            Deque<long[]> ancestors = new ArrayDeque<>();
+            long nextId = 0;
+            long count = 0;
+            ItemRecord record;
+            while ((record = reader.read()) != null) {
+                while (!ancestors.isEmpty() && (record.getParentId() == null || ancestors.peek()[0] != record.getParentId())) {
+                    ancestors.pop();
+                }
+                long[] parent = ancestors.peek();
+                if (parent == null && (record.getParentId() != null || (parentId == null && count > 0))) {
+                    throw new UnprocessableEntityException(record.getId(), record.getParentId());
+                }
+
+                if (count % WRITE_BATCH_SIZE == 0) {
+                    writeBehind.awaitCapacity();
+                    nextId = itemIdAllocator.reserve(WRITE_BATCH_SIZE);
+                }
+                long id = nextId++;
+                int slot = tree.add(id, parent != null ? parent[1] : parentId != null ? parentId : InMemoryTree.NO_PARENT, record.getValue());
+                insertBehind(slot);
+                if (parent == null) changeBehind(ItemChange.Type.IMPORT, slot);
+                ancestors.push(new long[]{record.getId(), id});
+                count++;
+            }
+            return count;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param file - snapshot file
+     * @return tree read from the snapshot with newer changes replayed or null if the snapshot cannot be used
+     */
+    @Nullable
+    private InMemoryTree loadSnapshot(Path file) {
+        if (!Files.exists(file)) return null;
+        try {
+            TreeSnapshot snapshot = TreeSnapshot.read(file);
+            InMemoryTree loaded = snapshot.getTree();
+            long changeSeq = snapshot.getChangeSeq();
+            int replayed = 0;
+            List<ItemChange> changes;
+            while (!(changes = itemChangeLog.findSince(Item.DEFAULT_TREE_ID, changeSeq, ItemChangeLog.MAX_CHANGES_LIMIT)).isEmpty()) {
+                for (ItemChange change : changes) {
+                    if (!replay(loaded, change)) {
+                        LOGGER.info("Snapshot {} is behind a {} change, loading items table", file, change.getType());
+                        return null;
+                    }
+                    changeSeq = change.getSeq();
+                    replayed++;
+                }
+            }
+            if (loaded.size() != itemsRepository.countByTreeId(Item.DEFAULT_TREE_ID)) {
+                LOGGER.warn("Snapshot {} does not match items table, loading items table", file);
+                return null;
+            }
+            snapshotSeq = snapshot.getChangeSeq();
+            LOGGER.info("Loaded {} items from snapshot {} and {} newer changes", loaded.size(), file, replayed);
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Snapshot {} cannot be used, loading items table", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param tree   - tree to apply the change to
+     * @param change - logged change
+     * @return false if the change inserts a subtree, which the log does not hold
+     */
+    private static boolean replay(InMemoryTree tree, ItemChange change) {
+        switch (change.getType()) {
+            case ADD:
+                tree.add(change.getItemId(), change.getParentId() == null ? InMemoryTree.NO_PARENT : change.getParentId(), change.getValue());
+                return true;
+            case UPDATE:
+                tree.setValue(change.getItemId(), change.getValue());
+                return true;
+            case MOVE:
+                tree.move(change.getItemId(), change.getParentId());
+                return true;
+            case REMOVE:
+                tree.remove(change.getItemId());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return default tree rebuilt from a single scan of the items table
+     */
+    private InMemoryTree loadTable() {
+        InMemoryTree loaded = new InMemoryTree(1024);
+        long[][] parentIds = {new long[1024]};
+        itemNodesRepository.forEachById(Item.DEFAULT_TREE_ID, record -> {
+            int slot = loaded.putUnlinked(record.getId(), record.getValue(), record.getSum(), record.getLevel());
+            if (slot == parentIds[0].length) parentIds[0] = Arrays.copyOf(parentIds[0], slot * 2);
+            parentIds[0][slot] = record.getParentId() == null ? InMemoryTree.NO_PARENT : record.getParentId();
+        });
+        loaded.link(parentIds[0]);
+        return loaded;
+    }
+
+    /**
+     * @param slot - slot of item added to the tree
+     */
+    private void insertBehind(int slot) {
+        long parentId = tree.parentId(slot);
+        writeBehind.insert(Item.DEFAULT_TREE_ID, tree.id(slot), parentId == InMemoryTree.NO_PARENT ? null : parentId,
+                tree.value(slot), tree.sum(slot), tree.level(slot), tree.path(slot));
+    }
+
+    /**
+     * Logs the change and counts it in the version of the tree, every write logs at least one change.
+     *
+     * @param type - type of change
+     * @param slot - slot of changed item, in its state after the change
+     */
+    private void changeBehind(ItemChange.Type type, int slot) {
+        version++;
+        long parentId = tree.parentId(slot);
+        writeBehind.change(type, Item.DEFAULT_TREE_ID, tree.id(slot), parentId == InMemoryTree.NO_PARENT ? null : parentId, tree.value(slot), tree.sum(slot));
+    }
+
+    /**
+     * Waits for room in the write-behind queue before the write lock is taken, so a full queue rejects a write
+     * before the tree changes and without blocking readers. Writes nested in a batch already hold the lock.
+     */
+    private void lockForWrite() {
+        if (!lock.isWriteLockedByCurrentThread()) writeBehind.awaitCapacity();
+        lock.writeLock().lock();
+    }
+
+    /**
+     * Children of an item are not part of write responses, so only the item itself is built while the write lock
+     * is held.
+     *
+     * @param slot - slot of item
+     * @return detached item without children
+     */
+    private Item toItem(int slot) {
+        long parentId = tree.parentId(slot);
+        Item item = new Item();
+        item.setId(tree.id(slot));
+        item.setParentId(parentId == InMemoryTree.NO_PARENT ? null : parentId);
+        item.setValue(tree.value(slot));
+        item.setSum(tree.sum(slot));
+        item.setLevel(tree.level(slot));
+        return item;
+    }
+
+    /**
+     * @param rootSlot - slot of subtree root
+     * @param depth    - number of levels of children to include
+     * @param offset   - number of children skipped in every children list
+     * @param limit    - max number of children in every children list
+     * @return node with requested slice of its subtree
+     */
+    private ItemNode toTree(int rootSlot, int depth, int offset, int limit) {
+        ItemNode root = toNode(rootSlot, tree.sum(rootSlot), tree.level(rootSlot));
+        List<ItemNode> nodes = Collections.singletonList(root);
+        List<Integer> slots = Collections.singletonList(rootSlot);
+        long size = 1;
+        for (int level = 0; level < depth && !nodes.isEmpty(); level++) {
+            for (int slot : slots) {
+                size += Math.max(0, Math.min(limit, tree.childCount(slot) - offset));
+            }
+            checkTreeSize(size, depth, offset, limit);
+            List<ItemNode> childNodes = new ArrayList<>();
+            List<Integer> childSlots = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                int slot = slots.get(i);
+                for (int index = offset; index < tree.childCount(slot) && index < offset + limit; index++) {
+                    int child = tree.child(slot, index);
+                    ItemNode childNode = toNode(child, nodes.get(i).getSum() + tree.value(child), nodes.get(i).getLevel() + 1);
+                    nodes.get(i).getChildren().add(childNode);
+                    childNodes.add(childNode);
+                    childSlots.add(child);
+                }
+            }
+            nodes = childNodes;
+            slots = childSlots;
+        }
+        return root;
+    }
+
+    /**
+     * @param slot  - slot of item
+     * @param sum   - resolved sum of item
+     * @param level - resolved level of item
+     * @return node without children
+     */
+    private ItemNode toNode(int slot, int sum, int level) {
+        long parentId = tree.parentId(slot);
+        ItemNode node = new ItemNode(tree.id(slot), parentId == InMemoryTree.NO_PARENT ? null : parentId,
+                tree.value(slot), sum, level);
+        node.setChildCount(tree.childCount(slot));
+        return node;
+    }
+
+    /**
+     * @param treeId - id of requested tree
+     * @throws UnprocessableEntityException if it is not the default tree, the only one held in memory
+     */
+    private static void requireDefaultTree(long treeId) {
+        if (treeId != Item.DEFAULT_TREE_ID) throw new UnprocessableEntityException(treeId);
+    }
+
+    /**
+     * @param id - id of item
+     * @return slot of item
+     * @throws ItemNotFoundException if item for given id does not exist
+     */
+    private int requireSlot(Long id) {
+        int slot = tree.slotOf(id);
+        if (slot == InMemoryTree.NO_SLOT) throw new ItemNotFoundException(id);
+        return slot;
+    }
+
+}
@@ -0,0 +1,520 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.springframework.lang.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+
+/**
+ * Whole tree held in parallel primitive arrays indexed by slot, with children of every slot kept as an
+ * array of slots ordered by id. Items are looked up by id through a primitive hash map. Subtree walks are
+ * iterative, so depth of the tree is limited only by memory. Sums and levels are stored as resolved for one epoch:
+ * moving a subtree or changing a value starts a new epoch instead of shifting the whole subtree, and reads resolve
+ * an item from its closest ancestor resolved in the current epoch and store what they resolved on the way, so only
+ * the first read of a branch after a write walks up. Every stored sum and level is a single word stamped with its
+ * epoch, so concurrent reads may store them. Not thread safe for writes.
+ */
+public class InMemoryTree {
+
+    public static final long NO_PARENT = -1;
+    static final int NO_SLOT = -1;
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private long[] ids;
+    private int[] parents;
+    private int[] values;
+    // sum and level of every slot in the low half, valid if the high half is the current epoch, never 0
+    private AtomicLongArray sums;
+    private AtomicLongArray levels;
+    private int epoch = 1;
+    private int[][] children;
+    private int[] childCounts;
+    private int size;
+
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    private final LongIntMap slotsById;
+    private int rootSlot = NO_SLOT;
+
+    public InMemoryTree(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        ids = new long[capacity];
+        parents = new int[capacity];
+        values = new int[capacity];
+        sums = new AtomicLongArray(capacity);
+        levels = new AtomicLongArray(capacity);
+        children = new int[capacity][];
+        childCounts = new int[capacity];
+        slotsById = new LongIntMap(capacity);
+    }
+
+    /**
+     * Builds the tree from columns of items in pre-order, as stored by {@link TreeSnapshot}, so slot of every item
+     * is its index and children lists are taken as they are, without sorting.
+     *
+     * @param ids           - id of every item
+     * @param parentIndexes - index of parent of every item, {@link #NO_SLOT} for first item
+     * @param values        - value of every item
+     * @param sums          - sum of every item
+     * @param levels        - level of every item
+     * @param childOffsets  - offset of children of every item in childIndexes, followed by number of all children
+     * @param childIndexes  - indexes of children of all items, ordered by id for every item
+     * @return tree of given items
+     */
+    static InMemoryTree ofColumns(long[] ids, int[] parentIndexes, int[] values, int[] sums, int[] levels,
+                                  int[] childOffsets, int[] childIndexes) {
+        InMemoryTree tree = new InMemoryTree(ids.length);
+        System.arraycopy(ids, 0, tree.ids, 0, ids.length);
+        System.arraycopy(parentIndexes, 0, tree.parents, 0, ids.length);
+        System.arraycopy(values, 0, tree.values, 0, ids.length);
+        for (int slot = 0; slot < ids.length; slot++) {
+            tree.sums.set(slot, tree.stamp(sums[slot]));
+            tree.levels.set(slot, tree.stamp(levels[slot]));
+            int childCount = childOffsets[slot + 1] - childOffsets[slot];
+            tree.children[slot] = childCount == 0 ? NO_CHILDREN : Arrays.copyOfRange(childIndexes, childOffsets[slot], childOffsets[slot + 1]);
+            tree.childCounts[slot] = childCount;
+            tree.slotsById.put(ids[slot], slot);
+        }
+        tree.size = ids.length;
+        tree.rootSlot = ids.length == 0 ? NO_SLOT : 0;
+        return tree;
+    }
+
+    /**
+     * Stores item without linking it to its parent, used while loading rows in arbitrary order.
+     * {@link #link(long[])} has to be called once all items are stored.
+     *
+     * @param id    - id of item
+     * @param value - value of item
+     * @param sum   - sum of item
+     * @param level - level of item
+     * @return slot of item
+     */
+    int putUnlinked(long id, int value, int sum, int level) {
+        int slot = allocate(id);
+        values[slot] = value;
+        sums.set(slot, stamp(sum));
+        levels.set(slot, stamp(level));
+        return slot;
+    }
+
+    /**
+     * @param parentIds - parent id of every slot stored with {@link #putUnlinked}, {@link #NO_PARENT} for first item
+     */
+    void link(long[] parentIds) {
+        for (int slot = 0; slot < size; slot++) {
+            int parent = parentIds[slot] == NO_PARENT ? NO_SLOT : slotsById.get(parentIds[slot]);
+            parents[slot] = parent;
+            if (parent == NO_SLOT) {
+                rootSlot = slot;
+            } else {
+                insertChild(parent, slot);
+            }
+        }
+    }
+
+    /**
+     * @param id       - id of new item
+     * @param parentId - id of parent or {@link #NO_PARENT} for first item
+     * @param value    - value of new item
+     * @return slot of new item
+     */
+    public int add(long id, long parentId, int value) {
+        int parent = parentId == NO_PARENT ? NO_SLOT : requireSlot(parentId);
+        int slot = allocate(id);
+        parents[slot] = parent;
+        values[slot] = value;
+        if (parent == NO_SLOT) {
+            sums.set(slot, stamp(value));
+            levels.set(slot, stamp(0));
+            rootSlot = slot;
+        } else {
+            sums.set(slot, stamp(sum(parent) + value));
+            levels.set(slot, stamp(level(parent) + 1));
+            insertChild(parent, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Changes value of item in constant time, sums of its subtree are resolved again by later reads.
+     *
+     * @param id    - id of item
+     * @param value - new value
+     * @return difference between new and old value
+     */
+    public int setValue(long id, int value) {
+        int slot = requireSlot(id);
+        int delta = value - values[slot];
+        values[slot] = value;
+        if (delta != 0) nextEpoch();
+        return delta;
+    }
+
+    /**
+     * Moves item with its subtree under new parent, only the item is relinked, sums and levels of the subtree
+     * are resolved again by later reads.
+     *
+     * @param id          - id of item
+     * @param newParentId - id of new parent
+     */
+    public void move(long id, long newParentId) {
+        int slot = requireSlot(id);
+        int newParent = requireSlot(newParentId);
+        removeChild(parents[slot], slot);
+        parents[slot] = newParent;
+        insertChild(newParent, slot);
+        nextEpoch();
+    }
+
+    /**
+     * Removes item with its whole subtree.
+     *
+     * @param id - id of item
+     * @return number of removed items
+     */
+    public int remove(long id) {
+        int slot = requireSlot(id);
+        if (parents[slot] == NO_SLOT) {
+            rootSlot = NO_SLOT;
+        } else {
+            removeChild(parents[slot], slot);
+        }
+        int[] subtree = subtree(slot);
+        for (int removed : subtree) {
+            slotsById.remove(ids[removed]);
+            children[removed] = null;
+            childCounts[removed] = 0;
+            release(removed);
+        }
+        return subtree.length;
+    }
+
+    /**
+     * @param ancestorId - id of potential ancestor
+     * @param id         - id of item
+     * @return true if item for ancestorId is the item itself or one of its ancestors
+     */
+    public boolean isAncestorOrSelf(long ancestorId, long id) {
+        for (int slot = requireSlot(id); slot != NO_SLOT; slot = parents[slot]) {
+            if (ids[slot] == ancestorId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param slot - slot of subtree root
+     * @return slots of subtree root and all its descendants, every parent before its children
+     */
+    public int[] subtree(int slot) {
+        int[] result = new int[16];
+        int count = 0;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = slot;
+        while (top > 0) {
+            int current = stack[--top];
+            if (count == result.length) result = Arrays.copyOf(result, count * 2);
+            result[count++] = current;
+            int childCount = childCounts[current];
+            if (top + childCount > stack.length) stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + childCount));
+            for (int i = childCount - 1; i >= 0; i--) {
+                stack[top++] = children[current][i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @param slot - slot of item
+     * @return materialized path of item, as stored in the items table
+     */
+    public String path(int slot) {
+        int depth = 0;
+        for (int current = slot; current != NO_SLOT; current = parents[current]) {
+            depth++;
+        }
+        long[] chain = new long[depth];
+        for (int current = slot; current != NO_SLOT; current = parents[current]) {
+            chain[--depth] = ids[current];
+        }
+        StringBuilder path = new StringBuilder(ItemPath.SEPARATOR);
+        for (long id : chain) {
+            path.append(id).append(ItemPath.SEPARATOR);
+        }
+        return path.toString();
+    }
+
+    public int slotOf(long id) {
+        return slotsById.get(id);
+    }
+
+    public boolean contains(long id) {
+        return slotsById.get(id) != LongIntMap.MISSING;
+    }
+
+    public int rootSlot() {
+        return rootSlot;
+    }
+
+    public long id(int slot) {
+        return ids[slot];
+    }
+
+    public long parentId(int slot) {
+        return parents[slot] == NO_SLOT ? NO_PARENT : ids[parents[slot]];
+    }
+
+    public int value(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @param slot - slot of item
+     * @return sum of item, resolved from its closest resolved ancestor and stored for the item and the ancestors
+     * below it
+     */
+    public int sum(int slot) {
+        long stored = sums.get(slot);
+        if (isCurrent(stored)) return (int) stored;
+        int sum = 0;
+        int resolved = slot;
+        for (; resolved != NO_SLOT; resolved = parents[resolved]) {
+            stored = sums.get(resolved);
+            if (isCurrent(stored)) {
+                sum += (int) stored;
+                break;
+            }
+            sum += values[resolved];
+        }
+        int below = sum;
+        for (int current = slot; current != resolved; current = parents[current]) {
+            sums.lazySet(current, stamp(below));
+            below -= values[current];
+        }
+        return sum;
+    }
+
+    /**
+     * @param slot - slot of item
+     * @return level of item, resolved from its closest resolved ancestor and stored for the item and the ancestors
+     * below it
+     */
+    public int level(int slot) {
+        long stored = levels.get(slot);
+        if (isCurrent(stored)) return (int) stored;
+        int level = -1;
+        int resolved = slot;
+        for (; resolved != NO_SLOT; resolved = parents[resolved]) {
+            stored = levels.get(resolved);
+            if (isCurrent(stored)) {
+                level += (int) stored + 1;
+                break;
+            }
+            level++;
+        }
+        int below = level;
+        for (int current = slot; current != resolved; current = parents[current]) {
+            levels.lazySet(current, stamp(below--));
+        }
+        return level;
+    }
+
+    /**
+     * Resolves sums and levels of a subtree, every item from its parent, so a walk of the subtree costs no more
+     * than the walk from its root up to a resolved ancestor.
+     *
+     * @param subtree - slots of subtree as returned by {@link #subtree(int)}
+     * @param sums    - receives sum of the slot at the same index
+     * @param levels  - receives level of the slot at the same index
+     */
+    public void resolve(int[] subtree, int[] sums, int[] levels) {
+        resolve(subtree, 0, subtree.length, sums, levels);
+    }
+
+    /**
+     * Resolves levels of a range of a subtree. Items whose parent is before the range are resolved from their
+     * ancestors, so ranges of one subtree can be resolved independently, also by concurrent reads.
+     *
+     * @param subtree - slots of subtree as returned by {@link #subtree(int)}
+     * @param from    - index of the first slot of the range
+     * @param to      - index after the last slot of the range
+     * @param levels  - receives level of the slot at the same index
+     */
+    public void resolveLevels(int[] subtree, int from, int to, int[] levels) {
+        resolve(subtree, from, to, null, levels);
+    }
+
+    private void resolve(int[] subtree, int from, int to, @Nullable int[] sums, int[] levels) {
+        int[] open = new int[16];
+        int depth = 0;
+        for (int i = from; i < to; i++) {
+            int slot = subtree[i];
+            while (depth > 0 && subtree[open[depth - 1]] != parents[slot]) {
+                depth--;
+            }
+            if (depth == 0) {
+                if (sums != null) sums[i] = sum(slot);
+                levels[i] = level(slot);
+            } else {
+                if (sums != null) sums[i] = sums[open[depth - 1]] + values[slot];
+                levels[i] = levels[open[depth - 1]] + 1;
+            }
+            if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+            open[depth++] = i;
+        }
+    }
+
+    public int childCount(int slot) {
+        return childCounts[slot];
+    }
+
+    /**
+     * @param slot  - slot of parent
+     * @param index - index of child, children are ordered by id
+     * @return slot of child
+     */
+    public int child(int slot, int index) {
+        return children[slot][index];
+    }
+
+    /**
+     * @param slot - slot of parent
+     * @param id   - id to look for among children, it does not have to be a child
+     * @return index of the first child with id greater than given one, child count if there is none
+     */
+    public int childIndexAfter(int slot, long id) {
+        int low = 0;
+        int high = childCounts[slot];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ids[children[slot][middle]] <= id) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    public int size() {
+        return slotsById.size();
+    }
+
+    /**
+     * @return bytes held by all arrays of the tree
+     */
+    public long estimatedBytes() {
+        long bytes = (long) ids.length * (3 * Long.BYTES + 3 * Integer.BYTES + 8) + freeSlots.length * Integer.BYTES;
+        for (int slot = 0; slot < size; slot++) {
+            if (children[slot] != null && children[slot] != NO_CHILDREN) {
+                bytes += 16 + (long) children[slot].length * Integer.BYTES;
+            }
+        }
+        return bytes + slotsById.estimatedBytes();
+    }
+
+    /**
+     * Invalidates resolved sums and levels of all items at once.
+     */
+    private void nextEpoch() {
+        if (epoch == Integer.MAX_VALUE) {
+            sums = new AtomicLongArray(ids.length);
+            levels = new AtomicLongArray(ids.length);
+            epoch = 1;
+        } else {
+            epoch++;
+        }
+    }
+
+    /**
+     * @param value - resolved sum or level
+     * @return value stamped with the current epoch
+     */
+    private long stamp(int value) {
+        return (long) epoch << 32 | value & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param stored - stored sum or level
+     * @return true if it has been resolved in the current epoch
+     */
+    private boolean isCurrent(long stored) {
+        return (int) (stored >>> 32) == epoch;
+    }
+
+    private int requireSlot(long id) {
+        int slot = slotsById.get(id);
+        if (slot == LongIntMap.MISSING) throw new IllegalArgumentException("No item for id " + id);
+        return slot;
+    }
+
+    private int allocate(long id) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (size == ids.length) grow();
+            slot = size++;
+        }
+        ids[slot] = id;
+        children[slot] = NO_CHILDREN;
+        childCounts[slot] = 0;
+        slotsById.put(id, slot);
+        return slot;
+    }
+
+    private void release(int slot) {
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void grow() {
+        int capacity = ids.length + (ids.length >> 1);
+        ids = Arrays.copyOf(ids, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        values = Arrays.copyOf(values, capacity);
+        sums = copyOf(sums, capacity);
+        levels = copyOf(levels, capacity);
+        children = Arrays.copyOf(children, capacity);
+        childCounts = Arrays.copyOf(childCounts, capacity);
+    }
+
+    private static AtomicLongArray copyOf(AtomicLongArray array, int capacity) {
+        AtomicLongArray copy = new AtomicLongArray(capacity);
+        for (int i = 0; i < array.length(); i++) {
+            copy.set(i, array.get(i));
+        }
+        return copy;
+    }
+
+    private void insertChild(int parent, int child) {
+        int count = childCounts[parent];
+        int[] siblings = children[parent];
+        if (count == siblings.length) {
+            siblings = Arrays.copyOf(siblings, Math.max(2, count * 2));
+            children[parent] = siblings;
+        }
+        int index = count;
+        while (index > 0 && ids[siblings[index - 1]] > ids[child]) {
+            siblings[index] = siblings[index - 1];
+            index--;
+        }
+        siblings[index] = child;
+        childCounts[parent] = count + 1;
+    }
+
+    private void removeChild(int parent, int child) {
+        int count = childCounts[parent];
+        int[] siblings = children[parent];
+        for (int i = 0; i < count; i++) {
+            if (siblings[i] == child) {
+                System.arraycopy(siblings, i + 1, siblings, i, count - i - 1);
+                childCounts[parent] = count - 1;
+                return;
+            }
+        }
+    }
+
+}
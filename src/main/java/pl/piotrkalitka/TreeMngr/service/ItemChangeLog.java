@@ -0,0 +1,241 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import pl.piotrkalitka.TreeMngr.exception.ChangesExpiredException;
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+import pl.piotrkalitka.TreeMngr.repository.ItemChangesRepository;
+
+/**
+ * Feeds of changes of trees, so mirrors of a tree can apply deltas instead of fetching the whole tree again.
+ * Every tree has its own feed, numbered and pruned independently. Changes recorded by a write transaction are
+ * appended to the log right before it commits, as its last statements, and are discarded if it rolls back. Pollers
+ * waiting for changes of a tree are woken up after every commit that logged any for it, and by a periodic check of
+ * the last changes of all trees for commits of other instances sharing the database.
+ */
+@Component
+public class ItemChangeLog {
+
+    public static final int MAX_CHANGES_LIMIT = 1000;
+    public static final long MAX_POLL_TIMEOUT_MS = 60000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ItemChangeLog.class);
+
+    private final Set<Poll> polls = ConcurrentHashMap.newKeySet();
+    // trees whose polls are to be checked by the next wake up, guarded by itself
+    private final Set<Long> wakeUpTreeIds = new HashSet<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "change-feed"));
+    private ItemChangesRepository itemChangesRepository;
+    private long retention;
+
+    @Autowired
+    public ItemChangeLog(ItemChangesRepository itemChangesRepository, @Value("${treemngr.changes.retention:100000}") long retention) {
+        this.itemChangesRepository = itemChangesRepository;
+        this.retention = retention;
+    }
+
+    /**
+     * @param type     - type of change
+     * @param treeId   - id of tree of changed item
+     * @param itemId   - id of changed item
+     * @param parentId - id of parent of item after the change
+     * @param value    - value of item after the change
+     * @param sum      - sum of item after the change
+     * @throws IllegalStateException if there is no transaction to log the change with
+     */
+    public void record(ItemChange.Type type, long treeId, Long itemId, @Nullable Long parentId, Integer value, Integer sum) {
+        pending().add(new ItemChange(type, treeId, itemId, parentId, value, sum));
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @return sequence number of the last committed change of the tree, changes after it are not reflected by a
+     * tree read now
+     */
+    public long lastSeq(long treeId) {
+        return itemChangesRepository.findLastSeq(treeId);
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @param since  - sequence number of the last change of the tree already applied
+     * @param limit  - max number of returned changes
+     * @return future completed with changes of the tree after given one as soon as there are any
+     * @throws ChangesExpiredException      if changes right after given one are no longer kept
+     * @throws UnprocessableEntityException if limit is out of range
+     */
+    public CompletableFuture<List<ItemChange>> poll(long treeId, long since, int limit) {
+        if (limit < 1 || limit > MAX_CHANGES_LIMIT) throw new UnprocessableEntityException(since, limit);
+        Poll poll = new Poll(treeId, since, limit);
+        polls.add(poll);
+        poll.future.whenComplete((changes, e) -> polls.remove(poll));
+        try {
+            poll.check();
+        } catch (RuntimeException e) {
+            poll.future.cancel(false);
+            throw e;
+        }
+        return poll.future;
+    }
+
+    /**
+     * @param treeId - id of tree
+     * @param since  - sequence number of the last change of the tree already applied
+     * @param limit  - max number of returned changes
+     * @return changes of the tree after given one, empty if there are none yet
+     * @throws ChangesExpiredException if changes right after given one are no longer kept
+     */
+    public List<ItemChange> findSince(long treeId, long since, int limit) {
+        List<ItemChange> changes = itemChangesRepository.findSince(treeId, since, limit);
+        if (!changes.isEmpty() && changes.get(0).getSeq() > since + 1) {
+            // a gap is left by a transaction that failed to commit, unless the log has been pruned past it
+            Long firstSeq = itemChangesRepository.findFirstSeq(treeId);
+            if (firstSeq != null && firstSeq > since + 1) throw new ChangesExpiredException(since, firstSeq);
+        }
+        return changes;
+    }
+
+    /**
+     * Removes changes of every tree older than the kept number of its latest ones, pollers behind them have to read
+     * the tree again. Busy trees do not push changes of quiet ones out of the log.
+     */
+    @Scheduled(fixedDelayString = "${treemngr.changes.prune-interval-ms:60000}")
+    public void prune() {
+        for (Map.Entry<Long, Long> lastSeq : itemChangesRepository.findLastSeqs().entrySet()) {
+            if (lastSeq.getValue() < retention) continue;
+            int removed = itemChangesRepository.deleteBefore(lastSeq.getKey(), lastSeq.getValue() - retention + 1);
+            if (removed > 0) LOGGER.debug("Pruned {} changes of tree {} from the change log", removed, lastSeq.getKey());
+        }
+    }
+
+    /**
+     * Wakes up polls of trees with changes after the ones they wait for, committed by any instance. One statement
+     * reads the last change of every tree, only polls of trees with newer changes read them.
+     */
+    @Scheduled(fixedDelayString = "${treemngr.changes.poll-check-interval-ms:500}")
+    public void checkPolls() {
+        if (polls.isEmpty()) return;
+        Map<Long, Long> lastSeqs = itemChangesRepository.findLastSeqs();
+        Set<Long> treeIds = polls.stream()
+                .filter(poll -> lastSeqs.getOrDefault(poll.treeId, 0L) > poll.since)
+                .map(poll -> poll.treeId)
+                .collect(Collectors.toSet());
+        if (!treeIds.isEmpty()) wakeUpPolls(treeIds);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Checks waiting polls of given trees once more, in the background, as soon as the previous check is done.
+     *
+     * @param treeIds - ids of trees with newly committed changes
+     */
+    private void wakeUpPolls(Set<Long> treeIds) {
+        if (polls.isEmpty()) return;
+        synchronized (wakeUpTreeIds) {
+            boolean scheduled = !wakeUpTreeIds.isEmpty();
+            wakeUpTreeIds.addAll(treeIds);
+            if (scheduled) return;
+        }
+        executor.execute(() -> {
+            Set<Long> woken;
+            synchronized (wakeUpTreeIds) {
+                woken = new HashSet<>(wakeUpTreeIds);
+                wakeUpTreeIds.clear();
+            }
+            for (Poll poll : polls) {
+                if (!woken.contains(poll.treeId)) continue;
+                try {
+                    poll.check();
+                } catch (RuntimeException e) {
+                    poll.future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return changes recorded by the current transaction, appended to the log right before it commits
+     */
+    @SuppressWarnings("unchecked")
+    private List<ItemChange> pending() {
+        List<ItemChange> pending = (List<ItemChange>) TransactionSynchronizationManager.getResource(this);
+        if (pending != null) return pending;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Changes can be recorded by write transactions only");
+        }
+
+        List<ItemChange> changes = new ArrayList<>();
+        TransactionSynchronizationManager.bindResource(this, changes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                // sequence rows are locked in the order of tree ids, so transactions writing to several trees
+                // cannot wait for each other's rows
+                Map<Long, List<ItemChange>> byTree = changes.stream()
+                        .collect(Collectors.groupingBy(ItemChange::getTreeId, TreeMap::new, Collectors.toList()));
+                byTree.forEach(itemChangesRepository::append);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResource(ItemChangeLog.this);
+                if (status == STATUS_COMMITTED && !changes.isEmpty()) {
+                    wakeUpPolls(changes.stream().map(ItemChange::getTreeId).collect(Collectors.toSet()));
+                }
+            }
+        });
+        return changes;
+    }
+
+    /**
+     * Poll waiting for changes of a tree after a sequence number.
+     */
+    private class Poll {
+
+        private final CompletableFuture<List<ItemChange>> future = new CompletableFuture<>();
+        private final long treeId;
+        private final long since;
+        private final int limit;
+
+        private Poll(long treeId, long since, int limit) {
+            this.treeId = treeId;
+            this.since = since;
+            this.limit = limit;
+        }
+
+        private void check() {
+            if (future.isDone()) return;
+            List<ItemChange> changes = findSince(treeId, since, limit);
+            if (!changes.isEmpty()) future.complete(changes);
+        }
+
+    }
+
+}
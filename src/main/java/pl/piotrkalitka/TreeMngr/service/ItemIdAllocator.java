@@ -0,0 +1,76 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import pl.piotrkalitka.TreeMngr.model.IdSequence;
+import pl.piotrkalitka.TreeMngr.repository.IdSequencesRepository;
+import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
+
+/**
+ * Hands out item ids before items are inserted, so paths can be written with the row and whole subtrees
+ * can be inserted in JDBC batches. Ids are reserved from the id_sequences table in blocks, in their own transaction.
+ */
+@Component
+public class ItemIdAllocator {
+
+    static final String SEQUENCE = "items";
+
+    private IdSequencesRepository idSequencesRepository;
+    private ItemsRepository itemsRepository;
+    private TransactionTemplate transactionTemplate;
+    private int blockSize;
+    private long next;
+    private long limit;
+
+    @Autowired
+    public ItemIdAllocator(IdSequencesRepository idSequencesRepository, ItemsRepository itemsRepository,
+                           PlatformTransactionManager transactionManager, @Value("${treemngr.ids.block-size:100}") int blockSize) {
+        this.idSequencesRepository = idSequencesRepository;
+        this.itemsRepository = itemsRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return next free id
+     */
+    public synchronized long next() {
+        if (next == limit) {
+            next = reserve(blockSize);
+            limit = next + blockSize;
+        }
+        return next++;
+    }
+
+    /**
+     * @param count - number of ids to reserve
+     * @return first of given number of consecutive free ids
+     */
+    public long reserve(int count) {
+        try {
+            return reserveInTransaction(count);
+        } catch (DataIntegrityViolationException e) {
+            // sequence row was created concurrently, it can be locked now
+            return reserveInTransaction(count);
+        }
+    }
+
+    private long reserveInTransaction(int count) {
+        return transactionTemplate.execute(status -> {
+            IdSequence sequence = idSequencesRepository.findForUpdate(SEQUENCE)
+                    .orElseGet(() -> new IdSequence(SEQUENCE, itemsRepository.findMaxId() + 1));
+            long first = sequence.getNextValue();
+            sequence.setNextValue(first + count);
+            idSequencesRepository.saveAndFlush(sequence);
+            return first;
+        });
+    }
+
+}
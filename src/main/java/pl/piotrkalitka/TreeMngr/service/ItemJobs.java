@@ -0,0 +1,263 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.exception.JobNotFoundException;
+import pl.piotrkalitka.TreeMngr.exception.TooManyJobsException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemJob;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+
+/**
+ * Runs large subtree writes in the background on a fixed number of threads, so they do not hold request threads.
+ * A job waits for all jobs submitted before it that touch an overlapping subtree, so jobs on the same subtree are
+ * applied in the order they were submitted while jobs on disjoint subtrees run in parallel. Subtrees are compared by
+ * ids of their roots and of the ancestors of their roots, including the ancestors they get from queued moves, since
+ * paths read at submission are stale once such a move runs. Removal runs in chunks of the deepest items, reports
+ * progress after every chunk and stops at the next chunk once cancelled. Copies and moves run in one transaction, so
+ * they can be cancelled only until they start.
+ */
+@Component
+public class ItemJobs {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ItemJobs.class);
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, ItemJob> jobs = new ConcurrentHashMap<>();
+    // unfinished jobs in the order of submission and ids of finished ones, oldest first, both guarded by this
+    private final List<Pending> pending = new ArrayList<>();
+    private final Deque<Long> finished = new ArrayDeque<>();
+    private final ExecutorService executor;
+    private ItemsService itemsService;
+    private int maxPending;
+    private int retention;
+    private int chunkSize;
+
+    @Autowired
+    public ItemJobs(ItemsService itemsService, @Value("${treemngr.jobs.threads:4}") int threads,
+                    @Value("${treemngr.jobs.max-pending:100}") int maxPending, @Value("${treemngr.jobs.retention:1000}") int retention,
+                    @Value("${treemngr.remove.chunk-size:1000}") int chunkSize) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> new Thread(runnable, "item-job-" + threadNumber.incrementAndGet()));
+        this.itemsService = itemsService;
+        this.maxPending = maxPending;
+        this.retention = retention;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param id - id of item that has to be removed with its subtree
+     * @return queued job
+     * @throws ItemNotFoundException if item for given id does not exist
+     * @throws TooManyJobsException  if there are too many unfinished jobs
+     */
+    public ItemJob removeItem(Long id) {
+        ItemJob job = new ItemJob(nextId.incrementAndGet(), ItemJob.Type.REMOVE, id, null);
+        return submit(job, Collections.singletonList(itemsService.getPath(id)), null, () -> {
+            job.setTotal(itemsService.getStats(id).getCount());
+            int chunk;
+            while (!job.isCancelRequested() && (chunk = itemsService.removeItemChunk(id, chunkSize)) > 0) {
+                job.setDone(job.getDone() + chunk);
+            }
+        });
+    }
+
+    /**
+     * @param itemId   - id of item that has to be updated
+     * @param value    - value to update or null to keep it
+     * @param parentId - id of new parent or null to keep it
+     * @return queued job
+     * @throws ItemNotFoundException if item for given itemId or parentId does not exist
+     * @throws TooManyJobsException  if there are too many unfinished jobs
+     */
+    public ItemJob updateItem(Long itemId, @Nullable Integer value, @Nullable Long parentId) {
+        ItemJob job = new ItemJob(nextId.incrementAndGet(), ItemJob.Type.UPDATE, itemId, parentId);
+        List<String> paths = parentId == null
+                ? Collections.singletonList(itemsService.getPath(itemId))
+                : Arrays.asList(itemsService.getPath(itemId), itemsService.getPath(parentId));
+        return submit(job, paths, parentId == null ? null : itemId, () -> {
+            job.setTotal(itemsService.getStats(itemId).getCount());
+            Item item = itemsService.updateItem(itemId, value, parentId);
+            job.setDone(job.getTotal());
+            job.setResultId(item.getId());
+        });
+    }
+
+    /**
+     * @param itemId      - id of item to copy
+     * @param newParentId - id of target item
+     * @return queued job
+     * @throws ItemNotFoundException if item for given itemId or newParentId does not exist
+     * @throws TooManyJobsException  if there are too many unfinished jobs
+     */
+    public ItemJob copyItem(Long itemId, Long newParentId) {
+        ItemJob job = new ItemJob(nextId.incrementAndGet(), ItemJob.Type.COPY, itemId, newParentId);
+        return submit(job, Arrays.asList(itemsService.getPath(itemId), itemsService.getPath(newParentId)), null, () -> {
+            job.setTotal(itemsService.getStats(itemId).getCount());
+            Item copy = itemsService.copyItem(itemId, newParentId);
+            job.setDone(job.getTotal());
+            job.setResultId(copy.getId());
+        });
+    }
+
+    /**
+     * @param id - id of job
+     * @return job for given id, finished jobs are kept until the kept number of newer ones finish
+     * @throws JobNotFoundException if job for given id does not exist
+     */
+    public ItemJob getJob(long id) {
+        ItemJob job = jobs.get(id);
+        if (job == null) throw new JobNotFoundException(id);
+        return job;
+    }
+
+    /**
+     * Cancels a queued job right away and a running removal once its current chunk is removed. A finished job,
+     * or a running copy or move, is not affected.
+     *
+     * @param id - id of job
+     * @return job for given id
+     * @throws JobNotFoundException if job for given id does not exist
+     */
+    public ItemJob cancel(long id) {
+        ItemJob job = getJob(id);
+        synchronized (this) {
+            if (job.isFinished()) return job;
+            job.setCancelRequested(true);
+            if (job.getStatus() == ItemJob.Status.QUEUED) job.setStatus(ItemJob.Status.CANCELLED);
+        }
+        return job;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param job     - job to run
+     * @param paths   - current paths of items which subtrees the job touches
+     * @param movedId - id of item the job moves to another parent, null if it moves none
+     * @param work    - write to run once jobs submitted earlier on overlapping subtrees are finished
+     * @return queued job
+     * @throws TooManyJobsException if there are too many unfinished jobs
+     */
+    private synchronized ItemJob submit(ItemJob job, List<String> paths, @Nullable Long movedId, Runnable work) {
+        if (pending.size() >= maxPending) throw new TooManyJobsException(maxPending);
+        List<Long> itemIds = new ArrayList<>();
+        Set<Long> ancestorIds = new HashSet<>();
+        for (String path : paths) {
+            List<Long> pathIds = ItemPath.ids(path);
+            itemIds.add(pathIds.get(pathIds.size() - 1));
+            ancestorIds.addAll(pathIds);
+        }
+        // an item a queued move takes along ends up below the ancestors of the move target as well
+        for (boolean grown = true; grown; ) {
+            grown = false;
+            for (Pending earlier : pending) {
+                if (earlier.movedId != null && ancestorIds.contains(earlier.movedId)) grown |= ancestorIds.addAll(earlier.ancestorIds);
+            }
+        }
+        List<CompletableFuture<?>> predecessors = new ArrayList<>();
+        for (Pending earlier : pending) {
+            if (earlier.overlaps(itemIds, ancestorIds)) predecessors.add(earlier.future);
+        }
+        CompletableFuture<Void> future = CompletableFuture.allOf(predecessors.toArray(new CompletableFuture<?>[0]))
+                .handleAsync((ignored, e) -> {
+                    run(job, work);
+                    return null;
+                }, executor);
+        pending.add(new Pending(job, itemIds, ancestorIds, movedId, future));
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * @param job  - job to run
+     * @param work - write of job
+     */
+    private void run(ItemJob job, Runnable work) {
+        synchronized (this) {
+            if (job.getStatus() == ItemJob.Status.QUEUED) job.setStatus(ItemJob.Status.RUNNING);
+        }
+        try {
+            if (job.getStatus() == ItemJob.Status.RUNNING) {
+                work.run();
+                job.setStatus(job.isCancelRequested() && job.getType() == ItemJob.Type.REMOVE ? ItemJob.Status.CANCELLED : ItemJob.Status.SUCCEEDED);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Job {} of {} on item {} failed", job.getId(), job.getType(), job.getItemId(), e);
+            job.setError(e.getMessage());
+            job.setStatus(ItemJob.Status.FAILED);
+        } finally {
+            complete(job);
+        }
+    }
+
+    /**
+     * @param job - finished job, forgotten once the kept number of newer jobs finish
+     */
+    private synchronized void complete(ItemJob job) {
+        pending.removeIf(entry -> entry.job == job);
+        finished.add(job.getId());
+        while (finished.size() > retention) {
+            jobs.remove(finished.poll());
+        }
+    }
+
+    /**
+     * Unfinished job with ids of items whose subtrees it touches and of their ancestors, the items included.
+     */
+    private static class Pending {
+
+        private final ItemJob job;
+        private final List<Long> itemIds;
+        private final Set<Long> ancestorIds;
+        @Nullable
+        private final Long movedId;
+        private final CompletableFuture<?> future;
+
+        private Pending(ItemJob job, List<Long> itemIds, Set<Long> ancestorIds, @Nullable Long movedId, CompletableFuture<?> future) {
+            this.job = job;
+            this.itemIds = itemIds;
+            this.ancestorIds = ancestorIds;
+            this.movedId = movedId;
+            this.future = future;
+        }
+
+        /**
+         * @param otherItemIds     - ids of items whose subtrees another job touches
+         * @param otherAncestorIds - ids of their ancestors, the items included
+         * @return true if a subtree touched by this job contains one touched by the other job, or the other way round
+         */
+        private boolean overlaps(List<Long> otherItemIds, Set<Long> otherAncestorIds) {
+            return itemIds.stream().anyMatch(otherAncestorIds::contains) || otherItemIds.stream().anyMatch(ancestorIds::contains);
+        }
+
+    }
+
+}
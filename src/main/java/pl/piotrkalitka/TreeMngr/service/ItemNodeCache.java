@@ -0,0 +1,204 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.repository.ItemAncestry;
+
+/**
+ * Bounded read-through cache of item paths, values, sums and levels by id, evicted by W-TinyLFU.
+ * Cached ids are also indexed by path, so a subtree is invalidated by a range of the index instead of a scan of the
+ * cache. Mutations invalidate subtrees once, when the transaction completes, so entries read from uncommitted or
+ * rolled back state do not outlive it; until then the transaction itself reads items of those subtrees around the
+ * cache. A load that overlaps an invalidation of its subtree may have read the state before the write, so it is
+ * dropped instead of outliving the invalidation.
+ */
+@Component
+public class ItemNodeCache {
+
+    private final Cache<Long, ItemAncestry> cache;
+    // caps paths kept by evictedAt, older ones are forgotten at once and loads started before them are dropped
+    private static final int MAX_EVICTED_PATHS = 10000;
+
+    private final ConcurrentNavigableMap<String, Long> idsByPath = new ConcurrentSkipListMap<>();
+    // generation of the last eviction of every subtree path evicted since evictedSince
+    private final Map<String, Long> evictedAt = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile long evictedSince;
+    private final Timer lookups;
+
+    @Autowired
+    public ItemNodeCache(@Value("${treemngr.cache.maximum-size:10000}") long maximumSize, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .executor(Runnable::run)
+                .<Long, ItemAncestry>removalListener((id, node, cause) -> unindex(id, node))
+                .build();
+        this.lookups = Timer.builder("treemngr.cache.lookups")
+                .publishPercentiles(0.99)
+                .register(meterRegistry);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "items");
+    }
+
+    /**
+     * @param id     - id of item
+     * @param loader - reads item from the database on a miss
+     * @return cached or loaded item, empty if it does not exist
+     */
+    public Optional<ItemAncestry> get(Long id, Function<Long, Optional<ItemAncestry>> loader) {
+        long start = System.nanoTime();
+        try {
+            Set<String> pending = pendingPaths();
+            if (pending != null) {
+                ItemAncestry cached = cache.getIfPresent(id);
+                return cached == null || isPending(pending, cached.getPath()) ? loader.apply(id) : Optional.of(cached);
+            }
+            long generation = evictions.get();
+            boolean[] loaded = {false};
+            ItemAncestry node = cache.get(id, key -> {
+                loaded[0] = true;
+                ItemAncestry read = loader.apply(key).orElse(null);
+                // indexed before it is visible, an eviction that finds it here waits for the load and removes it
+                if (read != null) idsByPath.put(read.getPath(), key);
+                return read;
+            });
+            // an eviction that missed it in the index has recorded its path before, so one of the two removes it
+            if (loaded[0] && node != null && evictedSince(node.getPath(), generation)) cache.asMap().remove(id, node);
+            return Optional.ofNullable(node);
+        } finally {
+            lookups.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Evicts entries of the subtree when the transaction completes, or right away outside of a transaction.
+     *
+     * @param path - path of subtree root whose entries have to be evicted
+     */
+    public void invalidateSubtree(String path) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(path);
+            return;
+        }
+        Set<String> pending = pendingPaths();
+        if (pending == null) {
+            Set<String> paths = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, paths);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ItemNodeCache.this);
+                    paths.forEach(ItemNodeCache.this::evict);
+                }
+            });
+            pending = paths;
+        }
+        pending.add(path);
+    }
+
+    /**
+     * @return size, hit and miss counts, hit ratio and 99th percentile of lookup latency
+     */
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRatio", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        for (ValueAtPercentile percentile : lookups.takeSnapshot().percentileValues()) {
+            result.put("lookupP" + Math.round(percentile.percentile() * 100) + "Millis", percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return result;
+    }
+
+    /**
+     * @param path - path of subtree root
+     */
+    private void evict(String path) {
+        long generation = evictions.incrementAndGet();
+        if (evictedAt.size() >= MAX_EVICTED_PATHS) {
+            evictedSince = generation;
+            evictedAt.clear();
+        }
+        evictedAt.put(path, generation);
+        for (Long id : idsByPath.subMap(path, path + Character.MAX_VALUE).values()) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * @param path       - path of loaded item
+     * @param generation - number of evictions before the load started
+     * @return true if the subtree of the item or of any of its ancestors may have been evicted since
+     */
+    private boolean evictedSince(String path, long generation) {
+        for (int end = path.indexOf(ItemPath.SEPARATOR, 1); end != -1; end = path.indexOf(ItemPath.SEPARATOR, end + 1)) {
+            Long evicted = evictedAt.get(path.substring(0, end + 1));
+            if (evicted != null && evicted > generation) return true;
+        }
+        return evictedSince > generation;
+    }
+
+    /**
+     * Drops the index entry of a removed cache entry, unless the id has been loaded again at the same path.
+     *
+     * @param id   - id of removed entry
+     * @param node - removed entry
+     */
+    private void unindex(@Nullable Long id, @Nullable ItemAncestry node) {
+        if (id == null || node == null) return;
+        idsByPath.remove(node.getPath(), id);
+        ItemAncestry current = cache.asMap().get(id);
+        if (current != null) idsByPath.put(current.getPath(), id);
+    }
+
+    /**
+     * @return paths of subtrees invalidated by the current transaction, null if it has not invalidated any
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private Set<String> pendingPaths() {
+        return (Set<String>) TransactionSynchronizationManager.getResource(this);
+    }
+
+    /**
+     * @param pending - paths of invalidated subtrees
+     * @param path    - path of item
+     * @return true if the item is in one of the subtrees
+     */
+    private static boolean isPending(Set<String> pending, String path) {
+        for (int end = path.indexOf(ItemPath.SEPARATOR, 1); end != -1; end = path.indexOf(ItemPath.SEPARATOR, end + 1)) {
+            if (pending.contains(path.substring(0, end + 1))) return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,108 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+
+/**
+ * Fills item paths for rows created before paths were maintained by {@link ItemsService}. Levels of those rows
+ * are rewritten from the paths as well, since moves did not update levels of descendants back then.
+ * Rows created before items were versioned get version 0. Subtree aggregates are recomputed for the whole tree
+ * when any of them is missing, as for rows created before they were maintained.
+ */
+@Component
+public class ItemPathBackfill implements ApplicationRunner {
+
+    private JdbcTemplate jdbcTemplate;
+    private ItemNodesRepository itemNodesRepository;
+
+    @Autowired
+    public ItemPathBackfill(JdbcTemplate jdbcTemplate, ItemNodesRepository itemNodesRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.itemNodesRepository = itemNodesRepository;
+    }
+
+    @Override
+    @Transactional
+    public void run(ApplicationArguments args) {
+        jdbcTemplate.update("update items set version = 0 where version is null");
+        backfillPaths();
+        backfillStats();
+    }
+
+    private void backfillPaths() {
+        Integer missing = jdbcTemplate.queryForObject("select count(*) from items where path is null", Integer.class);
+        if (missing == null || missing == 0) return;
+
+        Map<Long, Long> parents = new HashMap<>();
+        jdbcTemplate.query("select id, parent_id from items", rs -> {
+            long id = rs.getLong("id");
+            long parentId = rs.getLong("parent_id");
+            parents.put(id, rs.wasNull() ? null : parentId);
+        });
+
+        Map<Long, String> paths = new HashMap<>();
+        List<Object[]> updates = new ArrayList<>();
+        for (Long id : parents.keySet()) {
+            String path = resolvePath(id, parents, paths);
+            updates.add(new Object[]{path, ItemPath.level(path), id});
+        }
+        jdbcTemplate.batchUpdate("update items set path = ?, level = ? where id = ?", updates);
+    }
+
+    /**
+     * Reads items deepest first, so aggregates of all children of an item are complete when the item is read.
+     */
+    private void backfillStats() {
+        Integer missing = jdbcTemplate.queryForObject("select count(*) from items where subtree_count is null", Integer.class);
+        if (missing == null || missing == 0) return;
+
+        Map<Long, ItemStats> pending = new HashMap<>();
+        List<ItemStats> updates = new ArrayList<>();
+        jdbcTemplate.query("select id, parent_id, value from items order by length(path) desc", rs -> {
+            long id = rs.getLong("id");
+            long parentId = rs.getLong("parent_id");
+            boolean hasParent = !rs.wasNull();
+            ItemStats stats = pending.remove(id);
+            if (stats == null) stats = new ItemStats(id);
+            stats.add(rs.getInt("value"));
+            if (hasParent) pending.computeIfAbsent(parentId, ItemStats::new).include(stats);
+            updates.add(stats);
+        });
+        itemNodesRepository.updateStats(updates);
+    }
+
+    /**
+     * @param id      - id of item
+     * @param parents - parent id of every item
+     * @param paths   - already resolved paths
+     * @return path of item for given id
+     */
+    private String resolvePath(Long id, Map<Long, Long> parents, Map<Long, String> paths) {
+        List<Long> unresolved = new ArrayList<>();
+        Long current = id;
+        while (current != null && !paths.containsKey(current)) {
+            unresolved.add(current);
+            current = parents.get(current);
+        }
+        String path = current == null ? null : paths.get(current);
+        for (int i = unresolved.size() - 1; i >= 0; i--) {
+            path = ItemPath.of(path, unresolved.get(i));
+            paths.put(unresolved.get(i), path);
+        }
+        return path;
+    }
+
+}
@@ -0,0 +1,174 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.lang.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+
+/**
+ * Formats of tree import and export. Both are streamed record by record, items of the tree in pre-order.
+ */
+public enum ItemRecordFormat {
+
+    /**
+     * One JSON object per line.
+     */
+    NDJSON("application/x-ndjson") {
+        @Override
+        public Reader reader(InputStream in) throws IOException {
+            MappingIterator<ItemRecord> records = MAPPER.readerFor(ItemRecord.class).readValues(in);
+            return () -> records.hasNextValue() ? records.nextValue() : null;
+        }
+
+        @Override
+        public Writer writer(OutputStream out) throws IOException {
+            JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+            return new Writer() {
+                @Override
+                public void write(ItemRecord record) throws IOException {
+                    generator.writeObject(record);
+                    generator.writeRaw('\n');
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    generator.flush();
+                }
+            };
+        }
+    },
+
+    /**
+     * Every record is a frame prefixed with its length as a big-endian int, holding the id and parent id as longs
+     * (-1 for no parent) followed by value, sum and level as ints. Readers skip bytes of a frame they do not know,
+     * up to {@link #MAX_FRAME_LENGTH} bytes per frame, so a length sent by the client never sizes an allocation.
+     */
+    BINARY("application/octet-stream") {
+        @Override
+        public Reader reader(InputStream in) {
+            DataInputStream input = new DataInputStream(in);
+            byte[] frame = new byte[MAX_FRAME_LENGTH];
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            return () -> {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    return null;
+                }
+                if (length < FRAME_LENGTH || length > MAX_FRAME_LENGTH) throw new UnprocessableEntityException("frame length", length);
+                input.readFully(frame, 0, length);
+                buffer.clear();
+                long id = buffer.getLong();
+                long parentId = buffer.getLong();
+                return new ItemRecord(id, parentId == NO_PARENT ? null : parentId, buffer.getInt(), buffer.getInt(), buffer.getInt());
+            };
+        }
+
+        @Override
+        public Writer writer(OutputStream out) {
+            DataOutputStream output = new DataOutputStream(out);
+            return new Writer() {
+                @Override
+                public void write(ItemRecord record) throws IOException {
+                    output.writeInt(FRAME_LENGTH);
+                    output.writeLong(record.getId());
+                    output.writeLong(record.getParentId() == null ? NO_PARENT : record.getParentId());
+                    output.writeInt(record.getValue());
+                    output.writeInt(record.getSum());
+                    output.writeInt(record.getLevel());
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    output.flush();
+                }
+            };
+        }
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int FRAME_LENGTH = 2 * Long.BYTES + 3 * Integer.BYTES;
+    static final int MAX_FRAME_LENGTH = 256;
+    private static final long NO_PARENT = -1;
+
+    private final String mediaType;
+
+    ItemRecordFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @param in - stream to read records from
+     * @return reader of records
+     * @throws IOException if reading the stream fails
+     */
+    public abstract Reader reader(InputStream in) throws IOException;
+
+    /**
+     * @param out - stream to write records to
+     * @return writer of records, has to be flushed after the last record
+     * @throws IOException if writing the stream fails
+     */
+    public abstract Writer writer(OutputStream out) throws IOException;
+
+    /**
+     * @param name - name of format, case insensitive
+     * @return format for given name
+     * @throws UnprocessableEntityException if there is no such format
+     */
+    public static ItemRecordFormat of(String name) {
+        for (ItemRecordFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) return format;
+        }
+        throw new UnprocessableEntityException("format", name);
+    }
+
+    /**
+     * @param mediaType - content type of a request body
+     * @return format for given content type
+     * @throws UnprocessableEntityException if there is no format for given content type
+     */
+    public static ItemRecordFormat ofMediaType(@Nullable String mediaType) {
+        for (ItemRecordFormat format : values()) {
+            if (mediaType != null && mediaType.startsWith(format.mediaType)) return format;
+        }
+        throw new UnprocessableEntityException("content type", mediaType);
+    }
+
+    public interface Reader {
+
+        /**
+         * @return next record or null at the end of stream
+         * @throws IOException if reading the stream fails
+         */
+        @Nullable
+        ItemRecord read() throws IOException;
+
+    }
+
+    public interface Writer {
+
+        void write(ItemRecord record) throws IOException;
+
+        void flush() throws IOException;
+
+    }
+
+}
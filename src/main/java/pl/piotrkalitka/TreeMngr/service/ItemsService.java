@@ -1,81 +1,364 @@
 package pl.piotrkalitka.TreeMngr.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.lang.Nullable;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException;
 import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
 import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
 import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+import pl.piotrkalitka.TreeMngr.model.ItemTree;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+import pl.piotrkalitka.TreeMngr.repository.ItemAncestry;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
 import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
 
+/**
+ * Writes that recompute aggregates of ancestors from children read without locks run in read committed transactions,
+ * so they see children other writes committed after they started. Under repeatable read such a read would return the
+ * children as they were when the transaction took its snapshot, and write stale aggregates over newer ones.
+ */
 @Component
+@Transactional
 public class ItemsService {
 
+    public static final int MAX_CHILDREN_LIMIT = 1000;
+    public static final int MAX_TREE_DEPTH = 100;
+    // items of a whole slice read by getTree, root included, deeper or wider reads page with getChildren
+    public static final int MAX_TREE_NODES = 10000;
+    // rows written by one batched statement when importing, copying or recomputing a subtree
+    protected static final int WRITE_BATCH_SIZE = 1000;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // initial capacity of the whole tree read by getItems, grown by doubling
+    private static final int TREE_CAPACITY = 1024;
+
     private ItemsRepository itemsRepository;
+    private ItemNodesRepository itemNodesRepository;
+    private ItemIdAllocator itemIdAllocator;
+    private ItemNodeCache itemNodeCache;
+    private ItemChangeLog itemChangeLog;
 
     @Autowired
-    public ItemsService(ItemsRepository itemsRepository) {
+    public ItemsService(ItemsRepository itemsRepository, ItemNodesRepository itemNodesRepository, ItemIdAllocator itemIdAllocator,
+                        ItemNodeCache itemNodeCache, ItemChangeLog itemChangeLog) {
         this.itemsRepository = itemsRepository;
+        this.itemNodesRepository = itemNodesRepository;
+        this.itemIdAllocator = itemIdAllocator;
+        this.itemNodeCache = itemNodeCache;
+        this.itemChangeLog = itemChangeLog;
     }
 
     /**
-     * @return all items as tree structure or null if there is no first item
+     * Reads all items of a tree in pre-order from a cursor into primitive arrays, without an entity per item.
+     *
+     * @param treeId - id of tree
+     * @return all items of the tree as tree structure or null if there is no first item in it
      */
     @Nullable
-    public Item getItems() {
-        if (!itemsRepository.existsByParentId(null)) return null;
-        return itemsRepository.findByParentId(null);
+    @Transactional(readOnly = true)
+    public ItemTree getItems(long treeId) {
+        ItemTree.Builder builder = new ItemTree.Builder(TREE_CAPACITY);
+        itemNodesRepository.forEachInPreOrder(treeId, record -> builder.add(record.getId(),
+                record.getParentId() == null ? ItemTree.NO_PARENT : record.getParentId(), record.getValue(), record.getSum(), record.getLevel()));
+        ItemTree tree = builder.build();
+        return tree.size() == 0 ? null : tree;
+    }
+
+    /**
+     * Writes the same tree as {@link #getItems(long)} as JSON while reading items in pre-order from a cursor, so the
+     * first bytes go out right away and memory use depends on tree depth only.
+     *
+     * @param treeId - id of tree
+     * @param out    - stream to write the tree to, nothing is written if there is no first item
+     * @throws IOException if writing the stream fails
+     */
+    @Transactional(readOnly = true)
+    public void streamItems(long treeId, OutputStream out) throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+        Deque<Long> open = new ArrayDeque<>();
+        try {
+            itemNodesRepository.forEachInPreOrder(treeId, record -> {
+                try {
+                    while (!open.isEmpty() && !open.peek().equals(record.getParentId())) {
+                        open.pop();
+                        generator.writeEndArray();
+                        generator.writeEndObject();
+                    }
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", record.getId());
+                    if (record.getParentId() == null) generator.writeNullField("parentId");
+                    else generator.writeNumberField("parentId", record.getParentId());
+                    generator.writeNumberField("value", record.getValue());
+                    generator.writeNumberField("sum", record.getSum());
+                    generator.writeNumberField("level", record.getLevel());
+                    generator.writeArrayFieldStart("children");
+                    if (open.isEmpty()) generator.flush();
+                    open.push(record.getId());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int i = open.size(); i > 0; i--) {
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.flush();
+    }
+
+    /**
+     * @param treeId - id of tree whose first item is read when rootId is null
+     * @param rootId - id of subtree root or null for first item
+     * @param depth  - number of levels of children to read below the root
+     * @param offset - number of children skipped in every children list
+     * @param limit  - max number of children in every children list
+     * @return requested slice of the tree or null if there is no first item
+     * @throws ItemNotFoundException        if item for given rootId does not exist
+     * @throws UnprocessableEntityException if depth, offset or limit is out of range or the slice has more than
+     *                                      {@link #MAX_TREE_NODES} items
+     */
+    @Nullable
+    @Transactional(readOnly = true)
+    public ItemNode getTree(long treeId, @Nullable Long rootId, int depth, int offset, int limit) {
+        checkTreeSlice(depth, offset, limit);
+
+        ItemNode root;
+        if (rootId == null) {
+            root = itemNodesRepository.findRoot(treeId).orElse(null);
+            if (root == null) return null;
+        } else {
+            root = itemNodesRepository.findById(rootId).orElseThrow(() -> new ItemNotFoundException(rootId));
+        }
+
+        // counts of children come first, so a slice over the limit is rejected before its level is read, and
+        // parents whose children fit one page are read together instead of a page each
+        long size = 1;
+        List<ItemNode> nodes = Collections.singletonList(root);
+        for (int level = 0; !nodes.isEmpty(); level++) {
+            Map<Long, ItemNode> parents = new HashMap<>();
+            for (ItemNode node : nodes) {
+                parents.put(node.getId(), node);
+            }
+            List<Long> wholeParentIds = new ArrayList<>();
+            List<Long> pagedParentIds = new ArrayList<>();
+            for (Map.Entry<Long, Long> count : itemNodesRepository.countChildren(new ArrayList<>(parents.keySet())).entrySet()) {
+                parents.get(count.getKey()).setChildCount(count.getValue());
+                if (count.getValue() <= offset) continue;
+                size += Math.min(limit, count.getValue() - offset);
+                (offset == 0 && count.getValue() <= limit ? wholeParentIds : pagedParentIds).add(count.getKey());
+            }
+            if (level == depth) break;
+            checkTreeSize(size, depth, offset, limit);
+
+            nodes = new ArrayList<>(itemNodesRepository.findChildren(wholeParentIds));
+            nodes.addAll(itemNodesRepository.findChildren(pagedParentIds, offset, limit));
+            for (ItemNode child : nodes) {
+                parents.get(child.getParentId()).getChildren().add(child);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Pages through children by the id of the last child read instead of an offset, so every page is read from
+     * the index at the same cost, however many children precede it.
+     *
+     * @param id    - id of parent item
+     * @param after - id of the last child of the previous page, null for the first page
+     * @param limit - max number of children
+     * @return children of item with ids greater than after, ordered by id, with their child counts
+     * @throws ItemNotFoundException        if item for given id does not exist
+     * @throws UnprocessableEntityException if limit is out of range
+     */
+    @Transactional(readOnly = true)
+    public List<ItemNode> getChildren(Long id, @Nullable Long after, int limit) {
+        checkTreeSlice(0, 0, limit);
+        getAncestry(id);
+        List<ItemNode> children = itemsRepository.findChildrenAfter(id, after == null ? Long.MIN_VALUE : after, PageRequest.of(0, limit));
+        if (children.isEmpty()) return children;
+
+        Map<Long, Long> counts = itemNodesRepository.countChildren(children.stream().map(ItemNode::getId).collect(Collectors.toList()));
+        for (ItemNode child : children) {
+            child.setChildCount(counts.getOrDefault(child.getId(), 0L));
+        }
+        return children;
+    }
+
+    /**
+     * @param id - id of item
+     * @return aggregates of subtree of item for given id, maintained by writes so reading them does not touch the subtree
+     * @throws ItemNotFoundException if item for given id does not exist
+     */
+    @Transactional(readOnly = true)
+    public ItemStats getStats(Long id) {
+        return itemNodesRepository.findStats(id).orElseThrow(() -> new ItemNotFoundException(id));
+    }
+
+    /**
+     * Writes increment the subtree version of every item they change and of all its ancestors, so the version of a
+     * subtree changes with every write inside it. Read by primary key, without reading the subtree.
+     *
+     * @param treeId - id of tree whose first item is read when rootId is null
+     * @param rootId - id of subtree root, first item if null
+     * @return version stamp of the subtree, id of its root and its subtree version, or null if the tree is empty
+     * @throws ItemNotFoundException if item for given rootId does not exist
+     */
+    @Nullable
+    @Transactional(readOnly = true)
+    public String getVersion(long treeId, @Nullable Long rootId) {
+        Optional<long[]> version = itemNodesRepository.findSubtreeVersion(treeId, rootId);
+        if (!version.isPresent() && rootId != null) throw new ItemNotFoundException(rootId);
+        return version.map(root -> root[0] + "-" + root[1]).orElse(null);
+    }
+
+    /**
+     * @param id - id of item
+     * @return materialized path of item for given id, ids of the first item and all ancestors down to the item
+     * @throws ItemNotFoundException if item for given id does not exist
+     */
+    @Transactional(readOnly = true)
+    public String getPath(Long id) {
+        return getAncestry(id).getPath();
+    }
+
+    /**
+     * Resolves ancestors like every other read of them, from the materialized path of the item, and reads the whole
+     * chain in one statement.
+     *
+     * @param id - id of item
+     * @return first item of the tree and all ancestors down to the item, each with its own sum
+     * @throws ItemNotFoundException if item for given id does not exist
+     */
+    @Transactional(readOnly = true)
+    public List<ItemNode> getPathNodes(Long id) {
+        return itemNodesRepository.findPath(getAncestry(id).getPath());
     }
 
     /**
-     * @param value - value of item that has to be created
+     * @param treeId - id of tree to create the first item of
+     * @param value  - value of item that has to be created
      * @return Item which has been created
-     * @throws FirstItemExistsException if there is first item already
+     * @throws FirstItemExistsException if there is first item in the tree already
      */
-    public Item addItem(Integer value) {
-        if (getItemsCount() != 0) {
+    @SubtreeWrite
+    public Item addFirstItem(@TreeId long treeId, Integer value) {
+        if (itemNodesRepository.findRoot(treeId).isPresent()) {
             throw new FirstItemExistsException();
         }
         Item item = new Item();
+        item.setId(itemIdAllocator.next());
+        item.setTreeId(treeId);
         item.setValue(value);
         item.setSum(value);
         item.setLevel(0);
+        item.setPath(ItemPath.of(null, item.getId()));
+        item.setStats(ItemStats.of(item.getId(), value));
         itemsRepository.save(item);
+        itemChangeLog.record(ItemChange.Type.ADD, treeId, item.getId(), null, value, value);
         return item;
     }
 
     /**
      * @param value    - value of item that has to be created
-     * @param parentId - id of parent item
+     * @param parentId - id of parent item, the item is created in its tree
      * @return Item which has been created
      * @throws ItemNotFoundException if item for given id does not exist
      */
+    @SubtreeWrite
     public Item addItem(Integer value, Long parentId) {
-        if (!doesItemExists(parentId)) {
-            throw new ItemNotFoundException(parentId);
-        }
+        ItemAncestry parent = lockAncestry(parentId);
 
         Item child = new Item();
+        child.setId(itemIdAllocator.next());
         child.setValue(value);
         child.setParentId(parentId);
-        child.setSum(calcSum(parentId, value));
-        child.setLevel(getItem(parentId).getLevel() + 1);
+        child.setTreeId(parent.getTreeId());
+        child.setSum(parent.getSum() + value);
+        child.setLevel(parent.getLevel() + 1);
+        child.setPath(ItemPath.of(parent.getPath(), child.getId()));
+        child.setStats(ItemStats.of(child.getId(), value));
         itemsRepository.save(child);
+        itemNodesRepository.includeInAncestors(ItemPath.ids(parent.getPath()), ItemStats.of(child.getId(), value), child.getLevel());
+        itemChangeLog.record(ItemChange.Type.ADD, parent.getTreeId(), child.getId(), parentId, value, child.getSum());
 
         return child;
     }
 
     /**
+     * Removes item with its whole subtree by two set-based statements, without loading the subtree.
+     *
      * @param id - id of item that has to be removed
      * @throws ItemNotFoundException if item for given id does not exist
      */
+    @SubtreeWrite
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public void removeItem(Long id) {
-        if (!doesItemExists(id)) {
-            throw new ItemNotFoundException(id);
-        }
-        itemsRepository.delete(getItem(id));
+        ItemAncestry item = lockAncestry(id);
+        String path = item.getPath();
+        ItemStats removed = getStats(id);
+        OperationTrace.subtree(removed);
+        List<Long> ancestorIds = excludeFromAncestors(removed, path);
+        deleteSubtree(path);
+        itemNodesRepository.refreshExtremes(ancestorIds);
+        itemChangeLog.record(ItemChange.Type.REMOVE, item.getTreeId(), id, ItemPath.parentId(path), item.getValue(), item.getSum());
+    }
+
+    /**
+     * Removes the deepest items of a subtree, so what is left of it is still a valid tree. Called repeatedly, every
+     * time in a short transaction of its own, removes the subtree leaves first without blocking other writers for long.
+     * Aggregates of ancestors keep counting the subtree, and the change feed shows it, until its root is removed.
+     *
+     * @param id        - id of root of removed subtree
+     * @param chunkSize - max number of items removed by this call
+     * @return number of removed items, 0 once the subtree is gone
+     */
+    @SubtreeWrite
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public int removeItemChunk(Long id, int chunkSize) {
+        Optional<ItemAncestry> item = itemNodeCache.get(id, itemsRepository::findAncestryById);
+        if (!item.isPresent()) return 0;
+
+        String path = item.get().getPath();
+        List<Long> ids = itemNodesRepository.findDeepestInSubtree(path, chunkSize);
+        List<Long> ancestorIds = ids.contains(id) ? excludeFromAncestors(getStats(id), path) : Collections.emptyList();
+        itemNodeCache.invalidateSubtree(path);
+        itemsRepository.detachItems(ids);
+        itemsRepository.deleteItems(ids);
+        itemNodesRepository.refreshExtremes(ancestorIds);
+        if (!ids.contains(id)) itemNodesRepository.touch(ItemPath.ids(path));
+        if (ids.contains(id)) itemChangeLog.record(ItemChange.Type.REMOVE, item.get().getTreeId(), id, ItemPath.parentId(path), item.get().getValue(), item.get().getSum());
+        return ids.size();
     }
 
     /**
@@ -84,6 +367,8 @@ public class ItemsService {
      * @param parentId - id of new parent
      * @return Item with changes
      */
+    @SubtreeWrite
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public Item updateItem(Long itemId, Integer value, Long parentId) {
         if (!doesItemExists(itemId)) {
             throw new ItemNotFoundException(itemId);
@@ -102,18 +387,359 @@ public class ItemsService {
 
     /**
      * @param itemId      - id of item to copy
-     * @param newParentId - id of target item
+     * @param newParentId - id of target item, the copy is created in its tree
      * @return - new created item
+     * @throws ItemNotFoundException if item for given itemId or newParentId does not exist
      */
+    @SubtreeWrite
     public Item copyItem(Long itemId, Long newParentId) {
-        Item itemToCopy = getItem(itemId);
-        Item addedItem = addItem(itemToCopy.getValue(), newParentId);
-        for (Item item : itemToCopy.getChildren()) {
-            copyItem(item.getId(), addedItem.getId());
+        ItemAncestry target = lockAncestry(newParentId);
+        List<ItemNode> source = itemNodesRepository.findSubtree(getAncestry(itemId).getPath());
+
+        long firstId = itemIdAllocator.reserve(source.size());
+        SubtreePlan plan = SubtreePlan.of(source, target.getSum(), target.getLevel(), target.getPath(), firstId);
+        List<ItemStats> stats = new ArrayList<>(source.size());
+        List<Object[]> rows = new ArrayList<>(WRITE_BATCH_SIZE);
+        for (int i = 0; i < source.size(); i++) {
+            ItemNode node = source.get(i);
+            long id = firstId + i;
+            long parentId = plan.parent(i) == LongIntMap.MISSING ? newParentId : firstId + plan.parent(i);
+            rows.add(new Object[]{id, parentId, node.getValue(), plan.sum(i), plan.level(i), plan.path(i), target.getTreeId()});
+            stats.add(ItemStats.of(id, node.getValue()));
+            if (rows.size() == WRITE_BATCH_SIZE) {
+                itemNodesRepository.insertAll(rows);
+                rows.clear();
+            }
+        }
+        if (!rows.isEmpty()) itemNodesRepository.insertAll(rows);
+        for (int i = source.size() - 1; i > 0; i--) {
+            stats.get(plan.parent(i)).include(stats.get(i));
+        }
+        itemNodesRepository.updateStats(stats.stream().filter(copy -> copy.getCount() > 1).collect(Collectors.toList()));
+        itemNodesRepository.includeInAncestors(ItemPath.ids(target.getPath()), stats.get(0), target.getLevel() + 1);
+        OperationTrace.subtree(stats.get(0));
+        itemChangeLog.record(ItemChange.Type.COPY, target.getTreeId(), firstId, newParentId, source.get(0).getValue(), target.getSum() + source.get(0).getValue());
+        return getItem(firstId);
+    }
+
+    /**
+     * Writes the whole tree in pre-order, streaming rows from the database so memory use does not depend on tree size.
+     *
+     * @param treeId - id of tree
+     * @param format - format of written records
+     * @param out    - stream to write records to
+     * @throws IOException if writing the stream fails
+     */
+    @Transactional(readOnly = true)
+    public void exportItems(long treeId, ItemRecordFormat format, OutputStream out) throws IOException {
+        ItemRecordFormat.Writer writer = format.writer(out);
+        try {
+            itemNodesRepository.forEachInPreOrder(treeId, record -> {
+                try {
+                    writer.write(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads items written in pre-order and inserts them with new ids in batches. Only the chain of ancestors of
+     * the current record is kept, so memory use depends on tree depth, not on tree size. Sums and levels of records
+     * are ignored and computed for their new place in the tree, subtree aggregates are computed as subtrees end.
+     *
+     * @param treeId   - id of tree to import the first item of, used when parentId is null
+     * @param format   - format of read records
+     * @param in       - stream to read records from
+     * @param parentId - id of item to import records under, in its tree, or null to import the first item of an empty tree
+     * @return number of imported items
+     * @throws ItemNotFoundException        if item for given parentId does not exist
+     * @throws FirstItemExistsException     if parentId is null and there is first item in the tree already
+     * @throws UnprocessableEntityException if records are not in pre-order or there is more than one first item
+     * @throws IOException                  if reading the stream fails
+     */
+    @SubtreeWrite
+    public long importItems(@TreeId long treeId, ItemRecordFormat format, InputStream in, @Nullable Long parentId) throws IOException {
+        ItemAncestry target = parentId == null ? null : lockAncestry(parentId);
+        if (parentId == null && itemNodesRepository.findRoot(treeId).isPresent()) {
+            throw new FirstItemExistsException();
+        }
+        long importTreeId = target == null ? treeId : target.getTreeId();
+
+        ItemRecordFormat.Reader reader = format.reader(in);
+        Deque<ImportedAncestor> ancestors = new ArrayDeque<>();
+        StringBuilder path = new StringBuilder(target == null ? ItemPath.SEPARATOR : target.getPath());
+        List<Object[]> rows = new ArrayList<>(WRITE_BATCH_SIZE);
+        List<ItemStats> stats = new ArrayList<>();
+        ItemStats imported = new ItemStats(parentId == null ? 0 : parentId);
+        long nextId = 0;
+        long count = 0;
+        ItemRecord record;
+        while ((record = reader.read()) != null) {
+            while (!ancestors.isEmpty() && !ancestors.peek().sourceId.equals(record.getParentId())) {
+                path.setLength(completeImported(ancestors, stats, imported).parentPathLength);
+            }
+            ImportedAncestor parent = ancestors.peek();
+            if (parent == null && (record.getParentId() != null || (target == null && count > 0))) {
+                throw new UnprocessableEntityException(record.getId(), record.getParentId());
+            }
+
+            if (count % WRITE_BATCH_SIZE == 0) nextId = itemIdAllocator.reserve(WRITE_BATCH_SIZE);
+            long id = nextId++;
+            int sum = (parent != null ? parent.sum : target != null ? target.getSum() : 0) + record.getValue();
+            int level = parent != null ? parent.level + 1 : target != null ? target.getLevel() + 1 : 0;
+            int parentPathLength = path.length();
+            path.append(id).append(ItemPath.SEPARATOR);
+            rows.add(new Object[]{id, parent != null ? Long.valueOf(parent.id) : parentId, record.getValue(), sum, level, path.toString(), importTreeId});
+            ancestors.push(new ImportedAncestor(record.getId(), id, sum, level, parentPathLength, ItemStats.of(id, record.getValue())));
+            if (parent == null) itemChangeLog.record(ItemChange.Type.IMPORT, importTreeId, id, parentId, record.getValue(), sum);
+
+            if (rows.size() == WRITE_BATCH_SIZE) {
+                itemNodesRepository.insertAll(rows);
+                itemNodesRepository.updateStats(stats);
+                rows.clear();
+                stats.clear();
+            }
+            count++;
+        }
+        while (!ancestors.isEmpty()) {
+            completeImported(ancestors, stats, imported);
         }
-        return addedItem;
+        if (!rows.isEmpty()) itemNodesRepository.insertAll(rows);
+        itemNodesRepository.updateStats(stats);
+        OperationTrace.subtree(imported);
+        if (target != null && count > 0) itemNodesRepository.includeInAncestors(ItemPath.ids(target.getPath()), imported, target.getLevel());
+        return count;
+    }
+
+    /**
+     * Applies operations in given order in one transaction. Operations can refer to items created by earlier ADD
+     * operations by their ref. Paths are kept exact after every operation, while sums and levels of subtrees
+     * touched by value changes and moves, and aggregates of all touched ancestors, are recomputed once, after the last
+     * operation. All operations apply to one tree, only subtrees of items the operations refer to by id are locked,
+     * the whole tree only if the batch adds its first item.
+     *
+     * @param treeId     - id of tree the operations apply to
+     * @param operations - operations to apply
+     * @return id of item created, updated or removed by every operation
+     * @throws ItemNotFoundException        if any referred item does not exist
+     * @throws FirstItemExistsException     if ADD without parent is applied to a non-empty tree
+     * @throws UnprocessableEntityException if an operation is incomplete, refers to unknown ref, to an item of another
+     *                                      tree or would create a cycle
+     */
+    @SubtreeWrite
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public List<Long> applyBatch(@TreeId long treeId, List<BatchOperation> operations) {
+        long addCount = operations.stream().filter(operation -> operation.getType() == BatchOperation.Type.ADD).count();
+        Batch batch = new Batch(treeId, addCount == 0 ? 0 : itemIdAllocator.reserve((int) addCount));
+        List<Long> ids = new ArrayList<>(operations.size());
+        for (BatchOperation operation : operations) {
+            switch (operation.getType()) {
+                case ADD:
+                    ids.add(batchAdd(batch, operation));
+                    break;
+                case UPDATE:
+                    ids.add(batchUpdate(batch, operation));
+                    break;
+                case DELETE:
+                    ids.add(batchDelete(batch, operation));
+                    break;
+            }
+        }
+        batch.flushInserts();
+        recompute(batch.dirtyIds);
+        itemNodesRepository.refreshStats(batch.staleStatsIds);
+        recordBatchChanges(batch.changes);
+        return ids;
+    }
+
+    /**
+     * @param refs - ids of items created earlier in the batch by their refs
+     * @param id   - id of item, used when ref is null
+     * @param ref  - ref of item created earlier in the batch
+     * @return id of referred item or null if neither id nor ref is given
+     * @throws UnprocessableEntityException if there is no item for given ref
+     */
+    @Nullable
+    protected static Long resolve(Map<String, Long> refs, @Nullable Long id, @Nullable String ref) {
+        if (ref == null) return id;
+        Long resolved = refs.get(ref);
+        if (resolved == null) throw new UnprocessableEntityException(ref);
+        return resolved;
+    }
+
+    /**
+     * Pops an imported item whose subtree has ended and includes its aggregates in the aggregates of its parent.
+     *
+     * @param ancestors - imported items that may still receive children, the completed one on top
+     * @param stats     - aggregates to write once rows of their items are inserted
+     * @param imported  - aggregates of all imported subtrees, as if of the item they are imported under
+     * @return completed item
+     */
+    private static ImportedAncestor completeImported(Deque<ImportedAncestor> ancestors, List<ItemStats> stats, ItemStats imported) {
+        ImportedAncestor completed = ancestors.pop();
+        if (completed.stats.getCount() > 1) stats.add(completed.stats);
+        (ancestors.isEmpty() ? imported : ancestors.peek().stats).include(completed.stats);
+        return completed;
     }
 
+    /**
+     * @param batch     - state of applied batch
+     * @param operation - ADD operation
+     * @return id of created item
+     */
+    private Long batchAdd(Batch batch, BatchOperation operation) {
+        if (operation.getValue() == null) throw new UnprocessableEntityException(operation.getType(), operation.getValue());
+        Long parentId = resolve(batch.refs, operation.getParentId(), operation.getParentRef());
+        ItemAncestry parent = null;
+        if (parentId == null) {
+            batch.flushInserts();
+            if (itemNodesRepository.findRoot(batch.treeId).isPresent()) throw new FirstItemExistsException();
+        } else {
+            parent = batch.added.get(parentId);
+            if (parent == null) parent = requireInTree(batch, lockAncestry(parentId), parentId);
+        }
+
+        long id = batch.nextId++;
+        int sum = (parent == null ? 0 : parent.getSum()) + operation.getValue();
+        int level = parent == null ? 0 : parent.getLevel() + 1;
+        String path = ItemPath.of(parent == null ? null : parent.getPath(), id);
+        batch.inserts.add(new Object[]{id, parentId, operation.getValue(), sum, level, path, batch.treeId});
+        if (parent != null) batch.staleStatsIds.addAll(ItemPath.ids(parent.getPath()));
+        batch.added.put(id, new BatchAncestry(batch.treeId, path, operation.getValue(), sum, level));
+        batch.changes.add(new ItemChange(ItemChange.Type.ADD, batch.treeId, id, parentId, operation.getValue(), sum));
+        if (operation.getRef() != null) batch.refs.put(operation.getRef(), id);
+        return id;
+    }
+
+    /**
+     * @param batch     - state of applied batch
+     * @param operation - UPDATE operation
+     * @return id of updated item
+     */
+    private Long batchUpdate(Batch batch, BatchOperation operation) {
+        Long itemId = requireResolved(batch, operation.getItemId(), operation.getItemRef(), operation);
+        Long parentId = resolve(batch.refs, operation.getParentId(), operation.getParentRef());
+        batch.flushInserts();
+        ItemAncestry item = requireInTree(batch, lockAncestry(itemId), itemId);
+
+        if (operation.getValue() != null) {
+            itemsRepository.updateValue(itemId, operation.getValue());
+            itemNodeCache.invalidateSubtree(item.getPath());
+            batch.dirtyIds.add(itemId);
+            batch.staleStatsIds.addAll(ItemPath.ids(item.getPath()));
+            batch.changes.add(new ItemChange(ItemChange.Type.UPDATE, batch.treeId, itemId, null, operation.getValue(), null));
+        }
+        if (parentId != null) {
+            ItemAncestry newParent = requireInTree(batch, lockAncestry(parentId), parentId);
+            if (ItemPath.contains(newParent.getPath(), itemId)) throw new UnprocessableEntityException(itemId, parentId);
+            String newPath = ItemPath.of(newParent.getPath(), itemId);
+            itemsRepository.updateParentId(itemId, parentId);
+            itemsRepository.moveSubtree(ItemPath.subtreePattern(item.getPath()), item.getPath().length(), newPath, batch.treeId, 0, 0);
+            itemNodeCache.invalidateSubtree(item.getPath());
+            itemNodeCache.invalidateSubtree(newPath);
+            batch.dirtyIds.add(itemId);
+            batch.staleStatsIds.addAll(ItemPath.ids(item.getPath()));
+            batch.staleStatsIds.addAll(ItemPath.ids(newPath));
+            batch.changes.add(new ItemChange(ItemChange.Type.MOVE, batch.treeId, itemId, parentId, item.getValue(), null));
+        }
+        return itemId;
+    }
+
+    /**
+     * @param batch     - state of applied batch
+     * @param operation - DELETE operation
+     * @return id of removed item
+     */
+    private Long batchDelete(Batch batch, BatchOperation operation) {
+        Long itemId = requireResolved(batch, operation.getItemId(), operation.getItemRef(), operation);
+        batch.flushInserts();
+        ItemAncestry item = requireInTree(batch, getAncestry(itemId), itemId);
+        String path = item.getPath();
+        batch.staleStatsIds.addAll(ItemPath.ids(path));
+        deleteSubtree(path);
+        batch.changes.add(new ItemChange(ItemChange.Type.REMOVE, batch.treeId, itemId, ItemPath.parentId(path), item.getValue(), item.getSum()));
+        return itemId;
+    }
+
+    /**
+     * @param batch     - state of applied batch
+     * @param id        - id of item
+     * @param ref       - ref of item created earlier in the batch
+     * @param operation - operation that requires the item
+     * @return id of referred item
+     * @throws UnprocessableEntityException if neither id nor ref is given or there is no item for given ref
+     */
+    private Long requireResolved(Batch batch, @Nullable Long id, @Nullable String ref, BatchOperation operation) {
+        Long resolved = resolve(batch.refs, id, ref);
+        if (resolved == null) throw new UnprocessableEntityException(operation.getType(), id, ref);
+        return resolved;
+    }
+
+    /**
+     * @param batch - state of applied batch
+     * @param item  - item referred by an operation of the batch
+     * @param id    - id of item
+     * @return given item
+     * @throws UnprocessableEntityException if item is not in the tree of the batch
+     */
+    private static ItemAncestry requireInTree(Batch batch, ItemAncestry item, Long id) {
+        if (item.getTreeId() != batch.treeId) throw new UnprocessableEntityException(id, batch.treeId);
+        return item;
+    }
+
+    /**
+     * Recomputes sums and levels of given items and their descendants, once for every outermost one of them.
+     *
+     * @param dirtyIds - ids of items whose subtrees have stale sums or levels, removed items are skipped
+     */
+    private void recompute(Set<Long> dirtyIds) {
+        for (Long dirtyId : dirtyIds) {
+            Optional<ItemAncestry> dirty = itemNodeCache.get(dirtyId, itemsRepository::findAncestryById);
+            if (!dirty.isPresent()) continue;
+            List<Long> pathIds = ItemPath.ids(dirty.get().getPath());
+            List<Long> ancestorIds = pathIds.subList(0, pathIds.size() - 1);
+            if (ancestorIds.stream().anyMatch(dirtyIds::contains)) continue;
+
+            ItemAncestry parent = ancestorIds.isEmpty() ? null : lockAncestry(ancestorIds.get(ancestorIds.size() - 1));
+            List<ItemNode> subtree = itemNodesRepository.findSubtree(dirty.get().getPath());
+            SubtreePlan plan = SubtreePlan.of(subtree, parent == null ? 0 : parent.getSum(), parent == null ? -1 : parent.getLevel(), null, 0);
+            List<Object[]> rows = new ArrayList<>(WRITE_BATCH_SIZE);
+            for (int i = 0; i < subtree.size(); i++) {
+                ItemNode node = subtree.get(i);
+                if (plan.sum(i) != node.getSum() || plan.level(i) != node.getLevel()) rows.add(new Object[]{plan.sum(i), plan.level(i), node.getId()});
+                if (rows.size() == WRITE_BATCH_SIZE) {
+                    itemNodesRepository.updateSumsAndLevels(rows);
+                    rows.clear();
+                }
+            }
+            if (!rows.isEmpty()) itemNodesRepository.updateSumsAndLevels(rows);
+            itemNodeCache.invalidateSubtree(dirty.get().getPath());
+        }
+    }
+
+    /**
+     * Records changes of a batch once sums are recomputed, with the final state of every changed item. Changes of
+     * items removed later in the batch are left out, the removal of their ancestor covers them.
+     *
+     * @param changes - changes in the order of operations
+     */
+    private void recordBatchChanges(List<ItemChange> changes) {
+        for (ItemChange change : changes) {
+            if (change.getType() != ItemChange.Type.REMOVE) {
+                Optional<ItemNode> item = itemNodesRepository.findById(change.getItemId());
+                if (!item.isPresent()) continue;
+                change.setParentId(item.get().getParentId());
+                change.setValue(item.get().getValue());
+                change.setSum(item.get().getSum());
+            }
+            itemChangeLog.record(change.getType(), change.getTreeId(), change.getItemId(), change.getParentId(), change.getValue(), change.getSum());
+        }
+    }
 
     /**
      * @param subItemId - id of item to check
@@ -121,24 +747,37 @@ public class ItemsService {
      * @return - true/false depends on result
      */
     private boolean isSubItemOf(Long subItemId, Long itemId) {
-        Long parentId = itemId;
-        while (parentId != null) {
-            if (parentId.equals(subItemId)) return true;
-            parentId = getItem(parentId).getParentId();
-        }
-        return false;
+        return ItemPath.contains(getAncestry(itemId).getPath(), subItemId);
     }
 
     /**
+     * Paths, tree, sums and levels of the whole subtree are shifted by one set-based statement, so every moved
+     * row is written once.
+     *
      * @param itemId      - id of item which parent will be changed
-     * @param newParentId - id of new parent
+     * @param newParentId - id of new parent, the subtree moves to its tree
      */
     private void changeParent(Long itemId, Long newParentId) {
-        Item item = getItem(itemId);
-        item.setParentId(newParentId);
-        item.setLevel(getItem(newParentId).getLevel() + 1);
-        itemsRepository.save(item);
-        refreshSum(item.getId());
+        ItemAncestry item = lockAncestry(itemId);
+        ItemAncestry newParent = lockAncestry(newParentId);
+        String oldPath = item.getPath();
+        String newPath = ItemPath.of(newParent.getPath(), itemId);
+        int sumDelta = newParent.getSum() + item.getValue() - item.getSum();
+        int levelDelta = newParent.getLevel() + 1 - item.getLevel();
+        ItemStats moved = getStats(itemId);
+        OperationTrace.subtree(moved);
+        List<Long> oldAncestorIds = excludeFromAncestors(moved, oldPath);
+        itemsRepository.updateParentId(itemId, newParentId);
+        itemsRepository.moveSubtree(ItemPath.subtreePattern(oldPath), oldPath.length(), newPath, newParent.getTreeId(), sumDelta, levelDelta);
+        itemNodesRepository.refreshExtremes(oldAncestorIds);
+        itemNodesRepository.includeInAncestors(ItemPath.ids(newParent.getPath()), moved, newParent.getLevel() + 1);
+        itemNodeCache.invalidateSubtree(oldPath);
+        itemNodeCache.invalidateSubtree(newPath);
+        if (!item.getTreeId().equals(newParent.getTreeId())) {
+            // feeds are kept per tree, to mirrors of the old tree the subtree is gone
+            itemChangeLog.record(ItemChange.Type.REMOVE, item.getTreeId(), itemId, ItemPath.parentId(oldPath), item.getValue(), item.getSum());
+        }
+        itemChangeLog.record(ItemChange.Type.MOVE, newParent.getTreeId(), itemId, newParentId, item.getValue(), newParent.getSum() + item.getValue());
     }
 
     /**
@@ -146,55 +785,75 @@ public class ItemsService {
      * @param value  - new value of item
      */
     private void updateValue(Long itemId, Integer value) {
-        Item item = getItem(itemId);
-        item.setValue(value);
-        itemsRepository.save(item);
-        refreshSum(itemId);
+        ItemAncestry item = lockAncestry(itemId);
+        itemsRepository.updateValue(itemId, value);
+        shiftSubtree(item.getPath(), value - item.getValue(), 0);
+        List<Long> chain = ItemPath.ids(item.getPath());
+        Collections.reverse(chain);
+        itemNodesRepository.shiftCountsAndTotals(chain, 0, value - item.getValue());
+        itemNodesRepository.refreshExtremes(chain);
+        itemNodeCache.invalidateSubtree(item.getPath());
+        itemChangeLog.record(ItemChange.Type.UPDATE, item.getTreeId(), itemId, ItemPath.parentId(item.getPath()), value, item.getSum() + value - item.getValue());
     }
 
     /**
-     * @param itemId - id of item which will be refreshed
+     * Takes the subtree of an item out of counts and totals of its ancestors, before the subtree is removed or moved.
+     * Extremes of the ancestors are refreshed once the subtree is gone from under them.
+     *
+     * @param excluded - aggregates of subtree of item
+     * @param path     - path of item
+     * @return ids of ancestors of item, from its parent up
      */
-    private void refreshSum(Long itemId) {
-        Item item = getItem(itemId);
-        item.setSum(calcSum(itemId));
-        itemsRepository.save(item);
-        refreshChildrenSums(itemId);
+    private List<Long> excludeFromAncestors(ItemStats excluded, String path) {
+        List<Long> ancestorIds = ItemPath.ids(path);
+        ancestorIds.remove(ancestorIds.size() - 1);
+        Collections.reverse(ancestorIds);
+        itemNodesRepository.shiftCountsAndTotals(ancestorIds, -excluded.getCount(), -excluded.getTotal());
+        return ancestorIds;
     }
 
     /**
-     * @param parentId - id of item which children sums will be refreshed
+     * Parents in the subtree are detached first, so the database does not check references row by row.
+     *
+     * @param path - path of root of removed subtree
      */
-    private void refreshChildrenSums(Long parentId) {
-        Item parent = getItem(parentId);
-        for (Item item : parent.getChildren()) {
-            refreshSum(item.getId());
-        }
+    private void deleteSubtree(String path) {
+        String pattern = ItemPath.subtreePattern(path);
+        itemNodeCache.invalidateSubtree(path);
+        itemsRepository.detachSubtree(pattern);
+        itemsRepository.deleteSubtree(pattern);
     }
 
     /**
-     * @param itemId - id of item for sum calculating
-     * @return sum of children values and itself value
+     * Adds given deltas to sums and levels of the item and all its descendants in a single statement.
+     *
+     * @param path       - path of subtree root
+     * @param sumDelta   - value to add to every sum
+     * @param levelDelta - value to add to every level
      */
-    private Integer calcSum(Long itemId) {
-        Integer sum = 0;
-        while (itemId != null) {
-            Item item = getItem(itemId);
-            sum += item.getValue();
-            itemId = item.getParentId();
+    private void shiftSubtree(String path, int sumDelta, int levelDelta) {
+        if (sumDelta == 0 && levelDelta == 0) return;
+        itemsRepository.shiftSubtree(ItemPath.subtreePattern(path), sumDelta, levelDelta);
+    }
+
+    /**
+     * @param depth  - number of levels of children to read
+     * @param offset - number of children skipped in every children list
+     * @param limit  - max number of children in every children list
+     * @throws UnprocessableEntityException if depth, offset or limit is out of range
+     */
+    protected static void checkTreeSlice(int depth, int offset, int limit) {
+        if (depth < 0 || depth > MAX_TREE_DEPTH || offset < 0 || limit < 1 || limit > MAX_CHILDREN_LIMIT) {
+            throw new UnprocessableEntityException(depth, offset, limit);
         }
-        return sum;
     }
 
     /**
-     * @param parentId - id of parent of item to calc sum
-     * @param value    - value of item
-     * @return sum of children values and itself value
+     * @param size - number of items of a slice read so far together with the children of its last level
+     * @throws UnprocessableEntityException if the slice has more than {@link #MAX_TREE_NODES} items
      */
-    private Integer calcSum(Long parentId, Integer value) {
-        Integer sum = value;
-        sum += calcSum(parentId);
-        return sum;
+    protected static void checkTreeSize(long size, int depth, int offset, int limit) {
+        if (size > MAX_TREE_NODES) throw new UnprocessableEntityException(depth, offset, limit, size);
     }
 
     /**
@@ -205,6 +864,33 @@ public class ItemsService {
         return itemsRepository.findById(id).orElseThrow(() -> new ItemNotFoundException(id));
     }
 
+    /**
+     * @param id - id of item
+     * @return path, value, sum and level of item for given id, served from the node cache when possible
+     * @throws ItemNotFoundException if item for given id does not exist
+     */
+    private ItemAncestry getAncestry(Long id) {
+        return itemNodeCache.get(id, itemsRepository::findAncestryById).orElseThrow(() -> new ItemNotFoundException(id));
+    }
+
+    /**
+     * Reads an item for a write that relies on its path, sum or level, and locks its row if it has not changed
+     * since it was read, so a concurrent write to it either waits for the transaction or is detected.
+     *
+     * @param id - id of item
+     * @return path, value, sum and level of item for given id
+     * @throws ItemNotFoundException                  if item for given id does not exist
+     * @throws ObjectOptimisticLockingFailureException if item has been changed since it was read
+     */
+    private ItemAncestry lockAncestry(Long id) {
+        ItemAncestry item = getAncestry(id);
+        if (itemsRepository.lockVersion(id, item.getVersion()) == 0) {
+            itemNodeCache.invalidateSubtree(item.getPath());
+            throw new ObjectOptimisticLockingFailureException(Item.class, id);
+        }
+        return item;
+    }
+
     /**
      * @param id - id of item to check
      * @return true/false result
@@ -214,10 +900,109 @@ public class ItemsService {
     }
 
     /**
-     * @return count of all items in db
+     * Imported item that may still receive children from the following records.
+     */
+    private static class ImportedAncestor {
+
+        private final Long sourceId;
+        private final long id;
+        private final int sum;
+        private final int level;
+        private final int parentPathLength;
+        private final ItemStats stats;
+
+        private ImportedAncestor(Long sourceId, long id, int sum, int level, int parentPathLength, ItemStats stats) {
+            this.sourceId = sourceId;
+            this.id = id;
+            this.sum = sum;
+            this.level = level;
+            this.parentPathLength = parentPathLength;
+            this.stats = stats;
+        }
+
+    }
+
+    /**
+     * State of a batch being applied: refs, items added but not inserted yet, roots of stale subtrees, items
+     * with stale aggregates and changes to record.
+     */
+    private class Batch {
+
+        private final long treeId;
+        private final Map<String, Long> refs = new HashMap<>();
+        private final Map<Long, ItemAncestry> added = new HashMap<>();
+        private final List<Object[]> inserts = new ArrayList<>();
+        private final Set<Long> dirtyIds = new HashSet<>();
+        private final Set<Long> staleStatsIds = new HashSet<>();
+        private final List<ItemChange> changes = new ArrayList<>();
+        private long nextId;
+
+        private Batch(long treeId, long firstId) {
+            this.treeId = treeId;
+            this.nextId = firstId;
+        }
+
+        /**
+         * Inserts buffered items in one JDBC batch, needed before any statement that may touch them.
+         */
+        private void flushInserts() {
+            if (inserts.isEmpty()) return;
+            itemNodesRepository.insertAll(inserts);
+            inserts.clear();
+            added.clear();
+        }
+
+    }
+
+    /**
+     * Path, sum and level of an item added in a batch and not inserted yet.
      */
-    private long getItemsCount() {
-        return itemsRepository.count();
+    private static class BatchAncestry implements ItemAncestry {
+
+        private final Long treeId;
+        private final String path;
+        private final Integer value;
+        private final Integer sum;
+        private final Integer level;
+
+        private BatchAncestry(Long treeId, String path, Integer value, Integer sum, Integer level) {
+            this.treeId = treeId;
+            this.path = path;
+            this.value = value;
+            this.sum = sum;
+            this.level = level;
+        }
+
+        @Override
+        public Long getTreeId() {
+            return treeId;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public Integer getValue() {
+            return value;
+        }
+
+        @Override
+        public Integer getSum() {
+            return sum;
+        }
+
+        @Override
+        public Integer getLevel() {
+            return level;
+        }
+
+        @Override
+        public Long getVersion() {
+            return 0L;
+        }
+
     }
 
 }
@@ -0,0 +1,323 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import pl.piotrkalitka.TreeMngr.exception.TooManyPendingWritesException;
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
+
+/**
+ * Queue of writes made by {@link InMemoryItemsService}, applied to the database in the order they were made.
+ * Every flush applies up to a batch of writes in a single transaction, with consecutive inserts sent as one JDBC batch.
+ * The queue is bounded: writers wait for room and are rejected if there is none in time, or right away while flushes
+ * keep failing. A failed flush is retried with the same writes first, after a delay that grows with every failure.
+ * Subtree aggregates of the ancestors of every written item are recomputed once per flush, from their children, so
+ * they are exact in the database after every flush. Changes are logged by the flush that applies them.
+ */
+@Component
+@ConditionalOnProperty(name = "treemngr.engine", havingValue = "memory")
+public class ItemsWriteBehind {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ItemsWriteBehind.class);
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    // guarded by itself, waited on by writers while full
+    private final Deque<Object> pending = new ArrayDeque<>();
+    private ItemsRepository itemsRepository;
+    private ItemNodesRepository itemNodesRepository;
+    private ItemChangeLog itemChangeLog;
+    private TransactionTemplate transactionTemplate;
+    private int batchSize;
+    private int maxPending;
+    private long maxWaitMs;
+    private int maxAttempts;
+    private long flushIntervalMs;
+    private volatile int failures;
+    private volatile long retryAt = System.nanoTime();
+
+    @Autowired
+    public ItemsWriteBehind(ItemsRepository itemsRepository, ItemNodesRepository itemNodesRepository, ItemChangeLog itemChangeLog,
+                            PlatformTransactionManager transactionManager, @Value("${treemngr.engine.flush-batch-size:5000}") int batchSize,
+                            @Value("${treemngr.engine.max-pending:1000000}") int maxPending,
+                            @Value("${treemngr.engine.max-wait-ms:5000}") long maxWaitMs,
+                            @Value("${treemngr.engine.flush-max-attempts:5}") int maxAttempts,
+                            @Value("${treemngr.engine.flush-interval-ms:100}") long flushIntervalMs) {
+        this.itemsRepository = itemsRepository;
+        this.itemNodesRepository = itemNodesRepository;
+        this.itemChangeLog = itemChangeLog;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.maxWaitMs = maxWaitMs;
+        this.maxAttempts = maxAttempts;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * Waits until there is room for more writes. Called before the in-memory tree is changed, so a rejected write
+     * leaves both the tree and the queue as they were. A single write may still take the queue over its bound.
+     *
+     * @throws TooManyPendingWritesException if the queue stays full for too long or flushes keep failing
+     */
+    public void awaitCapacity() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        synchronized (pending) {
+            while (pending.size() >= maxPending || failures >= maxAttempts) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || failures >= maxAttempts) throw new TooManyPendingWritesException(pending.size());
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(pending, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TooManyPendingWritesException(pending.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param treeId   - id of tree of new item
+     * @param id       - id of new item
+     * @param parentId - id of parent or null for first item
+     * @param value    - value of new item
+     * @param sum      - sum of new item
+     * @param level    - level of new item
+     * @param path     - path of new item
+     */
+    public void insert(long treeId, long id, @Nullable Long parentId, int value, int sum, int level, String path) {
+        enqueue(new PendingInsert(new Object[]{id, parentId, value, sum, level, path, treeId}));
+    }
+
+    /**
+     * @param id       - id of item
+     * @param value    - new value of item
+     * @param path     - path of item
+     * @param sumDelta - difference between new and old value
+     */
+    public void updateValue(long id, int value, String path, int sumDelta) {
+        enqueue(new PendingUpdate(repository -> {
+            repository.updateValue(id, value);
+            repository.shiftSubtree(ItemPath.subtreePattern(path), sumDelta, 0);
+        }, ItemPath.ids(path)));
+    }
+
+    /**
+     * @param treeId     - id of tree of moved item
+     * @param id         - id of moved item
+     * @param parentId   - id of new parent
+     * @param oldPath    - path of item before move
+     * @param newPath    - path of item after move
+     * @param sumDelta   - difference between new and old sum of item
+     * @param levelDelta - difference between new and old level of item
+     */
+    public void move(long treeId, long id, long parentId, String oldPath, String newPath, int sumDelta, int levelDelta) {
+        List<Long> staleStatsIds = ancestorIds(oldPath);
+        staleStatsIds.addAll(ancestorIds(newPath));
+        enqueue(new PendingUpdate(repository -> {
+            repository.updateParentId(id, parentId);
+            repository.moveSubtree(ItemPath.subtreePattern(oldPath), oldPath.length(), newPath, treeId, sumDelta, levelDelta);
+        }, staleStatsIds));
+    }
+
+    /**
+     * @param path - path of removed subtree root
+     */
+    public void remove(String path) {
+        enqueue(new PendingUpdate(repository -> {
+            repository.detachSubtree(ItemPath.subtreePattern(path));
+            repository.deleteSubtree(ItemPath.subtreePattern(path));
+        }, ancestorIds(path)));
+    }
+
+    /**
+     * @param type     - type of change
+     * @param treeId   - id of tree of changed item
+     * @param itemId   - id of changed item
+     * @param parentId - id of parent of item after the change
+     * @param value    - value of item after the change
+     * @param sum      - sum of item after the change
+     */
+    public void change(ItemChange.Type type, long treeId, long itemId, @Nullable Long parentId, int value, int sum) {
+        enqueue(new ItemChange(type, treeId, itemId, parentId, value, sum));
+    }
+
+    /**
+     * @return number of writes waiting for flush
+     */
+    public int pendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Applies pending writes unless a failed flush is waiting for its retry.
+     */
+    @Scheduled(fixedDelayString = "${treemngr.engine.flush-interval-ms:100}")
+    public void flushDue() {
+        if (System.nanoTime() - retryAt >= 0) flush();
+    }
+
+    /**
+     * Applies all pending writes, stops at the first batch that fails and keeps it at the head of the queue.
+     */
+    @PreDestroy
+    public synchronized void flush() {
+        List<Object> batch;
+        while (!(batch = poll()).isEmpty()) {
+            try {
+                apply(batch);
+            } catch (RuntimeException e) {
+                requeue(batch);
+                failed(batch.size(), e);
+                return;
+            }
+            if (failures >= maxAttempts) LOGGER.info("Write-behind flush succeeded again, accepting writes");
+            failures = 0;
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Delays the next scheduled flush, twice as long as the previous one up to a minute, and rejects writers once
+     * the number of failures in a row reaches max attempts.
+     *
+     * @param size - number of writes in failed batch
+     * @param e    - cause of failure
+     */
+    private void failed(int size, RuntimeException e) {
+        int failed = ++failures;
+        long delayMs = Math.min(MAX_RETRY_DELAY_MS, flushIntervalMs << Math.min(failed, 20));
+        retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        if (failed < maxAttempts) {
+            LOGGER.warn("Write-behind flush of {} writes failed {} times, retrying in {} ms", size, failed, delayMs, e);
+            return;
+        }
+        LOGGER.error("Write-behind flush of {} writes failed {} times, rejecting writes until it succeeds, retrying in {} ms",
+                size, failed, delayMs, e);
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * @param batch - writes to apply in a single transaction
+     */
+    private void apply(List<Object> batch) {
+        transactionTemplate.execute(status -> {
+            List<Object[]> inserts = new ArrayList<>();
+            Set<Long> staleStatsIds = new HashSet<>();
+            for (Object write : batch) {
+                if (write instanceof PendingInsert) {
+                    Object[] row = ((PendingInsert) write).row;
+                    inserts.add(row);
+                    staleStatsIds.addAll(ancestorIds((String) row[5]));
+                } else if (write instanceof ItemChange) {
+                    // appended to the log at commit, so it does not have to break a batch of inserts
+                    ItemChange change = (ItemChange) write;
+                    itemChangeLog.record(change.getType(), change.getTreeId(), change.getItemId(), change.getParentId(), change.getValue(), change.getSum());
+                } else {
+                    insertAll(inserts);
+                    ((PendingUpdate) write).statements.accept(itemsRepository);
+                    staleStatsIds.addAll(((PendingUpdate) write).staleStatsIds);
+                }
+            }
+            insertAll(inserts);
+            itemNodesRepository.refreshStats(staleStatsIds);
+            return null;
+        });
+    }
+
+    /**
+     * @param path - path of item
+     * @return ids of ancestors of item, whose aggregates a write of the item makes stale
+     */
+    private static List<Long> ancestorIds(String path) {
+        List<Long> ids = ItemPath.ids(path);
+        ids.remove(ids.size() - 1);
+        return ids;
+    }
+
+    private void insertAll(List<Object[]> inserts) {
+        if (inserts.isEmpty()) return;
+        itemNodesRepository.insertAll(inserts);
+        inserts.clear();
+    }
+
+    private void enqueue(Object write) {
+        synchronized (pending) {
+            pending.addLast(write);
+        }
+    }
+
+    private List<Object> poll() {
+        List<Object> batch = new ArrayList<>();
+        synchronized (pending) {
+            while (batch.size() < batchSize && !pending.isEmpty()) {
+                batch.add(pending.pollFirst());
+            }
+        }
+        return batch;
+    }
+
+    private void requeue(List<Object> batch) {
+        synchronized (pending) {
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                pending.addFirst(batch.get(i));
+            }
+        }
+    }
+
+    /**
+     * Write other than an insert, with ids of items whose aggregates it makes stale.
+     */
+    private static final class PendingUpdate {
+
+        private final Consumer<ItemsRepository> statements;
+        private final List<Long> staleStatsIds;
+
+        private PendingUpdate(Consumer<ItemsRepository> statements, List<Long> staleStatsIds) {
+            this.statements = statements;
+            this.staleStatsIds = staleStatsIds;
+        }
+
+    }
+
+    /**
+     * Insert kept apart from other writes, so consecutive inserts can be sent as one JDBC batch.
+     */
+    private static final class PendingInsert {
+
+        private final Object[] row;
+
+        private PendingInsert(Object[] row) {
+            this.row = row;
+        }
+
+    }
+
+}
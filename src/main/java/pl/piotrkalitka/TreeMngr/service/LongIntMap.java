@@ -0,0 +1,106 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values, without boxing. Not thread safe.
+ */
+final class LongIntMap {
+
+    static final int MISSING = -1;
+
+    private static final long FREE = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * @param key - key to look up
+     * @return value for given key or {@link #MISSING}
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return values[i];
+            if (keys[i] == FREE) return MISSING;
+        }
+    }
+
+    /**
+     * @param key   - key, must not be Long.MIN_VALUE
+     * @param value - value, must not be negative
+     */
+    void put(long key, int value) {
+        if (size + 1 > keys.length * LOAD_FACTOR) resize();
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == FREE) size++;
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * @param key - key to remove
+     */
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == FREE) return;
+            i = (i + 1) & mask;
+        }
+        keys[i] = FREE;
+        size--;
+        // shift back following entries of the same probe sequence so lookups never stop at the freed bucket
+        for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int home = index(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                keys[j] = FREE;
+                i = j;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes held by backing arrays
+     */
+    long estimatedBytes() {
+        return (long) keys.length * Long.BYTES + (long) values.length * Integer.BYTES;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, FREE);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int index(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+}
@@ -0,0 +1,102 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records latency, statements, written rows, loaded entities and touched subtree of every public {@link ItemsService}
+ * operation, tagged by operation name. Ordered first, so retries of a conflicting write count as one operation.
+ * Operations running more statements than treemngr.metrics.warn-statements are logged with their arguments.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class OperationMetricsAspect {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OperationMetricsAspect.class);
+
+    private MeterRegistry meterRegistry;
+    private long warnStatements;
+
+    @Autowired
+    public OperationMetricsAspect(MeterRegistry meterRegistry, @Value("${treemngr.metrics.warn-statements:100}") long warnStatements) {
+        this.meterRegistry = meterRegistry;
+        this.warnStatements = warnStatements;
+    }
+
+    @Around("execution(public * pl.piotrkalitka.TreeMngr.service.ItemsService+.*(..))")
+    public Object measure(ProceedingJoinPoint joinPoint) throws Throwable {
+        OperationTrace trace = OperationTrace.start();
+        if (trace == null) return joinPoint.proceed();
+
+        String operation = joinPoint.getSignature().getName();
+        String outcome = "error";
+        long start = System.nanoTime();
+        try {
+            Object result = joinPoint.proceed();
+            outcome = "success";
+            return result;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            trace.finish();
+            record(operation, outcome, nanos, trace);
+            if (trace.getStatements() > warnStatements) {
+                LOGGER.warn("{}({}) ran {} statements in {} ms, wrote {} rows, loaded {} entities, touched subtree of {} items and {} levels",
+                        operation, describe(joinPoint.getArgs()), trace.getStatements(), TimeUnit.NANOSECONDS.toMillis(nanos),
+                        trace.getRowsWritten(), trace.getEntitiesLoaded(), trace.getSubtreeSize(), trace.getSubtreeDepth());
+            }
+        }
+    }
+
+    private void record(String operation, String outcome, long nanos, OperationTrace trace) {
+        Timer.builder("treemngr.operation")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        summary("treemngr.operation.statements", operation).record(trace.getStatements());
+        summary("treemngr.operation.rows.written", operation).record(trace.getRowsWritten());
+        summary("treemngr.operation.entities.loaded", operation).record(trace.getEntitiesLoaded());
+        if (trace.getSubtreeSize() > 0) {
+            summary("treemngr.operation.subtree.size", operation).record(trace.getSubtreeSize());
+            summary("treemngr.operation.subtree.depth", operation).record(trace.getSubtreeDepth());
+        }
+    }
+
+    private DistributionSummary summary(String name, String operation) {
+        return DistributionSummary.builder(name)
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param args - arguments of operation
+     * @return arguments for the log, collections by their size only
+     */
+    private static String describe(Object[] args) {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (Object arg : args) {
+            joiner.add(arg instanceof Collection ? ((Collection<?>) arg).size() + " elements" : String.valueOf(arg));
+        }
+        return joiner.toString();
+    }
+
+}
@@ -0,0 +1,91 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.springframework.lang.Nullable;
+
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+
+/**
+ * Counters of the {@link ItemsService} operation running on the current thread: statements sent to the database,
+ * rows they wrote, entities Hibernate loaded and the largest subtree the operation moved, copied or removed.
+ * Counting outside of an operation does nothing. Read by {@link OperationMetricsAspect} once the operation ends.
+ */
+public final class OperationTrace {
+
+    private static final ThreadLocal<OperationTrace> CURRENT = new ThreadLocal<>();
+
+    private long statements;
+    private long rowsWritten;
+    private long entitiesLoaded;
+    private long subtreeSize;
+    private int subtreeDepth;
+
+    private OperationTrace() {
+    }
+
+    /**
+     * @return trace of a new operation or null if an operation is already traced on the current thread
+     */
+    @Nullable
+    static OperationTrace start() {
+        if (CURRENT.get() != null) return null;
+        OperationTrace trace = new OperationTrace();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Ends the trace of the current operation.
+     */
+    void finish() {
+        CURRENT.remove();
+    }
+
+    public static void statement() {
+        OperationTrace trace = CURRENT.get();
+        if (trace != null) trace.statements++;
+    }
+
+    /**
+     * @param rows - number of rows written by a statement
+     */
+    public static void rowsWritten(long rows) {
+        OperationTrace trace = CURRENT.get();
+        if (trace != null) trace.rowsWritten += rows;
+    }
+
+    public static void entityLoaded() {
+        OperationTrace trace = CURRENT.get();
+        if (trace != null) trace.entitiesLoaded++;
+    }
+
+    /**
+     * @param stats - aggregates of a subtree moved, copied or removed by the operation
+     */
+    public static void subtree(ItemStats stats) {
+        OperationTrace trace = CURRENT.get();
+        if (trace == null) return;
+        trace.subtreeSize = Math.max(trace.subtreeSize, stats.getCount());
+        trace.subtreeDepth = Math.max(trace.subtreeDepth, stats.getDepth());
+    }
+
+    public long getStatements() {
+        return statements;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getEntitiesLoaded() {
+        return entitiesLoaded;
+    }
+
+    public long getSubtreeSize() {
+        return subtreeSize;
+    }
+
+    public int getSubtreeDepth() {
+        return subtreeDepth;
+    }
+
+}
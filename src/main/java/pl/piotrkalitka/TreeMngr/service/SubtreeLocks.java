@@ -0,0 +1,112 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.repository.ItemAncestry;
+import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
+
+/**
+ * Striped locks in two levels. Every tree maps to a tree stripe, which writes within the tree share and writes to
+ * the first item of the tree, or to the tree as a whole, hold exclusively, as the sum of the first item is part of
+ * every other sum. Every child of a first item roots a subtree whose writes also take one subtree stripe, so writes
+ * to disjoint subtrees run in parallel, and a write holding a whole tree does not stop writes to other trees.
+ * Locks only serialize writes within this instance; conflicts with other instances are detected by item versions.
+ */
+@Component
+public class SubtreeLocks {
+
+    private final ReentrantReadWriteLock[] treeStripes;
+    private final ReentrantLock[] stripes;
+    private ItemsRepository itemsRepository;
+    private ItemNodeCache itemNodeCache;
+
+    @Autowired
+    public SubtreeLocks(@Value("${treemngr.writes.lock-stripes:64}") int stripes, ItemsRepository itemsRepository,
+                        ItemNodeCache itemNodeCache) {
+        this.treeStripes = new ReentrantReadWriteLock[stripes];
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.treeStripes[i] = new ReentrantReadWriteLock();
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.itemsRepository = itemsRepository;
+        this.itemNodeCache = itemNodeCache;
+    }
+
+    /**
+     * Locks tree stripes and then subtree stripes, both in ascending order, so two writes never wait for each other.
+     *
+     * @param treeIds - ids of trees written as a whole
+     * @param itemIds - ids of items whose subtrees are written, all trees are locked if neither a tree nor
+     *                an existing item is given
+     * @return held locks, to be passed to {@link #release(List)}
+     */
+    public List<Lock> acquire(List<Long> treeIds, List<Long> itemIds) {
+        // tree stripes, true if held exclusively
+        TreeMap<Integer, Boolean> trees = new TreeMap<>();
+        TreeSet<Integer> subtrees = new TreeSet<>();
+        for (Long treeId : treeIds) {
+            trees.put(stripe(treeId), true);
+        }
+        for (Long itemId : itemIds) {
+            Optional<ItemAncestry> item = itemNodeCache.get(itemId, itemsRepository::findAncestryById);
+            if (!item.isPresent()) continue;
+            int tree = stripe(item.get().getTreeId());
+            List<Long> pathIds = ItemPath.ids(item.get().getPath());
+            if (pathIds.size() < 2) {
+                trees.put(tree, true);
+            } else {
+                trees.putIfAbsent(tree, false);
+                subtrees.add(stripe(pathIds.get(1)));
+            }
+        }
+        if (trees.isEmpty()) {
+            for (int i = 0; i < treeStripes.length; i++) {
+                trees.put(i, true);
+            }
+        }
+
+        List<Lock> locked = new ArrayList<>(trees.size() + subtrees.size());
+        for (Map.Entry<Integer, Boolean> tree : trees.entrySet()) {
+            ReentrantReadWriteLock lock = treeStripes[tree.getKey()];
+            locked.add(tree.getValue() ? lock.writeLock() : lock.readLock());
+            locked.get(locked.size() - 1).lock();
+        }
+        for (int subtree : subtrees) {
+            locked.add(stripes[subtree]);
+            locked.get(locked.size() - 1).lock();
+        }
+        return locked;
+    }
+
+    /**
+     * @param locked - locks returned by {@link #acquire(List, List)}
+     */
+    public void release(List<Lock> locked) {
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            locked.get(i).unlock();
+        }
+    }
+
+    /**
+     * @param id - id of tree or of subtree root
+     * @return index of its stripe
+     */
+    private int stripe(Long id) {
+        return Math.floorMod(id.hashCode(), stripes.length);
+    }
+
+}
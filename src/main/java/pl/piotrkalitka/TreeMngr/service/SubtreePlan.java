@@ -0,0 +1,206 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+
+/**
+ * Sums, levels and optionally paths of a subtree as read by {@link pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository#findSubtree},
+ * planned from the sum, level and path of the parent of its root. Siblings depend on their parent only, so the items
+ * are ordered in pre-order, where every subtree is a range, and ranges of siblings are planned on the common fork-join
+ * pool. A range holding one subtree plans its root and goes on with the range of its children in a loop, so the stack
+ * depth does not grow with the depth of the subtree.
+ */
+final class SubtreePlan {
+
+    static final int SPLIT_THRESHOLD = 16384;
+
+    private final List<ItemNode> nodes;
+    private final int parentSum;
+    private final int parentLevel;
+    @Nullable
+    private final String parentPath;
+    private final long firstId;
+    private final int[] parents;
+    private final int[] order;
+    private final int[] ends;
+    private final int[] sums;
+    private final int[] levels;
+    @Nullable
+    private final String[] paths;
+
+    private SubtreePlan(List<ItemNode> nodes, int parentSum, int parentLevel, @Nullable String parentPath, long firstId) {
+        this.nodes = nodes;
+        this.parentSum = parentSum;
+        this.parentLevel = parentLevel;
+        this.parentPath = parentPath;
+        this.firstId = firstId;
+        this.parents = new int[nodes.size()];
+        this.order = new int[nodes.size()];
+        this.ends = new int[nodes.size()];
+        this.sums = new int[nodes.size()];
+        this.levels = new int[nodes.size()];
+        this.paths = parentPath == null ? null : new String[nodes.size()];
+    }
+
+    /**
+     * Small subtrees are planned by the calling thread, larger ones on the common fork-join pool.
+     *
+     * @param nodes       - subtree root and its descendants, every parent before its children
+     * @param parentSum   - sum of the parent of subtree root, 0 for the first item of a tree
+     * @param parentLevel - level of the parent of subtree root, -1 for the first item of a tree
+     * @param parentPath  - path of the parent of subtree root if paths are planned as well, null otherwise
+     * @param firstId     - id of the first item if paths are planned, the item at index i gets firstId + i
+     * @return planned subtree
+     */
+    static SubtreePlan of(List<ItemNode> nodes, int parentSum, int parentLevel, @Nullable String parentPath, long firstId) {
+        SubtreePlan plan = new SubtreePlan(nodes, parentSum, parentLevel, parentPath, firstId);
+        plan.order();
+        Task task = plan.new Task(0, nodes.size());
+        if (nodes.size() <= SPLIT_THRESHOLD) task.compute();
+        else ForkJoinPool.commonPool().invoke(task);
+        return plan;
+    }
+
+    /**
+     * @param index - index of item in the planned list
+     * @return index of its parent or {@link LongIntMap#MISSING} for subtree root
+     */
+    int parent(int index) {
+        return parents[index];
+    }
+
+    int sum(int index) {
+        return sums[index];
+    }
+
+    int level(int index) {
+        return levels[index];
+    }
+
+    String path(int index) {
+        return paths[index];
+    }
+
+    /**
+     * Finds parents by id and lays the items out in pre-order, with the end of the subtree of every position.
+     */
+    private void order() {
+        int size = nodes.size();
+        LongIntMap indexes = new LongIntMap(size);
+        int[] childOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            ItemNode node = nodes.get(i);
+            parents[i] = i == 0 ? LongIntMap.MISSING : indexes.get(node.getParentId());
+            if (i > 0) childOffsets[parents[i] + 1]++;
+            indexes.put(node.getId(), i);
+        }
+        for (int i = 0; i < size; i++) {
+            childOffsets[i + 1] += childOffsets[i];
+        }
+        int[] children = new int[Math.max(0, size - 1)];
+        int[] filled = new int[size];
+        for (int i = 1; i < size; i++) {
+            children[childOffsets[parents[i]] + filled[parents[i]]++] = i;
+        }
+        int[] subtreeSizes = filled;
+        for (int i = 0; i < size; i++) {
+            subtreeSizes[i] = 1;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            subtreeSizes[parents[i]] += subtreeSizes[i];
+        }
+
+        int[] stack = new int[size];
+        int depth = 0;
+        if (size > 0) stack[depth++] = 0;
+        for (int position = 0; depth > 0; position++) {
+            int index = stack[--depth];
+            order[position] = index;
+            ends[position] = position + subtreeSizes[index];
+            for (int child = childOffsets[index + 1] - 1; child >= childOffsets[index]; child--) {
+                stack[depth++] = children[child];
+            }
+        }
+    }
+
+    /**
+     * Plans a range of positions whose items outside of it have their parents planned already.
+     */
+    private void plan(int from, int to) {
+        for (int position = from; position < to; position++) {
+            int index = order[position];
+            int parent = parents[index];
+            int value = nodes.get(index).getValue();
+            sums[index] = (parent == LongIntMap.MISSING ? parentSum : sums[parent]) + value;
+            levels[index] = (parent == LongIntMap.MISSING ? parentLevel : levels[parent]) + 1;
+            if (paths != null) paths[index] = ItemPath.of(parent == LongIntMap.MISSING ? parentPath : paths[parent], firstId + index);
+        }
+    }
+
+    /**
+     * Plans a range of positions holding whole subtrees of siblings.
+     */
+    private class Task extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+
+        private Task(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            List<Task> forked = new ArrayList<>();
+            int from = this.from;
+            int to = this.to;
+            while (to - from > SPLIT_THRESHOLD) {
+                if (ends[from] == to) {
+                    plan(from, from + 1);
+                    from++;
+                    continue;
+                }
+                int split = split(from, to);
+                if (split - from <= SPLIT_THRESHOLD) {
+                    plan(from, split);
+                    from = split;
+                } else if (to - split <= SPLIT_THRESHOLD) {
+                    plan(split, to);
+                    to = split;
+                } else {
+                    Task right = new Task(split, to);
+                    right.fork();
+                    forked.add(right);
+                    to = split;
+                }
+            }
+            plan(from, to);
+            for (Task task : forked) {
+                task.join();
+            }
+        }
+
+        /**
+         * @return boundary between siblings closest after the middle of the range, or before it if the last sibling
+         * covers the middle
+         */
+        private int split(int from, int to) {
+            int middle = (from + to) >>> 1;
+            int sibling = from;
+            while (ends[sibling] < middle) {
+                sibling = ends[sibling];
+            }
+            return ends[sibling] < to ? ends[sibling] : sibling;
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+
+/**
+ * Aggregates of a subtree of the {@link InMemoryTree}, computed over its slots in pre-order. The task splits
+ * the range of slots, not the tree, so parts are equal whatever the shape of the subtree, a chain as much as
+ * a wide tree, and the stack depth only grows with the logarithm of the subtree size. Every part resolves the
+ * levels of its own slots, so the walk of the subtree is split as well, not only the reduction.
+ */
+class SubtreeStatsTask extends RecursiveTask<ItemStats> {
+
+    static final int SPLIT_THRESHOLD = 16384;
+
+    private final InMemoryTree tree;
+    private final long id;
+    private final int[] slots;
+    private final int[] levels;
+    private final int rootLevel;
+    private final int from;
+    private final int to;
+
+    private SubtreeStatsTask(InMemoryTree tree, long id, int[] slots, int[] levels, int rootLevel, int from, int to) {
+        this.tree = tree;
+        this.id = id;
+        this.slots = slots;
+        this.levels = levels;
+        this.rootLevel = rootLevel;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Small subtrees are aggregated by the calling thread, larger ones on the common fork-join pool. The caller
+     * has to hold the tree unchanged until the result is returned.
+     *
+     * @param tree  - tree holding the subtree
+     * @param id    - id of subtree root
+     * @param slots - slots of the subtree in pre-order, starting with its root
+     * @return aggregates of the subtree
+     */
+    static ItemStats compute(InMemoryTree tree, long id, int[] slots) {
+        SubtreeStatsTask task = new SubtreeStatsTask(tree, id, slots, new int[slots.length], tree.level(slots[0]), 0, slots.length);
+        return slots.length <= SPLIT_THRESHOLD ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+    }
+
+    @Override
+    protected ItemStats compute() {
+        if (to - from <= SPLIT_THRESHOLD) {
+            tree.resolveLevels(slots, from, to, levels);
+            ItemStats stats = new ItemStats(id);
+            for (int i = from; i < to; i++) {
+                stats.add(tree.value(slots[i]));
+                stats.setDepth(Math.max(stats.getDepth(), levels[i] - rootLevel));
+            }
+            return stats;
+        }
+        int middle = (from + to) >>> 1;
+        SubtreeStatsTask right = new SubtreeStatsTask(tree, id, slots, levels, rootLevel, middle, to);
+        right.fork();
+        ItemStats stats = new SubtreeStatsTask(tree, id, slots, levels, rootLevel, from, middle).compute();
+        stats.merge(right.join());
+        return stats;
+    }
+
+}
@@ -0,0 +1,17 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a write of {@link ItemsService} that has to hold {@link SubtreeLocks} of the items it touches and that is
+ * retried on concurrency conflicts. Long arguments are taken as ids of those items, as are ids of items and parents
+ * batch operations refer to. {@link TreeId} arguments are ids of trees written as a whole, held only if no item is
+ * given or a batch operation adds the first item. A write without any tree or existing item locks all trees.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SubtreeWrite {
+}
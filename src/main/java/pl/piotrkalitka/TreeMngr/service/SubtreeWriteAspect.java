@@ -0,0 +1,102 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+
+/**
+ * Runs {@link SubtreeWrite} methods under their subtree locks and retries them on concurrency conflicts. Ordered
+ * before the transaction interceptor, so locks are held until commit and every attempt runs in a new transaction.
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class SubtreeWriteAspect {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubtreeWriteAspect.class);
+
+    private SubtreeLocks subtreeLocks;
+    private int maxAttempts;
+
+    @Autowired
+    public SubtreeWriteAspect(SubtreeLocks subtreeLocks, @Value("${treemngr.writes.max-attempts:5}") int maxAttempts) {
+        this.subtreeLocks = subtreeLocks;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Around("@annotation(pl.piotrkalitka.TreeMngr.service.SubtreeWrite)")
+    public Object write(ProceedingJoinPoint joinPoint) throws Throwable {
+        Annotation[][] annotations = ((MethodSignature) joinPoint.getSignature()).getMethod().getParameterAnnotations();
+        Object[] args = joinPoint.getArgs();
+        List<Long> treeIds = new ArrayList<>();
+        List<Long> itemIds = new ArrayList<>();
+        boolean wholeTree = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Long) {
+                if (isTreeId(annotations[i])) treeIds.add((Long) args[i]);
+                else itemIds.add((Long) args[i]);
+            } else if (args[i] instanceof List) {
+                wholeTree |= addOperationIds((List<?>) args[i], itemIds);
+            }
+        }
+        // a tree is locked as a whole only by writes of its first item, anything else locks the subtrees it touches
+        if (!wholeTree && !itemIds.isEmpty()) treeIds.clear();
+
+        for (int attempt = 1; ; attempt++) {
+            List<Lock> locked = subtreeLocks.acquire(treeIds, itemIds);
+            try {
+                return joinPoint.proceed();
+            } catch (ConcurrencyFailureException e) {
+                if (attempt >= maxAttempts) throw e;
+                LOGGER.debug("Write {} conflicted, attempt {} of {}", joinPoint.getSignature().getName(), attempt, maxAttempts, e);
+            } finally {
+                subtreeLocks.release(locked);
+            }
+        }
+    }
+
+    /**
+     * @param operations - argument that may be a list of batch operations
+     * @param itemIds    - ids of written items, get ids of items and parents the operations refer to by id added
+     * @return true if any operation adds the first item of the tree
+     */
+    private static boolean addOperationIds(List<?> operations, List<Long> itemIds) {
+        boolean firstItem = false;
+        for (Object element : operations) {
+            if (!(element instanceof BatchOperation)) continue;
+            BatchOperation operation = (BatchOperation) element;
+            if (operation.getItemId() != null) itemIds.add(operation.getItemId());
+            if (operation.getParentId() != null) itemIds.add(operation.getParentId());
+            firstItem |= operation.getType() == BatchOperation.Type.ADD && operation.getParentId() == null && operation.getParentRef() == null;
+        }
+        return firstItem;
+    }
+
+    /**
+     * @param annotations - annotations of a parameter
+     * @return true if the parameter is the id of a tree
+     */
+    private static boolean isTreeId(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof TreeId) return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,15 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the argument of a {@link SubtreeWrite} that is the id of a tree written as a whole, such as by adding
+ * its first item, rather than the id of an item.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TreeId {
+}
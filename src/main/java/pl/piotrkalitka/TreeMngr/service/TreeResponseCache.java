@@ -0,0 +1,73 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Serialised bodies of tree reads, keyed by the version of the read subtree and the parameters of the read.
+ * The version changes with every write inside the subtree, so an entry is never stale, it just stops being asked
+ * for, and is evicted once the cached bodies exceed the max number of bytes.
+ */
+@Component
+public class TreeResponseCache {
+
+    private final Cache<String, byte[]> cache;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public TreeResponseCache(ObjectMapper objectMapper, @Value("${treemngr.cache.response-max-bytes:67108864}") long maxBytes,
+                             MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .<String, byte[]>weigher((key, body) -> body.length)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "responses");
+    }
+
+    /**
+     * @param key - version of read subtree followed by parameters of the read
+     * @return cached body as JSON or null on a miss
+     */
+    @Nullable
+    public byte[] get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @param key  - version of read subtree followed by parameters of the read, the body has to be read at it
+     * @param body - body to cache
+     * @return body as JSON
+     */
+    public byte[] put(String key, Object body) {
+        byte[] json = serialize(body);
+        cache.put(key, json);
+        return json;
+    }
+
+    /**
+     * @param body - body to serialise
+     * @return body as JSON
+     */
+    private byte[] serialize(Object body) {
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Columnar file with the whole {@link InMemoryTree} in pre-order: ids, parent indexes, values, sums and levels as
+ * parallel arrays, followed by a child-offset index into one array of child indexes. Columns are mapped with
+ * {@link FileChannel#map} and copied in bulk, so loading does not parse rows. The file also holds the sequence
+ * number of the last logged change it reflects, newer changes are replayed from the change log.
+ */
+public class TreeSnapshot {
+
+    private static final int MAGIC = 0x544d5331;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final long changeSeq;
+    private final InMemoryTree tree;
+
+    private TreeSnapshot(long changeSeq, InMemoryTree tree) {
+        this.changeSeq = changeSeq;
+        this.tree = tree;
+    }
+
+    /**
+     * Writes the tree to a temporary file next to the given one and moves it in place, so a crash while writing
+     * leaves the previous snapshot intact.
+     *
+     * @param tree      - tree to write
+     * @param changeSeq - sequence number of the last logged change the tree reflects
+     * @param file      - snapshot file
+     * @throws IOException if writing the file fails
+     */
+    public static void write(InMemoryTree tree, long changeSeq, Path file) throws IOException {
+        int[] slots = tree.rootSlot() == InMemoryTree.NO_SLOT ? new int[0] : tree.subtree(tree.rootSlot());
+        int count = slots.length;
+        int[] sums = new int[count];
+        int[] levels = new int[count];
+        tree.resolve(slots, sums, levels);
+        LongIntMap indexes = new LongIntMap(count);
+        for (int i = 0; i < count; i++) {
+            indexes.put(tree.id(slots[i]), i);
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(changeSeq).putInt(count);
+            header.force();
+
+            long position = HEADER_BYTES;
+            MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) count * Long.BYTES);
+            for (int slot : slots) {
+                column.putLong(tree.id(slot));
+            }
+            position = force(column, position);
+            column = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) count * Integer.BYTES);
+            for (int slot : slots) {
+                long parentId = tree.parentId(slot);
+                column.putInt(parentId == InMemoryTree.NO_PARENT ? InMemoryTree.NO_SLOT : indexes.get(parentId));
+            }
+            position = force(column, position);
+            column = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) count * Integer.BYTES);
+            for (int slot : slots) {
+                column.putInt(tree.value(slot));
+            }
+            position = force(column, position);
+            column = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) count * Integer.BYTES);
+            for (int sum : sums) {
+                column.putInt(sum);
+            }
+            position = force(column, position);
+            column = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) count * Integer.BYTES);
+            for (int level : levels) {
+                column.putInt(level);
+            }
+            position = force(column, position);
+            column = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) (count + 1) * Integer.BYTES);
+            int offset = 0;
+            for (int slot : slots) {
+                column.putInt(offset);
+                offset += tree.childCount(slot);
+            }
+            column.putInt(offset);
+            position = force(column, position);
+            column = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) offset * Integer.BYTES);
+            for (int slot : slots) {
+                for (int index = 0; index < tree.childCount(slot); index++) {
+                    column.putInt(indexes.get(tree.id(tree.child(slot, index))));
+                }
+            }
+            force(column, position);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file - snapshot file
+     * @return tree read from the file with the sequence number of the last change it reflects
+     * @throws IOException if reading the file fails or it is not a snapshot of this version
+     */
+    public static TreeSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Snapshot " + file + " is truncated");
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException(file + " is not a tree snapshot");
+            long changeSeq = header.getLong();
+            int count = header.getInt();
+
+            long position = HEADER_BYTES;
+            if (count < 0 || position + (long) count * Long.BYTES > channel.size()) throw new IOException("Snapshot " + file + " is truncated");
+            long[] ids = new long[count];
+            channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Long.BYTES).asLongBuffer().get(ids);
+            position += (long) count * Long.BYTES;
+            int[] parentIndexes = new int[count];
+            position = readInts(channel, position, parentIndexes);
+            int[] values = new int[count];
+            position = readInts(channel, position, values);
+            int[] sums = new int[count];
+            position = readInts(channel, position, sums);
+            int[] levels = new int[count];
+            position = readInts(channel, position, levels);
+            int[] childOffsets = new int[count + 1];
+            position = readInts(channel, position, childOffsets);
+            int[] childIndexes = new int[childOffsets[count]];
+            position = readInts(channel, position, childIndexes);
+            if (position != channel.size()) throw new IOException("Snapshot " + file + " has unexpected size");
+
+            return new TreeSnapshot(changeSeq, InMemoryTree.ofColumns(ids, parentIndexes, values, sums, levels, childOffsets, childIndexes));
+        }
+    }
+
+    public long getChangeSeq() {
+        return changeSeq;
+    }
+
+    public InMemoryTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @param column   - written column
+     * @param position - position of column in the file
+     * @return position right after the column
+     */
+    private static long force(MappedByteBuffer column, long position) {
+        column.force();
+        return position + column.capacity();
+    }
+
+    /**
+     * @param channel  - snapshot file
+     * @param position - position of column in the file
+     * @param column   - array to fill with the whole column
+     * @return position right after the column
+     * @throws IOException if reading the file fails or it ends before the end of the column
+     */
+    private static long readInts(FileChannel channel, long position, int[] column) throws IOException {
+        long bytes = (long) column.length * Integer.BYTES;
+        if (position + bytes > channel.size()) throw new IOException("Snapshot is truncated");
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+        buffer.asIntBuffer().get(column);
+        return position + bytes;
+    }
+
+}
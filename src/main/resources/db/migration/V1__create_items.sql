@@ -0,0 +1,11 @@
+-- items table as ddl-auto=update created it before migrations, databases created that way are baselined at this version
+create table items (
+    id bigint not null auto_increment,
+    parent_id bigint,
+    value integer not null,
+    sum integer not null,
+    level integer not null,
+    primary key (id)
+);
+
+alter table items add constraint items_parent_id_fk foreign key (parent_id) references items (id);
@@ -0,0 +1,29 @@
+-- columns and tables added by ddl-auto=update since, paths, versions and aggregates of existing rows are filled by ItemPathBackfill
+alter table items add column tree_id bigint default 0 not null;
+alter table items add column path text;
+alter table items add column version bigint;
+alter table items add column subtree_count bigint;
+alter table items add column subtree_total bigint;
+alter table items add column subtree_min integer;
+alter table items add column subtree_max integer;
+alter table items add column subtree_depth integer;
+alter table items add column subtree_version bigint default 0 not null;
+
+create index items_tree_id_parent_id on items (tree_id, parent_id);
+
+create table id_sequences (
+    name varchar(255) not null,
+    next_value bigint not null,
+    primary key (name)
+);
+
+create table item_changes (
+    seq bigint not null,
+    type varchar(255) not null,
+    tree_id bigint default 0 not null,
+    item_id bigint not null,
+    parent_id bigint,
+    value integer not null,
+    sum integer not null,
+    primary key (seq)
+);
@@ -0,0 +1,2 @@
+-- children of a parent in id order with every column of a child list, read from the index alone
+create index items_parent_id_id on items (parent_id, id, value, sum, level);
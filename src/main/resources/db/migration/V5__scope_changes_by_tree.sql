@@ -0,0 +1,10 @@
+-- every tree has its own feed of changes: they are numbered by a sequence row of the tree and read by tree and number
+alter table item_changes drop primary key;
+alter table item_changes add primary key (tree_id, seq);
+
+-- sequences of trees go on from the global one, so numbers already seen by pollers stay valid
+insert into id_sequences (name, next_value)
+    select concat('item_changes/', trees.tree_id), sequence.next_value
+    from (select tree_id from items union select tree_id from item_changes) trees, id_sequences sequence
+    where sequence.name = 'item_changes';
+delete from id_sequences where name = 'item_changes';
@@ -0,0 +1,92 @@
+package pl.piotrkalitka.TreeMngr.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplicaRoutingDataSourceTest {
+
+    private HikariDataSource primary;
+    private HikariDataSource replica;
+    private ReplicaRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate writeTransaction;
+    private TransactionTemplate readTransaction;
+
+    @Before
+    public void setup() {
+        primary = embedded("primary");
+        replica = embedded("replica");
+        routingDataSource = new ReplicaRoutingDataSource(primary, Collections.singletonList(replica), 10, 3600000);
+        jdbcTemplate = new JdbcTemplate(routingDataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(routingDataSource);
+        writeTransaction = new TransactionTemplate(transactionManager);
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+    }
+
+    @After
+    public void cleanup() {
+        routingDataSource.close();
+    }
+
+    @Test
+    public void readOnlyTransactionsGoToReplicaCloseEnoughBehind() {
+        assertThat(readFrom(readTransaction)).isEqualTo("primary");
+
+        setNextChange(primary, 105);
+        setNextChange(replica, 100);
+        routingDataSource.checkReplicas();
+
+        assertThat(readFrom(readTransaction)).isEqualTo("replica");
+        assertThat(readFrom(writeTransaction)).isEqualTo("primary");
+        assertThat(jdbcTemplate.queryForObject("select name from marker", String.class)).isEqualTo("primary");
+    }
+
+    @Test
+    public void readsFallBackToPrimaryWhenReplicaLagsOrFails() {
+        setNextChange(primary, 200);
+        setNextChange(replica, 100);
+        routingDataSource.checkReplicas();
+        assertThat(readFrom(readTransaction)).isEqualTo("primary");
+
+        setNextChange(replica, 195);
+        routingDataSource.checkReplicas();
+        assertThat(readFrom(readTransaction)).isEqualTo("replica");
+
+        new JdbcTemplate(replica).execute("drop table id_sequences");
+        routingDataSource.checkReplicas();
+        assertThat(readFrom(readTransaction)).isEqualTo("primary");
+    }
+
+    private String readFrom(TransactionTemplate transaction) {
+        return transaction.execute(status -> jdbcTemplate.queryForObject("select name from marker", String.class));
+    }
+
+    private static HikariDataSource embedded(String name) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:routing-" + name + "-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setPoolName(name);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table id_sequences (name varchar(255) primary key, next_value bigint not null)");
+        jdbcTemplate.execute("create table marker (name varchar(255) not null)");
+        jdbcTemplate.update("insert into marker (name) values (?)", name);
+        return dataSource;
+    }
+
+    private static void setNextChange(HikariDataSource dataSource, long nextValue) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("delete from id_sequences");
+        jdbcTemplate.update("insert into id_sequences (name, next_value) values ('item_changes/0', ?)", nextValue);
+    }
+
+}
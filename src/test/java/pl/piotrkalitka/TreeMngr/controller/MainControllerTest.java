@@ -9,28 +9,58 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+import pl.piotrkalitka.TreeMngr.model.ItemJob;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+import pl.piotrkalitka.TreeMngr.model.ItemTree;
 import pl.piotrkalitka.TreeMngr.payload.AddItemRequestBody;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+import pl.piotrkalitka.TreeMngr.payload.BatchRequestBody;
 import pl.piotrkalitka.TreeMngr.payload.CopyItemRequestBody;
 import pl.piotrkalitka.TreeMngr.payload.UpdateItemRequestBody;
+import pl.piotrkalitka.TreeMngr.service.ItemChangeLog;
+import pl.piotrkalitka.TreeMngr.service.ItemJobs;
 import pl.piotrkalitka.TreeMngr.service.ItemsService;
+import pl.piotrkalitka.TreeMngr.service.TreeResponseCache;
 
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -41,6 +71,15 @@ public class MainControllerTest {
     @Mock
     private ItemsService itemsService;
 
+    @Mock
+    private ItemJobs itemJobs;
+
+    @Mock
+    private ItemChangeLog itemChangeLog;
+
+    @Spy
+    private TreeResponseCache treeResponseCache = new TreeResponseCache(new ObjectMapper(), 1 << 20, new SimpleMeterRegistry());
+
     @InjectMocks
     private MainController mainController;
 
@@ -56,20 +95,180 @@ public class MainControllerTest {
 
     @Test
     public void getItems() throws Exception {
-        Item subItem1 = new Item();
-        Item subItem2 = new Item();
-        Item subItem3 = new Item();
-        Item item = new Item();
-        item.getChildren().add(subItem1);
-        item.getChildren().add(subItem2);
-        item.getChildren().add(subItem3);
+        ItemTree tree = new ItemTree.Builder(5)
+                .add(1, ItemTree.NO_PARENT, 1, 1, 0)
+                .add(2, 1, 2, 3, 1)
+                .add(5, 2, 5, 8, 2)
+                .add(3, 1, 3, 4, 1)
+                .add(4, 1, 4, 5, 1)
+                .build();
 
-        when(itemsService.getItems()).thenReturn(item);
+        when(itemsService.getVersion(Item.DEFAULT_TREE_ID, null)).thenReturn("1-4");
+        when(itemsService.getItems(Item.DEFAULT_TREE_ID)).thenReturn(tree);
 
         mockMvc
                 .perform(get("/api/"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("children", hasSize(3)));
+                .andExpect(header().string("ETag", "\"1-4\""))
+                .andExpect(jsonPath("parentId").value(nullValue()))
+                .andExpect(jsonPath("children", hasSize(3)))
+                .andExpect(jsonPath("children[0].sum", is(3)))
+                .andExpect(jsonPath("children[0].children[0].id", is(5)))
+                .andExpect(jsonPath("children[0].children[0].level", is(2)))
+                .andExpect(jsonPath("children[2].children", hasSize(0)));
+    }
+
+    @Test
+    public void getItemsNotModified() throws Exception {
+        when(itemsService.getVersion(Item.DEFAULT_TREE_ID, null)).thenReturn("1-4", "1-4", "1-4", "1-5");
+        when(itemsService.getItems(Item.DEFAULT_TREE_ID)).thenReturn(new ItemTree.Builder(1).add(1, ItemTree.NO_PARENT, 1, 1, 0).build());
+
+        mockMvc.perform(get("/api/")).andExpect(status().isOk());
+        mockMvc
+                .perform(get("/api/").header("If-None-Match", "\"1-4\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        mockMvc
+                .perform(get("/api/").header("If-None-Match", "\"1-4\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-5\""))
+                .andExpect(jsonPath("id", is(1)));
+
+        verify(itemsService, times(2)).getItems(Item.DEFAULT_TREE_ID);
+    }
+
+    @Test
+    public void getItemsChangedWhileRead() throws Exception {
+        when(itemsService.getVersion(Item.DEFAULT_TREE_ID, null)).thenReturn("1-4", "1-5");
+        when(itemsService.getItems(Item.DEFAULT_TREE_ID)).thenReturn(new ItemTree.Builder(1).add(1, ItemTree.NO_PARENT, 1, 1, 0).build());
+
+        mockMvc
+                .perform(get("/api/"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("ETag"))
+                .andExpect(jsonPath("id", is(1)));
+        mockMvc
+                .perform(get("/api/"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-5\""));
+
+        verify(itemsService, times(2)).getItems(Item.DEFAULT_TREE_ID);
+    }
+
+    @Test
+    public void streamItems() throws Exception {
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write("{\"id\":1}".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(itemsService).streamItems(eq(Item.DEFAULT_TREE_ID), any());
+
+        MvcResult result = mockMvc.perform(get("/api/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(1)));
+    }
+
+    @Test
+    public void getStats() throws Exception {
+        Long itemId = new Random().nextLong();
+        when(itemsService.getStats(itemId)).thenReturn(new ItemStats(itemId, 3, 12, -3, 10, 2));
+
+        mockMvc
+                .perform(get("/api/" + itemId + "/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count", is(3)))
+                .andExpect(jsonPath("$.total", is(12)))
+                .andExpect(jsonPath("$.min", is(-3)))
+                .andExpect(jsonPath("$.max", is(10)))
+                .andExpect(jsonPath("$.depth", is(2)));
+    }
+
+    @Test
+    public void getChanges() throws Exception {
+        ItemChange change = new ItemChange(ItemChange.Type.ADD, Item.DEFAULT_TREE_ID, 2L, 1L, 5, 6);
+        change.setSeq(8L);
+        when(itemChangeLog.poll(3, 7, 100)).thenReturn(CompletableFuture.completedFuture(Collections.singletonList(change)));
+
+        MvcResult result = mockMvc.perform(get("/api/changes").param("treeId", "3").param("since", "7"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].seq", is(8)))
+                .andExpect(jsonPath("$[0].type", is("ADD")))
+                .andExpect(jsonPath("$[0].sum", is(6)));
+    }
+
+    @Test
+    public void getLastChange() throws Exception {
+        when(itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID)).thenReturn(42L);
+
+        mockMvc
+                .perform(get("/api/changes/last"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.seq", is(42)));
+    }
+
+    @Test
+    public void getTree() throws Exception {
+        Long rootId = new Random().nextLong();
+        ItemNode root = new ItemNode(rootId, null, 1, 1, 0);
+        root.setChildCount(5);
+        root.getChildren().add(new ItemNode(1, rootId, 1, 2, 1));
+        root.getChildren().add(new ItemNode(2, rootId, 1, 2, 1));
+
+        when(itemsService.getVersion(Item.DEFAULT_TREE_ID, rootId)).thenReturn(rootId + "-7");
+        when(itemsService.getTree(Item.DEFAULT_TREE_ID, rootId, 2, 3, 2)).thenReturn(root);
+
+        mockMvc
+                .perform(get("/api/tree")
+                        .param("rootId", rootId.toString())
+                        .param("depth", "2")
+                        .param("offset", "3")
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + rootId + "-7\""))
+                .andExpect(jsonPath("id", is(rootId)))
+                .andExpect(jsonPath("childCount", is(5)))
+                .andExpect(jsonPath("children", hasSize(2)));
+    }
+
+    @Test
+    public void getChildren() throws Exception {
+        Long itemId = new Random().nextLong();
+        ItemNode child = new ItemNode(12, itemId, 1, 2, 1);
+        child.setChildCount(3);
+
+        when(itemsService.getVersion(Item.DEFAULT_TREE_ID, itemId)).thenReturn(itemId + "-4");
+        when(itemsService.getChildren(itemId, 11L, 1)).thenReturn(Collections.singletonList(child));
+
+        mockMvc
+                .perform(get("/api/" + itemId + "/children")
+                        .param("after", "11")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + itemId + "-4\""))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(12)))
+                .andExpect(jsonPath("$[0].childCount", is(3)));
+    }
+
+    @Test
+    public void getPathNodes() throws Exception {
+        Long itemId = new Random().nextLong();
+
+        when(itemsService.getPathNodes(itemId)).thenReturn(Arrays.asList(new ItemNode(1, null, 1, 1, 0), new ItemNode(itemId, 1L, 2, 3, 1)));
+
+        mockMvc
+                .perform(get("/api/" + itemId + "/path"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[1].id", is(itemId)))
+                .andExpect(jsonPath("$[1].sum", is(3)));
     }
 
     @Test
@@ -80,7 +279,7 @@ public class MainControllerTest {
 
         AddItemRequestBody requestBody = new AddItemRequestBody(value);
 
-        when(itemsService.addItem(value)).thenReturn(item);
+        when(itemsService.addFirstItem(Item.DEFAULT_TREE_ID, value)).thenReturn(item);
 
         mockMvc
                 .perform(post("/api/")
@@ -115,6 +314,32 @@ public class MainControllerTest {
 
     }
 
+    @Test
+    public void applyBatch() throws Exception {
+        Long parentId = new Random().nextLong();
+        BatchRequestBody requestBody = new BatchRequestBody(Arrays.asList(
+                new BatchOperation(BatchOperation.Type.ADD, "a", null, null, parentId, null, 1),
+                new BatchOperation(BatchOperation.Type.ADD, null, null, null, null, "a", 2)));
+
+        when(itemsService.applyBatch(eq(Item.DEFAULT_TREE_ID), anyList())).thenReturn(Arrays.asList(10L, 11L));
+
+        mockMvc
+                .perform(post("/api/batch")
+                        .contentType(CONTENT_TYPE)
+                        .content(jsonOf(requestBody)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)));
+    }
+
+    @Test
+    public void applyEmptyBatch() throws Exception {
+        mockMvc
+                .perform(post("/api/batch")
+                        .contentType(CONTENT_TYPE)
+                        .content(jsonOf(new BatchRequestBody(Collections.emptyList()))))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void removeItem() throws Exception {
         Long itemId = new Random().nextLong();
@@ -123,6 +348,35 @@ public class MainControllerTest {
                 .andExpect(status().is2xxSuccessful());
     }
 
+    @Test
+    public void removeItemAsync() throws Exception {
+        Long itemId = new Random().nextLong();
+
+        when(itemJobs.removeItem(itemId)).thenReturn(new ItemJob(7, ItemJob.Type.REMOVE, itemId, null));
+
+        mockMvc.perform(delete("/api/" + itemId).param("async", "true"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("id", is(7)))
+                .andExpect(jsonPath("status", is("QUEUED")));
+    }
+
+    @Test
+    public void getJob() throws Exception {
+        ItemJob job = new ItemJob(3, ItemJob.Type.COPY, 1L, 2L);
+        job.setStatus(ItemJob.Status.RUNNING);
+        job.setTotal(10);
+        job.setDone(4);
+        when(itemJobs.getJob(3)).thenReturn(job);
+
+        mockMvc
+                .perform(get("/api/jobs/3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("type", is("COPY")))
+                .andExpect(jsonPath("status", is("RUNNING")))
+                .andExpect(jsonPath("done", is(4)))
+                .andExpect(jsonPath("total", is(10)));
+    }
+
     @Test
     public void copyItem() throws Exception {
         Long targetId = new Random().nextLong();
@@ -139,6 +393,7 @@ public class MainControllerTest {
         targetItem.setId(targetId);
         targetItem.setValue(sourceItem.getValue());
         targetItem.setLevel(sourceItem.getLevel());
+        targetItem.getChildren().add(new Item());
 
         when(itemsService.copyItem(sourceId, targetId)).thenReturn(targetItem);
 
@@ -150,7 +405,8 @@ public class MainControllerTest {
                         .content(jsonOf(requestBody)))
                 .andExpect(status().is2xxSuccessful())
                 .andExpect(jsonPath("value", is(sourceValue)))
-                .andExpect(jsonPath("level", is(sourceLevel)));
+                .andExpect(jsonPath("level", is(sourceLevel)))
+                .andExpect(jsonPath("children").doesNotExist());
     }
 
     @Test
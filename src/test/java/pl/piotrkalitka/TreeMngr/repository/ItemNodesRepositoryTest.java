@@ -0,0 +1,99 @@
+package pl.piotrkalitka.TreeMngr.repository;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.service.ItemsService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemNodesRepositoryTest {
+
+    @Autowired
+    private ItemNodesRepository itemNodesRepository;
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void findChildren() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item first = itemsService.addItem(2, root.getId());
+        Item second = itemsService.addItem(3, root.getId());
+        Item[] grandChildren = new Item[5];
+        for (int i = 0; i < grandChildren.length; i++) {
+            grandChildren[i] = itemsService.addItem(i, first.getId());
+        }
+
+        List<ItemNode> children = itemNodesRepository.findChildren(Arrays.asList(root.getId(), first.getId()), 1, 2);
+
+        assertThat(children).extracting(ItemNode::getId)
+                .containsExactly(second.getId(), grandChildren[1].getId(), grandChildren[2].getId());
+        assertThat(children.get(1).getSum()).isEqualTo(4);
+        assertThat(children.get(1).getLevel()).isEqualTo(2);
+    }
+
+    @Test
+    public void countChildren() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item first = itemsService.addItem(2, root.getId());
+        itemsService.addItem(3, root.getId());
+        itemsService.addItem(4, first.getId());
+
+        Map<Long, Long> counts = itemNodesRepository.countChildren(Arrays.asList(root.getId(), first.getId()));
+
+        assertThat(counts).containsEntry(root.getId(), 2L).containsEntry(first.getId(), 1L).hasSize(2);
+    }
+
+    @Test
+    public void getTree() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item first = itemsService.addItem(2, root.getId());
+        Item second = itemsService.addItem(3, root.getId());
+        itemsService.addItem(4, first.getId());
+        itemsService.addItem(5, second.getId());
+
+        ItemNode tree = itemsService.getTree(Item.DEFAULT_TREE_ID, null, 1, 1, 10);
+
+        assertThat(tree.getId()).isEqualTo(root.getId());
+        assertThat(tree.getChildCount()).isEqualTo(2);
+        assertThat(tree.getChildren()).extracting(ItemNode::getId).containsExactly(second.getId());
+        assertThat(tree.getChildren().get(0).getChildCount()).isEqualTo(1);
+        assertThat(tree.getChildren().get(0).getChildren()).isEmpty();
+    }
+
+    @Test
+    public void getTreeKeepsRootWithoutParent() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+
+        ItemNode tree = itemsService.getTree(Item.DEFAULT_TREE_ID, null, 1, 0, 10);
+
+        assertThat(tree.getParentId()).isNull();
+        assertThat(tree.getChildren()).extracting(ItemNode::getParentId).containsExactly(root.getId());
+        assertThat(tree.getChildren()).extracting(ItemNode::getId).containsExactly(child.getId());
+    }
+
+}
@@ -0,0 +1,186 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs random value changes, adds and moves from several threads and checks that sums, levels and paths stay
+ * consistent and that no cycle is created. Most writes of a thread stay in its own subtrees, some cross them.
+ * Throughput is measured by ConcurrentWritesBenchmark in src/jmh.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ConcurrentWritesTest {
+
+    private static final int THREADS = 4;
+    private static final int SUBTREES = 16;
+    // added to every subtree by one thread before writes start, so threads do not start on cold code and on single items
+    private static final int SEED_ITEMS = 6;
+    private static final int OPERATIONS_PER_THREAD = 25;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void concurrentWritesKeepTreeConsistent() throws Exception {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        List<List<Long>> subtrees = new ArrayList<>();
+        for (int i = 0; i < SUBTREES; i++) {
+            List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+            ids.add(itemsService.addItem(1, root.getId()).getId());
+            for (int j = 0; j < SEED_ITEMS; j++) {
+                ids.add(itemsService.addItem(1, ids.get(j / 2)).getId());
+            }
+            subtrees.add(ids);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int current = thread;
+            futures.add(executor.submit(() -> runOperations(current, subtrees)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertConsistent();
+    }
+
+    @Test
+    public void slowImportLocksOnlyTheSubtreeItIsImportedUnder() throws Exception {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item importParent = itemsService.addItem(1, root.getId());
+        Item other = itemsService.addItem(1, root.getId());
+        CountDownLatch uploadStarted = new CountDownLatch(1);
+        CountDownLatch uploadDone = new CountDownLatch(1);
+        InputStream upload = new SequenceInputStream(new ByteArrayInputStream("{\"id\":1,\"parentId\":null,\"value\":2}\n".getBytes(StandardCharsets.UTF_8)),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        uploadStarted.countDown();
+                        try {
+                            uploadDone.await();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                        return -1;
+                    }
+                });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Long> imported = executor.submit(() -> itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.NDJSON, upload, importParent.getId()));
+            assertThat(uploadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+
+            executor.submit(() -> itemsService.updateItem(other.getId(), 5, null)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            executor.submit(() -> itemsService.applyBatch(Item.DEFAULT_TREE_ID, Collections.singletonList(
+                    new BatchOperation(BatchOperation.Type.ADD, null, null, null, other.getId(), null, 3)))).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertThat(imported).isNotDone();
+
+            uploadDone.countDown();
+            assertThat(imported.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo(1);
+        } finally {
+            uploadDone.countDown();
+            executor.shutdownNow();
+        }
+
+        assertConsistent();
+    }
+
+    private void runOperations(int thread, List<List<Long>> subtrees) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+            List<Long> own = subtrees.get(thread + THREADS * random.nextInt(SUBTREES / THREADS));
+            Long itemId = randomId(own, random);
+            int kind = random.nextInt(10);
+            try {
+                if (kind < 4) {
+                    itemsService.updateItem(itemId, random.nextInt(100), null);
+                } else if (kind < 7) {
+                    own.add(itemsService.addItem(random.nextInt(100), itemId).getId());
+                } else {
+                    List<Long> target = kind == 9 ? subtrees.get(random.nextInt(SUBTREES)) : own;
+                    itemsService.updateItem(itemId, null, randomId(target, random));
+                }
+            } catch (UnprocessableEntityException e) {
+                // move under own descendant, rejected as expected
+            }
+        }
+    }
+
+    private static Long randomId(List<Long> ids, ThreadLocalRandom random) {
+        synchronized (ids) {
+            return ids.get(random.nextInt(ids.size()));
+        }
+    }
+
+    private void assertConsistent() {
+        Map<Long, Object[]> rows = new HashMap<>();
+        jdbcTemplate.query("select id, parent_id, value, sum, level, path from items", rs -> {
+            long parentId = rs.getLong("parent_id");
+            Long nullableParentId = rs.wasNull() ? null : parentId;
+            rows.put(rs.getLong("id"), new Object[]{nullableParentId, rs.getInt("value"), rs.getInt("sum"),
+                    rs.getInt("level"), rs.getString("path")});
+        });
+
+        assertThat(rows.values().stream().filter(row -> row[0] == null).count()).isEqualTo(1);
+        for (Map.Entry<Long, Object[]> entry : rows.entrySet()) {
+            Object[] row = entry.getValue();
+            if (row[0] == null) {
+                assertThat(row[4]).isEqualTo(ItemPath.of(null, entry.getKey()));
+                continue;
+            }
+            Object[] parent = rows.get(row[0]);
+            assertThat(parent).as("parent of %d", entry.getKey()).isNotNull();
+            assertThat(row[4]).as("path of %d", entry.getKey()).isEqualTo(ItemPath.of((String) parent[4], entry.getKey()));
+            assertThat(row[2]).as("sum of %d", entry.getKey()).isEqualTo((Integer) parent[2] + (Integer) row[1]);
+            assertThat(row[3]).as("level of %d", entry.getKey()).isEqualTo((Integer) parent[3] + 1);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.persistence.EntityManagerFactory;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Copies random subtrees of growing size and checks that round-trips stay constant while copies stay correct.
+ * Time of larger copies is measured by CopyItemBenchmark in src/jmh.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class CopyItemStatementsTest {
+
+    private static final int[] SIZES = {10, 100};
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemNodesRepository itemNodesRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void copyIsBatched() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Random random = new Random(3);
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item target = itemsService.addItem(5, itemsService.addItem(5, root.getId()).getId());
+
+        for (int size : SIZES) {
+            Item source = itemsService.addItem(1, root.getId());
+            List<Long> ids = new ArrayList<>();
+            ids.add(source.getId());
+            for (int i = 1; i < size; i++) {
+                ids.add(itemsService.addItem(random.nextInt(10), ids.get(random.nextInt(ids.size()))).getId());
+            }
+
+            statistics.clear();
+            Item copy = itemsService.copyItem(source.getId(), target.getId());
+
+            List<ItemNode> original = itemNodesRepository.findSubtree(ItemPath.of(ItemPath.of(null, root.getId()), source.getId()));
+            List<ItemNode> copied = itemNodesRepository.findSubtree(copy.getPath());
+            assertThat(copied).hasSize(size);
+            assertThat(copied).extracting(ItemNode::getSum).containsExactlyInAnyOrderElementsOf(sumsShiftedBy(original, 10));
+            assertThat(copied).allMatch(node -> node.getLevel() >= 3);
+            assertThat(statistics.getEntityInsertCount()).isZero();
+            assertThat(statistics.getPrepareStatementCount()).isLessThan(10);
+        }
+    }
+
+    /**
+     * @param nodes - nodes of original subtree
+     * @param shift - difference between sums of the target and the original parent
+     * @return expected sums of copied nodes
+     */
+    private static List<Integer> sumsShiftedBy(List<ItemNode> nodes, int shift) {
+        List<Integer> sums = new ArrayList<>();
+        for (ItemNode node : nodes) {
+            sums.add(node.getSum() + shift);
+        }
+        return sums;
+    }
+
+}
@@ -0,0 +1,117 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "treemngr.engine=memory",
+        "spring.datasource.url=jdbc:h2:mem:treemngr-memory;MODE=MySQL;DB_CLOSE_DELAY=-1"
+})
+@RunWith(SpringRunner.class)
+public class InMemoryItemsServiceTest {
+
+    // latency and memory against the JPA engine are measured by ItemsServiceBenchmark in src/jmh
+    private static final int TREE_SIZE = 500;
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    @Qualifier("itemsService")
+    private ItemsService jpaItemsService;
+
+    @Autowired
+    private ItemsWriteBehind writeBehind;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        writeBehind.flush();
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+        ((InMemoryItemsService) itemsService).load();
+    }
+
+    @Test
+    public void mutationsAreWrittenBehind() {
+        assertThat(itemsService).isInstanceOf(InMemoryItemsService.class);
+
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item first = itemsService.addItem(2, root.getId());
+        Item second = itemsService.addItem(3, root.getId());
+        Item leaf = itemsService.addItem(4, first.getId());
+        itemsService.updateItem(first.getId(), 5, second.getId());
+        Item copy = itemsService.copyItem(second.getId(), root.getId());
+        itemsService.removeItem(leaf.getId());
+
+        assertThat(copy.getSum()).isEqualTo(4);
+        assertThat(copy.getChildren()).isEmpty();
+        assertThat(itemsService.getChildren(copy.getId(), null, 10)).extracting(ItemNode::getSum).containsExactly(9);
+
+        writeBehind.flush();
+        assertThat(writeBehind.pendingCount()).isZero();
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("select id, sum, level, path from items order by id");
+        assertThat(rows).extracting(row -> row.get("SUM")).containsExactly(1, 9, 4, 4, 9, 13);
+        assertThat(rows).extracting(row -> row.get("LEVEL")).containsExactly(0, 2, 1, 1, 2, 3);
+        assertThat(rows.get(1).get("PATH")).isEqualTo("/" + root.getId() + "/" + second.getId() + "/" + first.getId() + "/");
+        for (Map<String, Object> row : rows) {
+            Long id = ((Number) row.get("ID")).longValue();
+            assertThat(jpaItemsService.getStats(id)).isEqualToComparingFieldByField(itemsService.getStats(id));
+        }
+
+        ((InMemoryItemsService) itemsService).load();
+        ItemNode reloaded = itemsService.getTree(Item.DEFAULT_TREE_ID, null, 2, 0, 10);
+        assertThat(reloaded.getChildCount()).isEqualTo(2);
+        assertThat(reloaded.getChildren().get(0).getChildren().get(0).getSum()).isEqualTo(9);
+        assertThat(itemsService.getChildren(root.getId(), second.getId(), 10))
+                .usingFieldByFieldElementComparator()
+                .containsExactlyElementsOf(jpaItemsService.getChildren(root.getId(), second.getId(), 10))
+                .extracting(ItemNode::getId).containsExactly(copy.getId());
+        assertThat(itemsService.getPathNodes(first.getId()))
+                .usingFieldByFieldElementComparator()
+                .containsExactlyElementsOf(jpaItemsService.getPathNodes(first.getId()))
+                .extracting(ItemNode::getSum).containsExactly(1, 4, 9);
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void moveUnderOwnDescendantIsRejected() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(1, root.getId());
+        itemsService.updateItem(root.getId(), null, child.getId());
+    }
+
+    @Test
+    public void treeMatchesJpa() {
+        Random random = new Random(7);
+        List<Long> ids = new ArrayList<>();
+        ids.add(itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1).getId());
+        for (int i = 1; i < TREE_SIZE; i++) {
+            ids.add(itemsService.addItem(random.nextInt(100), ids.get(random.nextInt(ids.size()))).getId());
+        }
+        writeBehind.flush();
+
+        assertThat(((InMemoryItemsService) itemsService).estimatedBytes()).isPositive();
+        assertThat(itemsService.getTree(Item.DEFAULT_TREE_ID, null, 3, 0, 100))
+                .isEqualToComparingFieldByFieldRecursively(jpaItemsService.getTree(Item.DEFAULT_TREE_ID, null, 3, 0, 100));
+    }
+
+}
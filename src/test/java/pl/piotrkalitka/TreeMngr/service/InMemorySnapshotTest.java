@@ -0,0 +1,74 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "treemngr.engine=memory",
+        "treemngr.snapshot.path=target/in-memory-snapshot-test.bin",
+        "treemngr.snapshot.interval-ms=3600000",
+        "spring.datasource.url=jdbc:h2:mem:treemngr-snapshot;MODE=MySQL;DB_CLOSE_DELAY=-1"
+})
+@RunWith(SpringRunner.class)
+public class InMemorySnapshotTest {
+
+    private static final Path SNAPSHOT = Paths.get("target/in-memory-snapshot-test.bin");
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemsWriteBehind writeBehind;
+
+    @Autowired
+    private ItemChangeLog itemChangeLog;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() throws IOException {
+        writeBehind.flush();
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+        Files.deleteIfExists(SNAPSHOT);
+        ((InMemoryItemsService) itemsService).load();
+    }
+
+    @Test
+    public void treeIsLoadedFromSnapshotWithNewerChangesReplayed() throws IOException {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item first = itemsService.addItem(2, root.getId());
+        Item second = itemsService.addItem(3, root.getId());
+        ((InMemoryItemsService) itemsService).writeSnapshot();
+        assertThat(TreeSnapshot.read(SNAPSHOT).getChangeSeq()).isEqualTo(itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID));
+
+        Item leaf = itemsService.addItem(4, first.getId());
+        itemsService.updateItem(first.getId(), 5, second.getId());
+        itemsService.removeItem(leaf.getId());
+        itemsService.addItem(6, first.getId());
+        writeBehind.flush();
+        ItemNode expected = itemsService.getTree(Item.DEFAULT_TREE_ID, null, 3, 0, 10);
+
+        ((InMemoryItemsService) itemsService).load();
+
+        assertThat(itemsService.getTree(Item.DEFAULT_TREE_ID, null, 3, 0, 10)).isEqualToComparingFieldByFieldRecursively(expected);
+        assertThat(expected.getChildren().get(0).getChildren().get(0).getChildren().get(0).getSum()).isEqualTo(15);
+    }
+
+}
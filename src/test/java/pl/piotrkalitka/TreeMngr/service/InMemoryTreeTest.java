@@ -0,0 +1,154 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InMemoryTreeTest {
+
+    @Test
+    public void addKeepsSumsLevelsAndChildOrder() {
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 5);
+        tree.add(3, 1, 2);
+        tree.add(2, 1, 4);
+        int grandChild = tree.add(4, 3, 1);
+
+        int root = tree.rootSlot();
+        assertThat(tree.childCount(root)).isEqualTo(2);
+        assertThat(tree.id(tree.child(root, 0))).isEqualTo(2);
+        assertThat(tree.id(tree.child(root, 1))).isEqualTo(3);
+        assertThat(tree.sum(grandChild)).isEqualTo(8);
+        assertThat(tree.level(grandChild)).isEqualTo(2);
+        assertThat(tree.path(grandChild)).isEqualTo("/1/3/4/");
+        assertThat(tree.childIndexAfter(root, 2)).isEqualTo(1);
+        assertThat(tree.childIndexAfter(root, 0)).isEqualTo(0);
+        assertThat(tree.childIndexAfter(root, 3)).isEqualTo(2);
+    }
+
+    @Test
+    public void setValueShiftsSubtreeSums() {
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 1);
+        tree.add(2, 1, 1);
+        int leaf = tree.add(3, 2, 1);
+
+        assertThat(tree.setValue(2, 11)).isEqualTo(10);
+        assertThat(tree.sum(leaf)).isEqualTo(13);
+    }
+
+    @Test
+    public void valuesResolvedByReadsAreDroppedByNextWrite() {
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 1);
+        int middle = tree.add(2, 1, 1);
+        int leaf = tree.add(3, 2, 1);
+        tree.add(4, 1, 1);
+
+        tree.setValue(1, 2);
+        assertThat(tree.sum(middle)).isEqualTo(3);
+        assertThat(tree.sum(leaf)).isEqualTo(4);
+        tree.move(2, 4);
+        assertThat(tree.sum(leaf)).isEqualTo(5);
+        assertThat(tree.level(leaf)).isEqualTo(3);
+        assertThat(tree.sum(middle)).isEqualTo(4);
+        assertThat(tree.level(middle)).isEqualTo(2);
+    }
+
+    @Test
+    public void moveShiftsSubtreeSumsAndLevels() {
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 1);
+        tree.add(2, 1, 10);
+        tree.add(3, 2, 10);
+        tree.add(4, 1, 1);
+        int leaf = tree.add(5, 4, 1);
+
+        tree.move(4, 3);
+
+        assertThat(tree.sum(leaf)).isEqualTo(23);
+        assertThat(tree.level(leaf)).isEqualTo(4);
+        assertThat(tree.path(leaf)).isEqualTo("/1/2/3/4/5/");
+        assertThat(tree.isAncestorOrSelf(2, 5)).isTrue();
+        assertThat(tree.childCount(tree.rootSlot())).isEqualTo(1);
+    }
+
+    @Test
+    public void removeDropsSubtreeAndReusesSlots() {
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 1);
+        tree.add(2, 1, 1);
+        tree.add(3, 2, 1);
+        tree.add(4, 1, 1);
+
+        assertThat(tree.remove(2)).isEqualTo(2);
+        assertThat(tree.contains(2)).isFalse();
+        assertThat(tree.contains(3)).isFalse();
+        assertThat(tree.size()).isEqualTo(2);
+
+        int slot = tree.add(5, 4, 1);
+        assertThat(slot).isLessThan(4);
+        assertThat(tree.sum(slot)).isEqualTo(3);
+    }
+
+    @Test
+    public void subtreeOfDeepChainDoesNotRecurse() {
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 1);
+        for (long id = 2; id <= 200_000; id++) {
+            tree.add(id, id - 1, 1);
+        }
+
+        assertThat(tree.subtree(tree.rootSlot())).hasSize(200_000);
+        assertThat(tree.setValue(1, 2)).isEqualTo(1);
+        assertThat(tree.sum(tree.slotOf(200_000))).isEqualTo(200_001);
+    }
+
+    @Test
+    public void movesAndValueChangesAreResolvedByReadsAndWalks() {
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 1);
+        tree.add(2, 1, 1);
+        for (long id = 3; id <= 100_000; id++) {
+            tree.add(id, id - 1, 1);
+        }
+        tree.add(100_001, 1, 5);
+
+        tree.move(3, 100_001);
+        tree.setValue(100_001, 10);
+        int leaf = tree.add(100_002, 100_000, 1);
+
+        assertThat(tree.sum(leaf)).isEqualTo(11 + 99_999);
+        assertThat(tree.level(leaf)).isEqualTo(100_000);
+        assertThat(tree.level(tree.slotOf(2))).isEqualTo(1);
+        int[] subtree = tree.subtree(tree.slotOf(100_001));
+        int[] sums = new int[subtree.length];
+        int[] levels = new int[subtree.length];
+        tree.resolve(subtree, sums, levels);
+        for (int i = 0; i < subtree.length; i += 997) {
+            assertThat(sums[i]).isEqualTo(tree.sum(subtree[i]));
+            assertThat(levels[i]).isEqualTo(tree.level(subtree[i]));
+        }
+        assertThat(sums[subtree.length - 1]).isEqualTo(tree.sum(leaf));
+    }
+
+    @Test
+    public void longIntMapSurvivesRandomRemovals() {
+        LongIntMap map = new LongIntMap(4);
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i, i);
+        }
+        for (int i = 0; i < 10_000; i += 1 + random.nextInt(3)) {
+            map.remove(i);
+            assertThat(map.get(i)).isEqualTo(LongIntMap.MISSING);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            int value = map.get(i);
+            assertThat(value == LongIntMap.MISSING || value == i).isTrue();
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import pl.piotrkalitka.TreeMngr.exception.ChangesExpiredException;
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemChange;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+import pl.piotrkalitka.TreeMngr.repository.ItemChangesRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemChangeLogTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemChangeLog itemChangeLog;
+
+    @Autowired
+    private ItemChangesRepository itemChangesRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void writesAreLoggedInOrderWithSumsAfterTheChange() throws Exception {
+        long since = itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID);
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+        Item other = itemsService.addItem(3, root.getId());
+        assertThatThrownBy(() -> itemsService.addItem(4, -1L)).isInstanceOf(ItemNotFoundException.class);
+        itemsService.updateItem(root.getId(), 10, null);
+        itemsService.updateItem(child.getId(), null, other.getId());
+        Item copy = itemsService.copyItem(other.getId(), root.getId());
+        itemsService.removeItem(child.getId());
+
+        List<ItemChange> changes = itemChangeLog.poll(Item.DEFAULT_TREE_ID, since, 100).get(5, TimeUnit.SECONDS);
+
+        assertThat(changes).extracting("seq").containsExactly(since + 1, since + 2, since + 3, since + 4, since + 5, since + 6, since + 7);
+        assertThat(changes).extracting("type", "itemId", "parentId", "value", "sum").containsExactly(
+                tuple(ItemChange.Type.ADD, root.getId(), null, 1, 1),
+                tuple(ItemChange.Type.ADD, child.getId(), root.getId(), 2, 3),
+                tuple(ItemChange.Type.ADD, other.getId(), root.getId(), 3, 4),
+                tuple(ItemChange.Type.UPDATE, root.getId(), null, 10, 10),
+                tuple(ItemChange.Type.MOVE, child.getId(), other.getId(), 2, 15),
+                tuple(ItemChange.Type.COPY, copy.getId(), root.getId(), 3, 13),
+                tuple(ItemChange.Type.REMOVE, child.getId(), other.getId(), 2, 15));
+    }
+
+    @Test
+    public void batchIsLoggedWithFinalStateOfItems() throws Exception {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        long since = itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID);
+
+        itemsService.applyBatch(Item.DEFAULT_TREE_ID, Arrays.asList(
+                new BatchOperation(BatchOperation.Type.ADD, "a", null, null, root.getId(), null, 2),
+                new BatchOperation(BatchOperation.Type.ADD, "b", null, null, null, "a", 3),
+                new BatchOperation(BatchOperation.Type.UPDATE, null, null, "a", null, null, 5),
+                new BatchOperation(BatchOperation.Type.DELETE, null, null, "b", null, null, null)));
+
+        List<ItemChange> changes = itemChangeLog.poll(Item.DEFAULT_TREE_ID, since, 100).get(5, TimeUnit.SECONDS);
+        assertThat(changes).extracting("type", "parentId", "value").containsExactly(
+                tuple(ItemChange.Type.ADD, root.getId(), 5),
+                tuple(ItemChange.Type.UPDATE, root.getId(), 5),
+                tuple(ItemChange.Type.REMOVE, changes.get(0).getItemId(), 3));
+        assertThat(changes.get(0).getSum()).isEqualTo(6);
+    }
+
+    @Test
+    public void pollWaitsForNextCommit() throws Exception {
+        long since = itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID);
+        CompletableFuture<List<ItemChange>> changes = itemChangeLog.poll(Item.DEFAULT_TREE_ID, since, 100);
+        assertThat(changes).isNotDone();
+
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+
+        assertThat(changes.get(5, TimeUnit.SECONDS)).extracting("itemId").containsExactly(root.getId());
+    }
+
+    @Test
+    public void pollWaitsForCommitOfOtherInstance() throws Exception {
+        long since = itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID);
+        CompletableFuture<List<ItemChange>> changes = itemChangeLog.poll(Item.DEFAULT_TREE_ID, since, 100);
+
+        // logged without this instance taking part in the transaction
+        itemChangesRepository.append(Item.DEFAULT_TREE_ID, Collections.singletonList(
+                new ItemChange(ItemChange.Type.ADD, Item.DEFAULT_TREE_ID, 1000L, null, 1, 1)));
+
+        assertThat(changes.get(5, TimeUnit.SECONDS)).extracting("seq", "itemId").containsExactly(tuple(since + 1, 1000L));
+    }
+
+    @Test
+    public void treesHaveTheirOwnFeeds() throws Exception {
+        long otherTreeId = 7;
+        long since = itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID);
+        long otherSince = itemChangeLog.lastSeq(otherTreeId);
+        CompletableFuture<List<ItemChange>> otherChanges = itemChangeLog.poll(otherTreeId, otherSince, 100);
+
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+        assertThat(otherChanges).isNotDone();
+        Item otherRoot = itemsService.addFirstItem(otherTreeId, 3);
+        itemsService.updateItem(child.getId(), null, otherRoot.getId());
+
+        assertThat(otherChanges.get(5, TimeUnit.SECONDS)).extracting("seq", "itemId").containsExactly(tuple(otherSince + 1, otherRoot.getId()));
+        assertThat(itemChangeLog.findSince(otherTreeId, otherSince, 100)).extracting("seq", "type", "itemId").containsExactly(
+                tuple(otherSince + 1, ItemChange.Type.ADD, otherRoot.getId()),
+                tuple(otherSince + 2, ItemChange.Type.MOVE, child.getId()));
+        assertThat(itemChangeLog.findSince(Item.DEFAULT_TREE_ID, since, 100)).extracting("seq", "type", "itemId").containsExactly(
+                tuple(since + 1, ItemChange.Type.ADD, root.getId()),
+                tuple(since + 2, ItemChange.Type.ADD, child.getId()),
+                tuple(since + 3, ItemChange.Type.REMOVE, child.getId()));
+    }
+
+    @Test
+    public void retentionIsKeptPerTree() {
+        long otherTreeId = 8;
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        for (int i = 0; i < 5; i++) {
+            itemsService.updateItem(root.getId(), i, null);
+        }
+        Item otherRoot = itemsService.addFirstItem(otherTreeId, 2);
+        long lastSeq = itemChangeLog.lastSeq(Item.DEFAULT_TREE_ID);
+
+        new ItemChangeLog(itemChangesRepository, 2).prune();
+
+        assertThat(itemChangeLog.findSince(otherTreeId, 0, 100)).extracting("itemId").containsExactly(otherRoot.getId());
+        assertThatThrownBy(() -> itemChangeLog.findSince(Item.DEFAULT_TREE_ID, lastSeq - 3, 100)).isInstanceOf(ChangesExpiredException.class);
+        assertThat(itemChangeLog.findSince(Item.DEFAULT_TREE_ID, lastSeq - 2, 100)).extracting("seq").containsExactly(lastSeq - 1, lastSeq);
+    }
+
+}
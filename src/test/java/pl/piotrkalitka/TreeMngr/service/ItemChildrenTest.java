@@ -0,0 +1,74 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemChildrenTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void pagesFollowTheLastReadChild() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        List<Long> childIds = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            childIds.add(itemsService.addItem(i, root.getId()).getId());
+        }
+        itemsService.addItem(5, childIds.get(3));
+
+        List<ItemNode> read = new ArrayList<>();
+        Long after = null;
+        List<ItemNode> page;
+        while (!(page = itemsService.getChildren(root.getId(), after, 10)).isEmpty()) {
+            assertThat(page.size()).isLessThanOrEqualTo(10);
+            read.addAll(page);
+            after = page.get(page.size() - 1).getId();
+        }
+
+        assertThat(read).extracting(ItemNode::getId).containsExactlyElementsOf(childIds);
+        assertThat(read.get(3).getSum()).isEqualTo(4);
+        assertThat(read.get(3).getLevel()).isEqualTo(1);
+        assertThat(read.get(3).getChildCount()).isEqualTo(1);
+        assertThat(read.get(4).getChildCount()).isZero();
+        assertThat(itemsService.getChildren(childIds.get(4), null, 10)).isEmpty();
+    }
+
+    @Test
+    public void rejectsMissingParentAndLimitOutOfRange() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+
+        assertThatThrownBy(() -> itemsService.getChildren(root.getId() + 1, null, 10)).isInstanceOf(ItemNotFoundException.class);
+        assertThatThrownBy(() -> itemsService.getChildren(root.getId(), null, 0)).isInstanceOf(UnprocessableEntityException.class);
+        assertThatThrownBy(() -> itemsService.getChildren(root.getId(), null, ItemsService.MAX_CHILDREN_LIMIT + 1))
+                .isInstanceOf(UnprocessableEntityException.class);
+    }
+
+}
@@ -0,0 +1,139 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.exception.JobNotFoundException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemJob;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemJobsTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemJobs itemJobs;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void jobsOnOneSubtreeAreAppliedInOrder() throws Exception {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item source = itemsService.addItem(2, root.getId());
+        List<Item> children = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            children.add(itemsService.addItem(i, source.getId()));
+        }
+        Item target = itemsService.addItem(3, root.getId());
+
+        ItemJob copy = itemJobs.copyItem(source.getId(), target.getId());
+        ItemJob update = itemJobs.updateItem(children.get(0).getId(), 100, null);
+        ItemJob remove = itemJobs.removeItem(source.getId());
+        awaitFinished(copy, update, remove);
+
+        assertThat(copy.getStatus()).isEqualTo(ItemJob.Status.SUCCEEDED);
+        assertThat(copy.getDone()).isEqualTo(51);
+        assertThat(update.getStatus()).isEqualTo(ItemJob.Status.SUCCEEDED);
+        assertThat(remove.getStatus()).isEqualTo(ItemJob.Status.SUCCEEDED);
+        assertThat(remove.getDone()).isEqualTo(remove.getTotal()).isEqualTo(51);
+        assertThat(itemsService.getStats(copy.getResultId()).getTotal()).isEqualTo(2 + 49 * 50 / 2);
+        assertThatThrownBy(() -> itemsService.getStats(source.getId())).isInstanceOf(ItemNotFoundException.class);
+        assertThat(itemJobs.getJob(remove.getId())).isSameAs(remove);
+    }
+
+    @Test
+    public void failedAndUnknownJobsAreReported() throws Exception {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+
+        ItemJob move = itemJobs.updateItem(root.getId(), null, child.getId());
+        awaitFinished(move);
+
+        assertThat(move.getStatus()).isEqualTo(ItemJob.Status.FAILED);
+        assertThat(move.getError()).isNotEmpty();
+        assertThatThrownBy(() -> itemJobs.removeItem(-1L)).isInstanceOf(ItemNotFoundException.class);
+        assertThatThrownBy(() -> itemJobs.getJob(-1)).isInstanceOf(JobNotFoundException.class);
+    }
+
+    @Test
+    public void jobsAreOrderedByAncestorsItemsGetFromQueuedMoves() throws Exception {
+        ItemsService items = mock(ItemsService.class);
+        when(items.getPath(1L)).thenReturn("/1/");
+        when(items.getPath(2L)).thenReturn("/1/2/");
+        when(items.getPath(3L)).thenReturn("/1/3/");
+        when(items.getStats(anyLong())).thenAnswer(invocation -> new ItemStats(invocation.getArgument(0)));
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch moved = new CountDownLatch(1);
+        CountDownLatch updated = new CountDownLatch(1);
+        when(items.updateItem(2L, null, 3L)).thenAnswer(invocation -> {
+            started.add("move");
+            moved.await();
+            return new Item();
+        });
+        when(items.updateItem(2L, 5, null)).thenAnswer(invocation -> {
+            started.add("update");
+            updated.await();
+            return new Item();
+        });
+        when(items.removeItemChunk(eq(3L), anyInt())).thenAnswer(invocation -> {
+            started.add("remove");
+            return 0;
+        });
+        ItemJobs jobs = new ItemJobs(items, 4, 100, 100, 10);
+        try {
+            // item 2 is moved below item 3, so the update of item 2 is inside the subtree removed afterwards
+            ItemJob move = jobs.updateItem(2L, null, 3L);
+            ItemJob update = jobs.updateItem(2L, 5, null);
+            ItemJob remove = jobs.removeItem(3L);
+            moved.countDown();
+            Thread.sleep(200);
+            assertThat(remove.getStatus()).isEqualTo(ItemJob.Status.QUEUED);
+            updated.countDown();
+            awaitFinished(move, update, remove);
+
+            assertThat(started).containsExactly("move", "update", "remove");
+        } finally {
+            jobs.shutdown();
+        }
+    }
+
+    private static void awaitFinished(ItemJob... jobs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        for (ItemJob job : jobs) {
+            while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.repository.ItemAncestry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ItemNodeCacheTest {
+
+    private final ItemNodeCache cache = new ItemNodeCache(100, new SimpleMeterRegistry());
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void loadsEveryItemOnce() {
+        cache.get(1L, loader("/1/"));
+        cache.get(1L, loader("/1/"));
+        assertThat(cache.get(2L, id -> Optional.empty())).isEmpty();
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.stats()).containsEntry("hitCount", 1L).containsEntry("missCount", 2L).containsKey("lookupP99Millis");
+    }
+
+    @Test
+    public void invalidatesOnlyGivenSubtree() {
+        cache.get(1L, loader("/1/"));
+        cache.get(2L, loader("/1/2/"));
+        cache.get(3L, loader("/1/2/3/"));
+        cache.get(4L, loader("/1/4/"));
+
+        cache.invalidateSubtree("/1/2/");
+        cache.get(1L, loader("/1/"));
+        cache.get(2L, loader("/1/2/"));
+        cache.get(3L, loader("/1/2/3/"));
+        cache.get(4L, loader("/1/4/"));
+
+        assertThat(loads.get()).isEqualTo(6);
+    }
+
+    @Test
+    public void invalidatesOnceTransactionCompletes() {
+        cache.get(1L, loader("/1/"));
+        cache.get(2L, loader("/1/2/"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.invalidateSubtree("/1/2/");
+            cache.invalidateSubtree("/1/2/");
+            cache.get(1L, loader("/1/"));
+            cache.get(2L, loader("/1/2/"));
+            cache.get(2L, loader("/1/2/"));
+            assertThat(loads.get()).isEqualTo(4);
+
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        cache.get(1L, loader("/1/"));
+        cache.get(2L, loader("/1/2/"));
+        cache.get(2L, loader("/1/2/"));
+
+        assertThat(loads.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void dropsLoadOverlappingInvalidationOfItsSubtree() {
+        Function<Long, Optional<ItemAncestry>> stale = loader("/1/2/");
+        cache.get(2L, id -> {
+            // the write commits and invalidates while the load still holds what it read before
+            cache.invalidateSubtree("/1/");
+            return stale.apply(id);
+        });
+        cache.get(3L, id -> {
+            cache.invalidateSubtree("/4/");
+            return stale.apply(id);
+        });
+        cache.get(2L, loader("/1/2/"));
+        cache.get(3L, loader("/1/2/"));
+
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    private Function<Long, Optional<ItemAncestry>> loader(String path) {
+        return id -> {
+            loads.incrementAndGet();
+            return Optional.of(new ItemAncestry() {
+                @Override
+                public Long getTreeId() {
+                    return Item.DEFAULT_TREE_ID;
+                }
+
+                @Override
+                public String getPath() {
+                    return path;
+                }
+
+                @Override
+                public Integer getValue() {
+                    return 1;
+                }
+
+                @Override
+                public Integer getSum() {
+                    return 1;
+                }
+
+                @Override
+                public Integer getLevel() {
+                    return 0;
+                }
+
+                @Override
+                public Long getVersion() {
+                    return 0L;
+                }
+            });
+        };
+    }
+
+}
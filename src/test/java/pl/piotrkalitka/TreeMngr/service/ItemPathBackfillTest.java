@@ -0,0 +1,57 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts the application against a database holding only the items table created by ddl-auto=update before
+ * migrations and paths were introduced.
+ */
+@SpringBootTest(properties = "spring.datasource.url=" + ItemPathBackfillTest.URL)
+@RunWith(SpringRunner.class)
+public class ItemPathBackfillTest {
+
+    static final String URL = "jdbc:h2:mem:treemngr-legacy;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private Flyway flyway;
+
+    @BeforeClass
+    public static void createLegacySchema() {
+        JdbcTemplate legacy = new JdbcTemplate(new DriverManagerDataSource(URL, "sa", ""));
+        legacy.execute("create table items (id bigint not null auto_increment, level integer not null, parent_id bigint, "
+                + "sum integer not null, value integer not null, primary key (id))");
+        legacy.execute("alter table items add constraint FKfdcdwo5fyijwyavhutcu4nqpb foreign key (parent_id) references items (id)");
+        legacy.update("insert into items (id, parent_id, value, sum, level) values (1, null, 1, 1, 0), (2, 1, 2, 3, 1), (3, 2, 3, 6, 5)");
+    }
+
+    @Test
+    public void legacyDatabaseIsMigratedAndBackfilled() {
+        assertThat(flyway.info().applied()).extracting(migration -> migration.getVersion().getVersion()).containsExactly("1", "2", "3", "4", "5");
+        assertThat(flyway.info().applied()[0].getType()).isEqualTo(MigrationType.BASELINE);
+        assertThat(itemsService.getPath(3L)).isEqualTo("/1/2/3/");
+        assertThat(itemsService.getStats(1L).getCount()).isEqualTo(3);
+        assertThat(itemsService.getTree(Item.DEFAULT_TREE_ID, null, 2, 0, 10).getChildren().get(0).getChildren().get(0).getLevel()).isEqualTo(2);
+
+        Item added = itemsService.addItem(4, 3L);
+        assertThat(added.getId()).isGreaterThan(3);
+        assertThat(added.getSum()).isEqualTo(10);
+        assertThat(added.getPath()).isEqualTo("/1/2/3/" + added.getId() + "/");
+    }
+
+}
@@ -0,0 +1,56 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.List;
+
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemPathNodesTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void chainFollowsMovesAndValueChanges() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item left = itemsService.addItem(2, root.getId());
+        Item right = itemsService.addItem(3, root.getId());
+        Item leaf = itemsService.addItem(4, left.getId());
+
+        itemsService.updateItem(leaf.getId(), null, right.getId());
+        itemsService.updateItem(right.getId(), 10, null);
+        List<ItemNode> chain = itemsService.getPathNodes(leaf.getId());
+
+        assertThat(chain).extracting(ItemNode::getId).containsExactly(root.getId(), right.getId(), leaf.getId());
+        assertThat(chain).extracting(ItemNode::getValue).containsExactly(1, 10, 4);
+        assertThat(chain).extracting(ItemNode::getSum).containsExactly(1, 11, 15);
+        assertThat(chain).extracting(ItemNode::getLevel).containsExactly(0, 1, 2);
+        assertThat(chain.get(0).getParentId()).isNull();
+        assertThat(itemsService.getPathNodes(root.getId())).extracting(ItemNode::getId).containsExactly(root.getId());
+        assertThatThrownBy(() -> itemsService.getPathNodes(leaf.getId() + 1000)).isInstanceOf(ItemNotFoundException.class);
+    }
+
+}
@@ -0,0 +1,143 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemStatsTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void statsOfLeafAndSubtree() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 5);
+        Item child = itemsService.addItem(-3, root.getId());
+        itemsService.addItem(10, child.getId());
+
+        ItemStats stats = itemsService.getStats(root.getId());
+
+        assertThat(stats.getCount()).isEqualTo(3);
+        assertThat(stats.getTotal()).isEqualTo(12);
+        assertThat(stats.getMin()).isEqualTo(-3);
+        assertThat(stats.getMax()).isEqualTo(10);
+        assertThat(stats.getDepth()).isEqualTo(2);
+    }
+
+    @Test
+    public void statsStayExactThroughRandomWrites() throws IOException {
+        Random random = new Random(7);
+        List<Long> ids = new ArrayList<>();
+        ids.add(itemsService.addFirstItem(Item.DEFAULT_TREE_ID, random.nextInt(100)).getId());
+
+        for (int operation = 0; operation < 300; operation++) {
+            long itemId = ids.get(random.nextInt(ids.size()));
+            long otherId = ids.get(random.nextInt(ids.size()));
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                    ids.add(itemsService.addItem(random.nextInt(100), itemId).getId());
+                    break;
+                case 2:
+                    itemsService.updateItem(itemId, random.nextInt(100), null);
+                    break;
+                case 3:
+                    try {
+                        itemsService.updateItem(itemId, null, otherId);
+                    } catch (UnprocessableEntityException ignored) {
+                    }
+                    break;
+                case 4:
+                    if (subtreeSize(itemId) < 20) itemsService.copyItem(itemId, otherId);
+                    break;
+                case 5:
+                    if (itemId != ids.get(0)) itemsService.removeItem(itemId);
+                    break;
+                case 6:
+                    itemsService.applyBatch(Item.DEFAULT_TREE_ID, Collections.singletonList(
+                            new BatchOperation(BatchOperation.Type.UPDATE, null, itemId, null, null, null, random.nextInt(100))));
+                    break;
+                case 7:
+                    importChain(itemId, random);
+                    break;
+            }
+            ids = jdbcTemplate.queryForList("select id from items order by id", Long.class);
+            assertStatsExact();
+        }
+    }
+
+    private void importChain(long parentId, Random random) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ItemRecordFormat.Writer writer = ItemRecordFormat.NDJSON.writer(out);
+        writer.write(new ItemRecord(1, null, random.nextInt(100), 0, 0));
+        writer.write(new ItemRecord(2, 1L, random.nextInt(100), 0, 0));
+        writer.write(new ItemRecord(3, 1L, random.nextInt(100), 0, 0));
+        writer.flush();
+        itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.NDJSON, new ByteArrayInputStream(out.toByteArray()), parentId);
+    }
+
+    private int subtreeSize(long id) {
+        return (int) itemsService.getStats(id).getCount();
+    }
+
+    /**
+     * Compares maintained aggregates of every item with the ones computed from all rows.
+     */
+    private void assertStatsExact() {
+        Map<Long, Long> parents = new HashMap<>();
+        Map<Long, Integer> values = new HashMap<>();
+        jdbcTemplate.query("select id, parent_id, value from items", rs -> {
+            long id = rs.getLong("id");
+            long parentId = rs.getLong("parent_id");
+            parents.put(id, rs.wasNull() ? null : parentId);
+            values.put(id, rs.getInt("value"));
+        });
+        Map<Long, ItemStats> expected = new HashMap<>();
+        for (Long id : parents.keySet()) {
+            expected.putIfAbsent(id, new ItemStats(id));
+            int depth = 0;
+            for (Long current = id; current != null; current = parents.get(current), depth++) {
+                ItemStats stats = expected.computeIfAbsent(current, ItemStats::new);
+                stats.add(values.get(id));
+                stats.setDepth(Math.max(stats.getDepth(), depth));
+            }
+        }
+        for (ItemStats stats : expected.values()) {
+            assertThat(itemsService.getStats(stats.getId())).isEqualToComparingFieldByField(stats);
+        }
+    }
+
+}
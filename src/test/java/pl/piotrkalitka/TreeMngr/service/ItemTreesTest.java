@@ -0,0 +1,89 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+import pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException;
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemTreesTest {
+
+    private static final long OTHER_TREE_ID = 7;
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void treesHaveTheirOwnFirstItems() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        itemsService.addItem(2, root.getId());
+        Item otherRoot = itemsService.addFirstItem(OTHER_TREE_ID, 10);
+        Item otherChild = itemsService.addItem(20, otherRoot.getId());
+
+        assertThatThrownBy(() -> itemsService.addFirstItem(OTHER_TREE_ID, 30)).isInstanceOf(FirstItemExistsException.class);
+        assertThat(otherChild.getTreeId()).isEqualTo(OTHER_TREE_ID);
+        assertThat(itemsService.getItems(Item.DEFAULT_TREE_ID).id(0)).isEqualTo(root.getId());
+        assertThat(itemsService.getItems(OTHER_TREE_ID).size()).isEqualTo(2);
+        assertThat(itemsService.getTree(OTHER_TREE_ID, null, 1, 0, 10).getId()).isEqualTo(otherRoot.getId());
+        assertThat(itemsService.getVersion(OTHER_TREE_ID, null)).startsWith(otherRoot.getId() + "-");
+        assertThat(itemsService.getItems(OTHER_TREE_ID + 1)).isNull();
+    }
+
+    @Test
+    public void movedSubtreeJoinsTreeOfNewParent() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item moved = itemsService.addItem(2, root.getId());
+        Item movedChild = itemsService.addItem(3, moved.getId());
+        Item otherRoot = itemsService.addFirstItem(OTHER_TREE_ID, 10);
+
+        itemsService.updateItem(moved.getId(), null, otherRoot.getId());
+
+        assertThat(treeId(moved.getId())).isEqualTo(OTHER_TREE_ID);
+        assertThat(treeId(movedChild.getId())).isEqualTo(OTHER_TREE_ID);
+        assertThat(itemsService.getItems(Item.DEFAULT_TREE_ID).size()).isEqualTo(1);
+        assertThat(itemsService.getItems(OTHER_TREE_ID).sum(2)).isEqualTo(15);
+        assertThat(itemsService.getStats(otherRoot.getId()).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void batchAppliesToItsTreeOnly() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        List<Long> ids = itemsService.applyBatch(OTHER_TREE_ID, Collections.singletonList(
+                new BatchOperation(BatchOperation.Type.ADD, null, null, null, null, null, 10)));
+
+        assertThat(treeId(ids.get(0))).isEqualTo(OTHER_TREE_ID);
+        assertThatThrownBy(() -> itemsService.applyBatch(OTHER_TREE_ID, Collections.singletonList(
+                new BatchOperation(BatchOperation.Type.UPDATE, null, root.getId(), null, null, null, 5))))
+                .isInstanceOf(UnprocessableEntityException.class);
+        assertThat(itemsService.getStats(root.getId()).getTotal()).isEqualTo(1);
+    }
+
+    private long treeId(Long id) {
+        return jdbcTemplate.queryForObject("select tree_id from items where id = ?", Long.class, id);
+    }
+
+}
@@ -0,0 +1,109 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.payload.BatchOperation;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemsBatchTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemNodesRepository itemNodesRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void batchRefersToCreatedItemsAndRecomputesSubtreesOnce() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item left = itemsService.addItem(2, root.getId());
+        Item right = itemsService.addItem(3, root.getId());
+
+        List<BatchOperation> operations = new ArrayList<>();
+        operations.add(add("a", left.getId(), null, 10));
+        operations.add(add("b", null, "a", 20));
+        operations.add(add(null, null, "b", 30));
+        operations.add(setValue(left.getId(), 5));
+        operations.add(move(null, "a", right.getId(), null));
+        operations.add(setValue(right.getId(), 7));
+        for (int i = 0; i < 100; i++) {
+            operations.add(add(null, null, "b", i));
+        }
+        operations.add(new BatchOperation(BatchOperation.Type.DELETE, null, null, "b", null, null, null));
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<Long> ids = itemsService.applyBatch(Item.DEFAULT_TREE_ID, operations);
+
+        assertThat(ids).hasSize(operations.size());
+        assertThat(statistics.getEntityInsertCount()).isZero();
+        ItemNode a = itemNodesRepository.findById(ids.get(0)).orElseThrow(AssertionError::new);
+        assertThat(a.getParentId()).isEqualTo(right.getId());
+        assertThat(a.getSum()).isEqualTo(1 + 7 + 10);
+        assertThat(a.getLevel()).isEqualTo(2);
+        assertThat(itemNodesRepository.findById(left.getId()).orElseThrow(AssertionError::new).getSum()).isEqualTo(6);
+        assertThat(itemNodesRepository.findSubtree(root.getPath())).hasSize(4);
+    }
+
+    @Test
+    public void failingOperationRollsBackWholeBatch() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+
+        List<BatchOperation> operations = Arrays.asList(
+                add("a", child.getId(), null, 10),
+                setValue(child.getId(), 100),
+                move(root.getId(), null, null, "a"));
+
+        assertThatThrownBy(() -> itemsService.applyBatch(Item.DEFAULT_TREE_ID, operations)).isInstanceOf(UnprocessableEntityException.class);
+        assertThat(itemNodesRepository.findSubtree(root.getPath()))
+                .extracting(ItemNode::getSum).containsExactly(1, 3);
+    }
+
+    private static BatchOperation add(String ref, Long parentId, String parentRef, int value) {
+        return new BatchOperation(BatchOperation.Type.ADD, ref, null, null, parentId, parentRef, value);
+    }
+
+    private static BatchOperation setValue(Long itemId, int value) {
+        return new BatchOperation(BatchOperation.Type.UPDATE, null, itemId, null, null, null, value);
+    }
+
+    private static BatchOperation move(Long itemId, String itemRef, Long parentId, String parentRef) {
+        return new BatchOperation(BatchOperation.Type.UPDATE, null, itemId, itemRef, parentId, parentRef, null);
+    }
+
+}
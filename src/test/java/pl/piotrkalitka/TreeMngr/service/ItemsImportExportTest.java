@@ -0,0 +1,158 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException;
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemsImportExportTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemNodesRepository itemNodesRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void streamedTreeNestsEveryItemInItsParent() throws IOException {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+        Item grandchild = itemsService.addItem(3, child.getId());
+        Item sibling = itemsService.addItem(4, root.getId());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        itemsService.streamItems(Item.DEFAULT_TREE_ID, out);
+        JsonNode tree = new ObjectMapper().readTree(out.toByteArray());
+
+        assertThat(tree.get("id").asLong()).isEqualTo(root.getId());
+        assertThat(tree.get("parentId").isNull()).isTrue();
+        assertThat(tree.get("children")).extracting(node -> node.get("id").asLong()).containsExactlyInAnyOrder(child.getId(), sibling.getId());
+        for (JsonNode node : tree.get("children")) {
+            assertThat(node.get("parentId").asLong()).isEqualTo(root.getId());
+            if (node.get("id").asLong() == child.getId()) {
+                JsonNode nested = node.get("children").get(0);
+                assertThat(nested.get("id").asLong()).isEqualTo(grandchild.getId());
+                assertThat(nested.get("sum").asInt()).isEqualTo(6);
+                assertThat(nested.get("level").asInt()).isEqualTo(2);
+                assertThat(nested.get("children")).isEmpty();
+            }
+        }
+    }
+
+    @Test
+    public void streamedEmptyTreeIsEmpty() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        itemsService.streamItems(Item.DEFAULT_TREE_ID, out);
+
+        assertThat(out.size()).isZero();
+    }
+
+    @Test
+    public void exportedTreeIsImportedWithSameShape() throws IOException {
+        for (ItemRecordFormat format : ItemRecordFormat.values()) {
+            Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+            Item child = itemsService.addItem(2, root.getId());
+            itemsService.addItem(3, child.getId());
+            itemsService.addItem(4, root.getId());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            itemsService.exportItems(Item.DEFAULT_TREE_ID, format, out);
+            cleanup();
+
+            long count = itemsService.importItems(Item.DEFAULT_TREE_ID, format, new ByteArrayInputStream(out.toByteArray()), null);
+
+            assertThat(count).isEqualTo(4);
+            ItemNode imported = itemNodesRepository.findRoot(Item.DEFAULT_TREE_ID).orElseThrow(AssertionError::new);
+            List<ItemNode> subtree = itemNodesRepository.findSubtree(ItemPath.of(null, imported.getId()));
+            // siblings are exported in the order of their paths, which is not the order of ids once ids grow a digit
+            assertThat(subtree).extracting(ItemNode::getValue, ItemNode::getSum, ItemNode::getLevel)
+                    .containsExactlyInAnyOrder(tuple(1, 1, 0), tuple(2, 3, 1), tuple(4, 5, 1), tuple(3, 6, 2));
+            assertThat(subtree).extracting(ItemNode::getLevel).containsExactly(0, 1, 1, 2);
+            assertThat(imported.getId()).isNotEqualTo(root.getId());
+            cleanup();
+        }
+    }
+
+    @Test
+    public void importUnderParentComputesSumsAndLevels() throws IOException {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 10);
+        String records = "{\"id\":7,\"parentId\":null,\"value\":1}\n"
+                + "{\"id\":8,\"parentId\":7,\"value\":2}\n"
+                + "{\"id\":9,\"parentId\":null,\"value\":3}\n";
+
+        long count = itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.NDJSON, new ByteArrayInputStream(records.getBytes(StandardCharsets.UTF_8)), root.getId());
+
+        assertThat(count).isEqualTo(3);
+        List<ItemNode> subtree = itemNodesRepository.findSubtree(root.getPath());
+        assertThat(subtree).extracting(ItemNode::getSum).containsExactly(10, 11, 13, 13);
+        assertThat(subtree).extracting(ItemNode::getLevel).containsExactly(0, 1, 1, 2);
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void childBeforeParentIsRejected() throws IOException {
+        String records = "{\"id\":8,\"parentId\":7,\"value\":2}\n";
+        itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.NDJSON, new ByteArrayInputStream(records.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    @Test
+    public void binaryFramesLongerThanKnownAreSkipped() throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(2 * (Integer.BYTES + ItemRecordFormat.MAX_FRAME_LENGTH));
+        for (long id = 1; id <= 2; id++) {
+            frames.putInt(ItemRecordFormat.MAX_FRAME_LENGTH).putLong(id).putLong(id == 1 ? -1 : 1).putInt((int) id).putInt(0).putInt(0);
+            frames.position(frames.position() + ItemRecordFormat.MAX_FRAME_LENGTH - 2 * Long.BYTES - 3 * Integer.BYTES);
+        }
+
+        ItemRecordFormat.Reader reader = ItemRecordFormat.BINARY.reader(new ByteArrayInputStream(frames.array()));
+
+        assertThat(reader.read().getValue()).isEqualTo(1);
+        assertThat(reader.read().getParentId()).isEqualTo(1);
+        assertThat(reader.read()).isNull();
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void binaryFrameLongerThanMaxIsRejected() throws IOException {
+        byte[] frame = ByteBuffer.allocate(Integer.BYTES).putInt(Integer.MAX_VALUE).array();
+        ItemRecordFormat.BINARY.reader(new ByteArrayInputStream(frame)).read();
+    }
+
+    @Test(expected = FirstItemExistsException.class)
+    public void importOfFirstItemIntoNonEmptyTreeIsRejected() throws IOException {
+        itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        itemsService.importItems(Item.DEFAULT_TREE_ID, ItemRecordFormat.NDJSON, new ByteArrayInputStream(new byte[0]), null);
+    }
+
+}
@@ -0,0 +1,86 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ItemsRemovalTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemNodesRepository itemNodesRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void removeItemDeletesWholeSubtree() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item removed = addRandomSubtree(root.getId(), 200);
+        Item kept = itemsService.addItem(2, root.getId());
+
+        itemsService.removeItem(removed.getId());
+
+        assertThat(itemNodesRepository.findSubtree(root.getPath())).extracting("id").containsExactlyInAnyOrder(root.getId(), kept.getId());
+        assertThatThrownBy(() -> itemsService.removeItem(removed.getId())).isInstanceOf(ItemNotFoundException.class);
+    }
+
+    @Test
+    public void removeItemChunkRemovesDeepestItemsFirst() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item removed = addRandomSubtree(root.getId(), 95);
+
+        int chunks = 0;
+        while (itemsService.removeItemChunk(removed.getId(), 10) > 0) {
+            chunks++;
+            Integer orphans = jdbcTemplate.queryForObject("select count(*) from items c where c.parent_id is not null "
+                    + "and not exists (select 1 from items p where p.id = c.parent_id)", Integer.class);
+            assertThat(orphans).isZero();
+        }
+
+        assertThat(chunks).isEqualTo(10);
+        assertThat(itemNodesRepository.findSubtree(root.getPath())).hasSize(1);
+    }
+
+    /**
+     * @param parentId - id of parent of subtree root
+     * @param size     - number of items in the subtree
+     * @return subtree root
+     */
+    private Item addRandomSubtree(Long parentId, int size) {
+        Random random = new Random(size);
+        List<Long> ids = new ArrayList<>();
+        Item subtreeRoot = itemsService.addItem(0, parentId);
+        ids.add(subtreeRoot.getId());
+        for (int i = 1; i < size; i++) {
+            ids.add(itemsService.addItem(i, ids.get(random.nextInt(ids.size()))).getId());
+        }
+        return subtreeRoot;
+    }
+
+}
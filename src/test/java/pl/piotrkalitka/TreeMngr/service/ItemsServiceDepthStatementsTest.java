@@ -0,0 +1,108 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+
+import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts statements of operations performed at the bottom of chains of growing depth, latency is measured by
+ * ItemsServiceBenchmark in src/jmh on its CHAIN shape.
+ * Ids come from a single block, so reserving a new one is not counted as statements of a measured operation.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+@TestPropertySource(properties = "treemngr.ids.block-size=100000")
+public class ItemsServiceDepthStatementsTest {
+
+    private static final int[] LEVELS = {10, 100, 5000};
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ItemIdAllocator itemIdAllocator;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void statementsDoNotGrowWithLevel() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        long tipId = root.getId();
+        String tipPath = ItemPath.of(null, tipId);
+        int level = 0;
+        Long addStatements = null;
+        Long checkStatements = null;
+        Long moveStatements = null;
+
+        for (int targetLevel : LEVELS) {
+            while (level < targetLevel) {
+                level++;
+                long id = itemIdAllocator.next();
+                tipPath = ItemPath.of(tipPath, id);
+                jdbcTemplate.update("insert into items (id, parent_id, value, sum, level, path, version, subtree_count, subtree_total, "
+                        + "subtree_min, subtree_max, subtree_depth) values (?, ?, 1, ?, ?, ?, 0, 1, 1, 1, 1, 0)",
+                        id, tipId, level + 1, level, tipPath);
+                tipId = id;
+            }
+            Item leaf = itemsService.addItem(1, root.getId());
+
+            statistics.clear();
+            Item added = itemsService.addItem(1, tipId);
+            long adds = statistics.getPrepareStatementCount();
+
+            statistics.clear();
+            try {
+                itemsService.updateItem(root.getId(), null, tipId);
+            } catch (UnprocessableEntityException ignored) {
+            }
+            long checks = statistics.getPrepareStatementCount();
+
+            statistics.clear();
+            Item moved = itemsService.updateItem(leaf.getId(), null, tipId);
+            long moves = statistics.getPrepareStatementCount();
+
+            assertThat(added.getLevel()).isEqualTo(level + 1);
+            assertThat(added.getSum()).isEqualTo(level + 2);
+            assertThat(moved.getLevel()).isEqualTo(level + 1);
+            assertThat(moved.getSum()).isEqualTo(level + 2);
+            if (addStatements == null) {
+                addStatements = adds;
+                checkStatements = checks;
+                moveStatements = moves;
+            }
+            assertThat(adds).isEqualTo(addStatements);
+            assertThat(checks).isEqualTo(checkStatements);
+            assertThat(moves).isEqualTo(moveStatements);
+
+            itemsService.removeItem(added.getId());
+            itemsService.removeItem(moved.getId());
+        }
+    }
+
+}
@@ -6,23 +6,41 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import javax.swing.text.html.Option;
 
 import ch.qos.logback.core.rolling.helper.IntegerTokenConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import pl.piotrkalitka.TreeMngr.exception.FirstItemExistsException;
 import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
 import pl.piotrkalitka.TreeMngr.exception.UnprocessableEntityException;
 import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemRecord;
+import pl.piotrkalitka.TreeMngr.model.ItemTree;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
 import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -32,6 +50,12 @@ public class ItemsServiceTest {
     @Mock
     private ItemsRepository itemsRepository;
 
+    @Mock
+    private ItemNodesRepository itemNodesRepository;
+
+    @Spy
+    private ItemNodeCache itemNodeCache = new ItemNodeCache(100, new SimpleMeterRegistry());
+
     @InjectMocks
     private ItemsService itemsService;
 
@@ -42,13 +66,46 @@ public class ItemsServiceTest {
 
     @Test
     public void getItems() {
-        when(itemsRepository.findByParentId(null)).thenReturn(new Item());
+        assertThat(itemsService.getItems(Item.DEFAULT_TREE_ID)).isNull();
+
+        doAnswer(invocation -> {
+            Consumer<ItemRecord> consumer = invocation.getArgument(1);
+            consumer.accept(new ItemRecord(1, null, 1, 1, 0));
+            consumer.accept(new ItemRecord(2, 1L, 2, 3, 1));
+            consumer.accept(new ItemRecord(4, 2L, 4, 7, 2));
+            consumer.accept(new ItemRecord(3, 1L, 3, 4, 1));
+            return null;
+        }).when(itemNodesRepository).forEachInPreOrder(eq(Item.DEFAULT_TREE_ID), any());
+        ItemTree tree = itemsService.getItems(Item.DEFAULT_TREE_ID);
+        assertThat(tree.size()).isEqualTo(4);
+        assertThat(tree.subtreeEnd(0)).isEqualTo(4);
+        assertThat(tree.subtreeEnd(1)).isEqualTo(3);
+        assertThat(tree.subtreeEnd(2)).isEqualTo(3);
+        assertThat(tree.subtreeEnd(3)).isEqualTo(4);
+        assertThat(tree.parentId(0)).isNull();
+        assertThat(tree.parentId(3)).isEqualTo(1L);
+    }
 
-        when(itemsRepository.existsByParentId(null)).thenReturn(false);
-        assertThat(itemsService.getItems()).isNull();
+    @Test(expected = UnprocessableEntityException.class)
+    public void getTree() {
+        itemsService.getTree(Item.DEFAULT_TREE_ID, null, 1, 0, ItemsService.MAX_CHILDREN_LIMIT + 1);
+    }
 
-        when(itemsRepository.existsByParentId(null)).thenReturn(true);
-        assertThat(itemsService.getItems()).isNotNull();
+    @Test(expected = UnprocessableEntityException.class)
+    public void getTreeDeeperThanMaxDepth() {
+        itemsService.getTree(Item.DEFAULT_TREE_ID, null, ItemsService.MAX_TREE_DEPTH + 1, 0, 10);
+    }
+
+    @Test
+    public void getTreeRejectsSliceOverMaxNodesBeforeReadingIt() {
+        when(itemNodesRepository.findRoot(Item.DEFAULT_TREE_ID)).thenReturn(Optional.of(new ItemNode(1L, null, 1, 1, 0)));
+        when(itemNodesRepository.countChildren(anyList())).thenAnswer(invocation ->
+                invocation.<List<Long>>getArgument(0).stream().collect(Collectors.toMap(id -> id, id -> 1000L)));
+        List<ItemNode> children = LongStream.rangeClosed(2, 1001).mapToObj(id -> new ItemNode(id, 1L, 1, 2, 1)).collect(Collectors.toList());
+        when(itemNodesRepository.findChildren(Collections.singletonList(1L))).thenReturn(children);
+
+        assertThatThrownBy(() -> itemsService.getTree(Item.DEFAULT_TREE_ID, null, 2, 0, 1000)).isInstanceOf(UnprocessableEntityException.class);
+        verify(itemNodesRepository, times(1)).findChildren(anyList());
     }
 
     @Test(expected = FirstItemExistsException.class)
@@ -63,10 +120,8 @@ public class ItemsServiceTest {
         newItem.setId(id);
         newItem.setParentId(parentId);
 
-        when(itemsRepository.count()).thenReturn(1L);
-        itemsService.addItem(new Random().nextInt());
-
-        when(itemsRepository.count()).thenReturn(0L);
+        when(itemNodesRepository.findRoot(Item.DEFAULT_TREE_ID)).thenReturn(Optional.of(new ItemNode(1L, null, 1, 1, 0)));
+        itemsService.addFirstItem(Item.DEFAULT_TREE_ID, new Random().nextInt());
         when(itemsRepository.save(newItem)).thenReturn(newItem);
 
         Item addedItem = itemsService.addItem(value, parentId);
@@ -0,0 +1,78 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import pl.piotrkalitka.TreeMngr.exception.TooManyPendingWritesException;
+import pl.piotrkalitka.TreeMngr.repository.ItemNodesRepository;
+import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ItemsWriteBehindTest {
+
+    @Mock
+    private ItemsRepository itemsRepository;
+
+    @Mock
+    private ItemNodesRepository itemNodesRepository;
+
+    @Mock
+    private ItemChangeLog itemChangeLog;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private ItemsWriteBehind writeBehind;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        writeBehind = new ItemsWriteBehind(itemsRepository, itemNodesRepository, itemChangeLog, transactionManager, 10, 2, 10, 2, 100);
+    }
+
+    @Test
+    public void rejectsWritersWhileQueueIsFull() {
+        writeBehind.updateValue(1, 1, "/1/", 1);
+        writeBehind.awaitCapacity();
+        writeBehind.updateValue(1, 2, "/1/", 1);
+
+        assertThatThrownBy(writeBehind::awaitCapacity).isInstanceOf(TooManyPendingWritesException.class);
+
+        writeBehind.flush();
+        assertThat(writeBehind.pendingCount()).isZero();
+        writeBehind.awaitCapacity();
+    }
+
+    @Test
+    public void keepsFailingWritesAndRejectsWritersUntilTheyAreStored() {
+        doThrow(new DataAccessResourceFailureException("down")).when(itemsRepository).updateValue(anyLong(), anyInt());
+        writeBehind.updateValue(1, 1, "/1/", 1);
+
+        writeBehind.flush();
+        writeBehind.flushDue();
+        assertThat(writeBehind.pendingCount()).isEqualTo(1);
+        verify(itemsRepository, times(1)).updateValue(1L, 1);
+        writeBehind.awaitCapacity();
+
+        writeBehind.flush();
+        assertThatThrownBy(writeBehind::awaitCapacity).isInstanceOf(TooManyPendingWritesException.class);
+
+        doReturn(1).when(itemsRepository).updateValue(anyLong(), anyInt());
+        writeBehind.flush();
+        assertThat(writeBehind.pendingCount()).isZero();
+        writeBehind.awaitCapacity();
+    }
+
+}
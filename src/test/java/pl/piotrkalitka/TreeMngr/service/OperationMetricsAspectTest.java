@@ -0,0 +1,85 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import pl.piotrkalitka.TreeMngr.exception.ItemNotFoundException;
+import pl.piotrkalitka.TreeMngr.model.Item;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class OperationMetricsAspectTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void operationsAreTimedWithTheirStatementsAndEntities() {
+        long firstAdded = timer("addFirstItem", "success").count();
+        long added = timer("addItem", "success").count();
+        long failed = timer("addItem", "error").count();
+        double statements = summary("treemngr.operation.statements", "addItem").totalAmount();
+        double rows = summary("treemngr.operation.rows.written", "addItem").totalAmount();
+        double entities = summary("treemngr.operation.entities.loaded", "updateItem").totalAmount();
+
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+        assertThatThrownBy(() -> itemsService.addItem(3, -1L)).isInstanceOf(ItemNotFoundException.class);
+        itemsService.updateItem(child.getId(), 5, null);
+
+        assertThat(timer("addFirstItem", "success").count()).isEqualTo(firstAdded + 1);
+        assertThat(timer("addItem", "success").count()).isEqualTo(added + 1);
+        assertThat(timer("addItem", "error").count()).isEqualTo(failed + 1);
+        assertThat(summary("treemngr.operation.statements", "addItem").totalAmount()).isGreaterThan(statements);
+        assertThat(summary("treemngr.operation.rows.written", "addItem").totalAmount()).isGreaterThan(rows);
+        assertThat(summary("treemngr.operation.entities.loaded", "updateItem").totalAmount()).isGreaterThan(entities);
+    }
+
+    @Test
+    public void touchedSubtreeIsRecorded() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item child = itemsService.addItem(2, root.getId());
+        Item grandchild = itemsService.addItem(3, child.getId());
+        itemsService.addItem(4, grandchild.getId());
+        Item other = itemsService.addItem(5, root.getId());
+        double size = summary("treemngr.operation.subtree.size", "updateItem").totalAmount();
+        double depth = summary("treemngr.operation.subtree.depth", "updateItem").totalAmount();
+
+        itemsService.updateItem(child.getId(), null, other.getId());
+
+        assertThat(summary("treemngr.operation.subtree.size", "updateItem").totalAmount()).isEqualTo(size + 3);
+        assertThat(summary("treemngr.operation.subtree.depth", "updateItem").totalAmount()).isEqualTo(depth + 2);
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return meterRegistry.timer("treemngr.operation", "operation", operation, "outcome", outcome);
+    }
+
+    private DistributionSummary summary(String name, String operation) {
+        return meterRegistry.summary(name, "operation", operation);
+    }
+
+}
@@ -0,0 +1,82 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import pl.piotrkalitka.TreeMngr.model.ItemNode;
+import pl.piotrkalitka.TreeMngr.model.ItemPath;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubtreePlanTest {
+
+    private static final int CHAIN_SIZE = 1_000_000;
+
+    @Test
+    public void plansChainOfMillionItemsInConstantStackDepth() {
+        List<ItemNode> chain = new ArrayList<>(CHAIN_SIZE);
+        for (long id = 1; id <= CHAIN_SIZE; id++) {
+            chain.add(new ItemNode(id, id == 1 ? null : id - 1, 1, 0, 0));
+        }
+
+        SubtreePlan plan = SubtreePlan.of(chain, 5, 2, null, 0);
+
+        assertThat(plan.sum(CHAIN_SIZE - 1)).isEqualTo(5 + CHAIN_SIZE);
+        assertThat(plan.level(CHAIN_SIZE - 1)).isEqualTo(2 + CHAIN_SIZE);
+    }
+
+    @Test
+    public void plansChainWithLeafOnEveryItemInConstantStackDepth() {
+        // every item of the chain has a leaf sibling, so every range of the chain is split into a leaf and the rest
+        List<ItemNode> nodes = new ArrayList<>(CHAIN_SIZE);
+        nodes.add(new ItemNode(1, null, 1, 0, 0));
+        for (long id = 2; id < CHAIN_SIZE; id += 2) {
+            long parentId = id == 2 ? 1 : id - 2;
+            nodes.add(new ItemNode(id, parentId, 1, 0, 0));
+            nodes.add(new ItemNode(id + 1, parentId, 1, 0, 0));
+        }
+
+        SubtreePlan plan = SubtreePlan.of(nodes, 0, -1, null, 0);
+
+        int last = nodes.size() - 1;
+        assertThat(plan.sum(last)).isEqualTo(plan.level(last) + 1).isEqualTo(CHAIN_SIZE / 2);
+    }
+
+    @Test
+    public void forkedPlanMatchesOneWalk() {
+        Random random = new Random(3);
+        List<ItemNode> nodes = new ArrayList<>();
+        nodes.add(new ItemNode(100, null, 7, 0, 0));
+        for (long id = 101; id < 100 + 10 * SubtreePlan.SPLIT_THRESHOLD; id++) {
+            long parentId = id < 200 ? id - 1 : 100 + random.nextInt((int) id - 100);
+            nodes.add(new ItemNode(id, parentId, random.nextInt(2001) - 1000, 0, 0));
+        }
+        // same order as read from the database, by level and id
+        Map<Long, Integer> levels = new HashMap<>();
+        for (ItemNode node : nodes) {
+            levels.put(node.getId(), node.getParentId() == null ? 0 : levels.get(node.getParentId()) + 1);
+        }
+        nodes.sort((left, right) -> left.getId() == right.getId() ? 0
+                : levels.get(left.getId()).equals(levels.get(right.getId())) ? Long.compare(left.getId(), right.getId())
+                : Integer.compare(levels.get(left.getId()), levels.get(right.getId())));
+
+        SubtreePlan plan = SubtreePlan.of(nodes, 10, 3, "/1/2/", 5000);
+
+        Map<Long, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            ItemNode node = nodes.get(i);
+            Integer parent = node.getParentId() == null ? null : indexes.get(node.getParentId());
+            assertThat(plan.parent(i)).isEqualTo(parent == null ? LongIntMap.MISSING : parent);
+            assertThat(plan.sum(i)).isEqualTo((parent == null ? 10 : plan.sum(parent)) + node.getValue());
+            assertThat(plan.level(i)).isEqualTo((parent == null ? 3 : plan.level(parent)) + 1);
+            assertThat(plan.path(i)).isEqualTo(ItemPath.of(parent == null ? "/1/2/" : plan.path(parent), 5000L + i));
+            indexes.put(node.getId(), i);
+        }
+    }
+
+}
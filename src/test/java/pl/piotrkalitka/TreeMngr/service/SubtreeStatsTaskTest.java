@@ -0,0 +1,39 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import pl.piotrkalitka.TreeMngr.model.ItemStats;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubtreeStatsTaskTest {
+
+    @Test
+    public void splitAggregatesMatchOneWalk() {
+        Random random = new Random(5);
+        InMemoryTree tree = new InMemoryTree(1);
+        tree.add(1, InMemoryTree.NO_PARENT, 0);
+        for (long id = 2; id <= 10 * SubtreeStatsTask.SPLIT_THRESHOLD; id++) {
+            long parentId = id < 1000 ? id - 1 : 1 + random.nextInt((int) id - 1);
+            tree.add(id, parentId, random.nextInt(2001) - 1000);
+        }
+
+        int[] slots = tree.subtree(tree.slotOf(2));
+        int[] sums = new int[slots.length];
+        int[] levels = new int[slots.length];
+        tree.resolve(slots, sums, levels);
+        ItemStats expected = new ItemStats(2);
+        for (int i = 0; i < slots.length; i++) {
+            expected.add(tree.value(slots[i]));
+            expected.setDepth(Math.max(expected.getDepth(), levels[i] - levels[0]));
+        }
+
+        tree.setValue(1, 1);
+        ItemStats stats = SubtreeStatsTask.compute(tree, 2, slots);
+        assertThat(slots.length).isGreaterThan(SubtreeStatsTask.SPLIT_THRESHOLD);
+        assertThat(stats).isEqualToComparingFieldByField(expected);
+    }
+
+}
@@ -0,0 +1,95 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+import pl.piotrkalitka.TreeMngr.repository.ItemsRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that subtree sums are recomputed by a constant number of statements, on a wide and on a deep tree. Time of
+ * value changes, against the recursive refresh it replaced, is measured by SubtreeSumBenchmark in src/jmh.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class SubtreeSumStatementsTest {
+
+    private static final int WIDTH = 100;
+    private static final int DEPTH = 50;
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private ItemsRepository itemsRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Statistics statistics;
+
+    @Before
+    public void setup() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void wideTree() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item hub = itemsService.addItem(1, root.getId());
+        Item last = null;
+        for (int i = 0; i < WIDTH; i++) {
+            last = itemsService.addItem(1, hub.getId());
+        }
+        assertSetBased(hub.getId(), last.getId());
+    }
+
+    @Test
+    public void deepTree() {
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item hub = itemsService.addItem(1, root.getId());
+        Item last = hub;
+        for (int i = 0; i < DEPTH; i++) {
+            last = itemsService.addItem(1, last.getId());
+        }
+        assertSetBased(hub.getId(), last.getId());
+    }
+
+    /**
+     * Changes value of hub item and checks sum of the probe item afterwards.
+     *
+     * @param hubId   - id of item which value is changed
+     * @param probeId - id of descendant which sum is checked
+     */
+    private void assertSetBased(Long hubId, Long probeId) {
+        int probeSum = itemsRepository.findById(probeId).get().getSum();
+
+        statistics.clear();
+        itemsService.updateItem(hubId, 11, null);
+
+        assertThat(itemsRepository.findById(probeId).get().getSum()).isEqualTo(probeSum + 10);
+        assertThat(statistics.getPrepareStatementCount()).isLessThan(10);
+    }
+
+}
@@ -0,0 +1,80 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.piotrkalitka.TreeMngr.model.Item;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class SubtreeVersionTest {
+
+    @Autowired
+    private ItemsService itemsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @After
+    public void cleanup() {
+        jdbcTemplate.update("update items set parent_id = null");
+        jdbcTemplate.update("delete from items");
+    }
+
+    @Test
+    public void writesChangeVersionsOfTouchedSubtreesOnly() {
+        assertThat(itemsService.getVersion(Item.DEFAULT_TREE_ID, null)).isNull();
+        Item root = itemsService.addFirstItem(Item.DEFAULT_TREE_ID, 1);
+        Item left = itemsService.addItem(2, root.getId());
+        Item leftChild = itemsService.addItem(3, left.getId());
+        Item right = itemsService.addItem(4, root.getId());
+        List<Long> ids = Arrays.asList(root.getId(), left.getId(), leftChild.getId(), right.getId());
+        assertThat(itemsService.getVersion(Item.DEFAULT_TREE_ID, null)).isEqualTo(itemsService.getVersion(Item.DEFAULT_TREE_ID, root.getId()));
+
+        Map<Long, String> before = versions(ids);
+        itemsService.updateItem(left.getId(), 5, null);
+        assertChanged(before, versions(ids), root.getId(), left.getId(), leftChild.getId());
+
+        before = versions(ids);
+        itemsService.addItem(6, right.getId());
+        assertChanged(before, versions(ids), root.getId(), right.getId());
+
+        before = versions(ids);
+        itemsService.updateItem(leftChild.getId(), null, right.getId());
+        assertChanged(before, versions(ids), root.getId(), left.getId(), leftChild.getId(), right.getId());
+
+        List<Long> kept = Arrays.asList(root.getId(), left.getId(), right.getId());
+        before = versions(kept);
+        itemsService.removeItemChunk(right.getId(), 1);
+        assertChanged(before, versions(kept), root.getId(), right.getId());
+    }
+
+    private Map<Long, String> versions(List<Long> ids) {
+        Map<Long, String> versions = new HashMap<>();
+        for (Long id : ids) {
+            versions.put(id, itemsService.getVersion(Item.DEFAULT_TREE_ID, id));
+        }
+        return versions;
+    }
+
+    private static void assertChanged(Map<Long, String> before, Map<Long, String> after, Long... changedIds) {
+        List<Long> changed = Arrays.asList(changedIds);
+        for (Map.Entry<Long, String> version : before.entrySet()) {
+            if (changed.contains(version.getKey())) assertThat(after.get(version.getKey())).isNotEqualTo(version.getValue());
+            else assertThat(after.get(version.getKey())).isEqualTo(version.getValue());
+        }
+    }
+
+}
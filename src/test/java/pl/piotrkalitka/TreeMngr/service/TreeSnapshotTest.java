@@ -0,0 +1,74 @@
+package pl.piotrkalitka.TreeMngr.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TreeSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writtenTreeIsReadBack() throws IOException {
+        Random random = new Random(3);
+        InMemoryTree tree = new InMemoryTree(16);
+        List<Long> ids = new ArrayList<>();
+        tree.add(1, InMemoryTree.NO_PARENT, 7);
+        ids.add(1L);
+        for (long id = 2; id <= 2000; id++) {
+            tree.add(id, ids.get(random.nextInt(ids.size())), random.nextInt(100) - 50);
+            ids.add(id);
+        }
+        tree.remove(ids.get(100));
+        tree.move(ids.get(1500), ids.get(3));
+        Path file = folder.getRoot().toPath().resolve("tree.snapshot");
+
+        TreeSnapshot.write(tree, 42, file);
+        TreeSnapshot snapshot = TreeSnapshot.read(file);
+
+        InMemoryTree read = snapshot.getTree();
+        assertThat(snapshot.getChangeSeq()).isEqualTo(42);
+        assertThat(read.size()).isEqualTo(tree.size());
+        for (int slot : tree.subtree(tree.rootSlot())) {
+            int readSlot = read.slotOf(tree.id(slot));
+            assertThat(read.parentId(readSlot)).isEqualTo(tree.parentId(slot));
+            assertThat(read.value(readSlot)).isEqualTo(tree.value(slot));
+            assertThat(read.sum(readSlot)).isEqualTo(tree.sum(slot));
+            assertThat(read.level(readSlot)).isEqualTo(tree.level(slot));
+            assertThat(read.childCount(readSlot)).isEqualTo(tree.childCount(slot));
+            for (int index = 0; index < tree.childCount(slot); index++) {
+                assertThat(read.id(read.child(readSlot, index))).isEqualTo(tree.id(tree.child(slot, index)));
+            }
+        }
+
+        read.add(5000, 1, 1);
+        assertThat(read.sum(read.slotOf(5000))).isEqualTo(8);
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws IOException {
+        InMemoryTree tree = new InMemoryTree(16);
+        tree.add(1, InMemoryTree.NO_PARENT, 1);
+        tree.add(2, 1, 1);
+        Path file = folder.getRoot().toPath().resolve("tree.snapshot");
+        TreeSnapshot.write(tree, 1, file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertThatThrownBy(() -> TreeSnapshot.read(file)).isInstanceOf(IOException.class);
+    }
+
+}